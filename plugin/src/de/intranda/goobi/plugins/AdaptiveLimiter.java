@@ -0,0 +1,242 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+/**
+ * Limits the number of operations that run at the same time and adapts the limit to the observed latency, with additive increase and
+ * multiplicative decrease like the congestion control of TCP.
+ * <ul>
+ * <li>The baseline is the lowest latency seen since the start of the previous baseline interval, so it follows a catalogue or a file
+ * server that becomes permanently slower.</li>
+ * <li>While the smoothed latency stays below the baseline multiplied by the tolerance and at least half of the limit is used, the limit
+ * grows by one for every limit operations.</li>
+ * <li>If an operation fails or the smoothed latency exceeds the tolerance, the limit is multiplied by the backoff ratio. Only operations
+ * that started after the last decrease can decrease it again, so a burst of slow operations counts once.</li>
+ * </ul>
+ * The limit only takes effect below the number of threads that run the operations. Latencies can be given per unit of work, e.g. per MB
+ * of an image, so that operations of different sizes are compared.
+ */
+class AdaptiveLimiter {
+
+    private static final Logger logger = Logger.getLogger(AdaptiveLimiter.class);
+
+    /** weight of a new sample in the smoothed latency */
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final double tolerance;
+
+    private final long baselineInterval;
+
+    private final Object lock = new Object();
+
+    private double limit;
+
+    private int inFlight;
+
+    // latencies in ns per unit, 0 if there is no sample yet
+    private double smoothed;
+
+    private double baseline;
+
+    private double intervalMin;
+
+    private long intervalStart = System.nanoTime();
+
+    private long lastDecrease = System.nanoTime();
+
+    private long decreases;
+
+    /**
+     * @param name name of the operations, used in the log and the metrics
+     * @param initialLimit limit before the first latency is known
+     * @param backoffRatio factor applied to the limit when the operations become slow or fail
+     * @param tolerance factor by which the smoothed latency may exceed the baseline
+     * @param baselineMillis interval in ms after that the baseline is measured again
+     */
+    AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio, double tolerance,
+            long baselineMillis) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.backoffRatio = Math.min(0.95, Math.max(0.1, backoffRatio));
+        this.tolerance = Math.max(1, tolerance);
+        this.baselineInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, baselineMillis));
+    }
+
+    /**
+     * Creates the limiter configured in {@code adaptiveConcurrency/<key>}.
+     *
+     * @return the limiter or null if adaptive concurrency is not enabled
+     */
+    static AdaptiveLimiter create(HierarchicalConfiguration config, String key, int defaultInitial, int defaultMax) {
+        return create(config, key, key, defaultInitial, defaultMax);
+    }
+
+    /**
+     * Creates a limiter with the settings of {@code adaptiveConcurrency/<key>} under another name, e.g. one for every device.
+     */
+    static AdaptiveLimiter create(HierarchicalConfiguration config, String key, String name, int defaultInitial, int defaultMax) {
+        if (!config.getBoolean("adaptiveConcurrency[@enabled]", false)) {
+            return null;
+        }
+        String prefix = "adaptiveConcurrency." + key + ".";
+        long baselineMillis = TimeUnit.MINUTES.toMillis(config.getLong("adaptiveConcurrency.baselineMinutes", 10));
+        return new AdaptiveLimiter(name, config.getInt(prefix + "initial", defaultInitial), config.getInt(prefix + "min", 1),
+                config.getInt(prefix + "max", defaultMax), config.getDouble("adaptiveConcurrency.backoff", 0.7),
+                config.getDouble("adaptiveConcurrency.tolerance", 2), baselineMillis);
+    }
+
+    /**
+     * Executes the operation within the limit, an exception counts as failure.
+     */
+    <T> T execute(Callable<T> operation) throws Exception {
+        long start = acquire();
+        boolean failed = true;
+        try {
+            T result = operation.call();
+            failed = false;
+            return result;
+        } finally {
+            release(start, 1, failed);
+        }
+    }
+
+    /**
+     * Waits until the operation may start.
+     *
+     * @return the start time to pass to {@link #release(long, double, boolean)}
+     */
+    long acquire() throws InterruptedException {
+        synchronized (lock) {
+            while (inFlight >= (int) limit) {
+                lock.wait();
+            }
+            inFlight++;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends an operation and adapts the limit to its latency.
+     *
+     * @param start time returned by {@link #acquire()}
+     * @param units amount of work done by the operation, the latency is divided by it. Values below 1 count as 1.
+     * @param failed true if the operation failed
+     */
+    void release(long start, double units, boolean failed) {
+        long now = System.nanoTime();
+        double latency = (now - start) / Math.max(1, units);
+        synchronized (lock) {
+            boolean used = inFlight * 2 >= limit;
+            inFlight--;
+            if (!failed) {
+                addSample(latency, now);
+            }
+            if (failed || smoothed > baseline * tolerance) {
+                // operations that started before the last decrease saw the old limit
+                if (start - lastDecrease > 0) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                    decreases++;
+                    // the next samples show whether the lower limit is enough
+                    smoothed = 0;
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(name + ": " + (failed ? "failure" : "latency increased") + ", limit decreased to " + getLimit());
+                    }
+                }
+            } else if (used && limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Ends an operation without a latency sample, e.g. if the image was linked instead of copied.
+     */
+    void ignore() {
+        synchronized (lock) {
+            inFlight--;
+            lock.notifyAll();
+        }
+    }
+
+    private void addSample(double latency, long now) {
+        smoothed = smoothed == 0 ? latency : smoothed * (1 - SMOOTHING) + latency * SMOOTHING;
+        if (now - intervalStart > baselineInterval) {
+            // the minimum of the last interval is kept until the new interval has a lower latency
+            baseline = intervalMin;
+            intervalMin = 0;
+            intervalStart = now;
+        }
+        if (intervalMin == 0 || latency < intervalMin) {
+            intervalMin = latency;
+        }
+        if (baseline == 0 || intervalMin < baseline) {
+            baseline = intervalMin;
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getLimit() {
+        synchronized (lock) {
+            return (int) limit;
+        }
+    }
+
+    int getInFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * Returns the smoothed latency in ms per unit.
+     */
+    double getLatency() {
+        synchronized (lock) {
+            return smoothed / 1000000d;
+        }
+    }
+
+    /**
+     * Returns the baseline latency in ms per unit.
+     */
+    double getBaseline() {
+        synchronized (lock) {
+            return baseline / 1000000d;
+        }
+    }
+
+    long getDecreases() {
+        synchronized (lock) {
+            return decreases;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format(Locale.ENGLISH, "%s: limit %d, %d in flight, latency %.1f ms, baseline %.1f ms, %d decreases", name,
+                    (int) limit, inFlight, smoothed / 1000000d, baseline / 1000000d, decreases);
+        }
+    }
+
+}
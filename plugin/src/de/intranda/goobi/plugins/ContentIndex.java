@@ -0,0 +1,228 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent index of the imported master images by checksum and size, used to find images that were imported before under another
+ * name. The index is an append-only file like the {@link ImportJournal}: it is read into a hash map when it is opened and every imported
+ * image adds a line. If an image is added again, the last entry wins.
+ * <p>
+ * All checksums of an index use the same algorithm, it is written into the first line of the file.
+ */
+class ContentIndex implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(ContentIndex.class);
+
+    private static final String HEADER = "# algorithm ";
+
+    /**
+     * An imported image.
+     */
+    static class Entry {
+
+        private final String checksum;
+
+        private final long size;
+
+        private final String identifier;
+
+        private final String image;
+
+        private final String source;
+
+        /**
+         * @param identifier identifier of the map
+         * @param image name of the image in the media folder
+         * @param source path of the source image
+         */
+        Entry(String checksum, long size, String identifier, String image, String source) {
+            this.checksum = checksum;
+            this.size = size;
+            this.identifier = identifier;
+            this.image = image;
+            this.source = source;
+        }
+
+        String getChecksum() {
+            return checksum;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        String getIdentifier() {
+            return identifier;
+        }
+
+        String getImage() {
+            return image;
+        }
+
+        String getSource() {
+            return source;
+        }
+
+        @Override
+        public String toString() {
+            return identifier + "/" + image;
+        }
+    }
+
+    private final File file;
+
+    private final String algorithm;
+
+    private final int syncInterval;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // sizes of all indexed images, only images with one of these sizes need a checksum before they are copied
+    private final Set<Long> sizes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final FileChannel channel;
+
+    private int unsynced;
+
+    /**
+     * Opens the index, existing entries are read.
+     *
+     * @param algorithm checksum algorithm of the entries
+     * @throws IOException if the index cannot be read or uses another algorithm
+     */
+    ContentIndex(File file, String algorithm, int syncInterval) throws IOException {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.syncInterval = Math.max(1, syncInterval);
+        boolean exists = file.length() > 0;
+        boolean terminated = true;
+        if (exists) {
+            read();
+            // an incomplete last line is terminated, so that the next entry starts on a new line
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer last = ByteBuffer.allocate(1);
+                in.read(last, in.size() - 1);
+                terminated = last.get(0) == '\n';
+            }
+        } else if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+        // several nodes or batches may add entries at the same time
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!exists) {
+            write(HEADER + algorithm + "\n");
+        } else if (!terminated) {
+            write("\n");
+        }
+    }
+
+    private void read() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(HEADER)) {
+                throw new IOException(file + " is no content index");
+            }
+            String indexAlgorithm = line.substring(HEADER.length()).trim();
+            if (!indexAlgorithm.equalsIgnoreCase(algorithm)) {
+                throw new IOException("the content index " + file + " uses " + indexAlgorithm + " checksums, not " + algorithm);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 6 || !"end".equals(parts[5])) {
+                    // incomplete line written during a crash
+                    continue;
+                }
+                try {
+                    put(new Entry(parts[1], Long.parseLong(parts[0]), parts[2], parts[3], parts[4]));
+                } catch (NumberFormatException e) {
+                    logger.warn("invalid content index entry: " + line);
+                }
+            }
+        }
+        logger.info("read " + entries.size() + " images from content index " + file);
+    }
+
+    /**
+     * Returns true if an image with this size was imported, only then {@link #get(String, long)} can find a duplicate.
+     */
+    boolean containsSize(long size) {
+        return sizes.contains(size);
+    }
+
+    /**
+     * Returns the last imported image with the checksum and size, or null.
+     */
+    Entry get(String checksum, long size) {
+        return entries.get(createKey(checksum, size));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Adds an imported image.
+     */
+    synchronized void add(Entry entry) throws IOException {
+        write(entry.size + "\t" + entry.checksum + "\t" + clean(entry.identifier) + "\t" + clean(entry.image) + "\t" + clean(entry.source)
+                + "\tend\n");
+        put(entry);
+        if (++unsynced >= syncInterval) {
+            sync();
+        }
+    }
+
+    synchronized void sync() throws IOException {
+        if (unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+
+    private void put(Entry entry) {
+        entries.put(createKey(entry.checksum, entry.size), entry);
+        sizes.add(entry.size);
+    }
+
+    private void write(String line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static String createKey(String checksum, long size) {
+        return size + ":" + checksum.toLowerCase();
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+}
@@ -0,0 +1,191 @@
+package de.intranda.goobi.plugins;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+/**
+ * Creates a smaller copy of a master image, e.g. a jpeg for the viewer. The master is never decoded in full resolution: the reader skips
+ * rows and columns while it decodes ({@link ImageReadParam#setSourceSubsampling(int, int, int, int)}), so only an image of about twice
+ * the target size is kept in memory, and tiled images are read one row of tiles after the other. The last step down to the target size
+ * is interpolated.
+ * <p>
+ * Reading tiff files needs an image reader for tiff, the file is written with any image writer that is available for the format.
+ */
+class DerivativeGenerator {
+
+    private final String format;
+
+    private final String suffix;
+
+    private final int maxSize;
+
+    private final float quality;
+
+    /**
+     * @param format name of the output format, e.g. jpg
+     * @param maxSize length of the longer side of the derivative, smaller images are not enlarged
+     * @param quality compression quality between 0 and 1
+     * @throws IllegalArgumentException if no image writer is available for the format
+     */
+    DerivativeGenerator(String format, int maxSize, float quality) {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IllegalArgumentException("no image writer available for " + format);
+        }
+        String[] suffixes = writers.next().getOriginatingProvider().getFileSuffixes();
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("invalid size " + maxSize);
+        }
+        this.format = format;
+        this.suffix = suffixes == null || suffixes.length == 0 ? format : suffixes[0];
+        this.maxSize = maxSize;
+        this.quality = quality;
+    }
+
+    /**
+     * Creates a generator from the {@code derivatives} section of the configuration, or returns null if derivatives are not enabled.
+     */
+    static DerivativeGenerator create(HierarchicalConfiguration config) {
+        if (!config.getBoolean("derivatives[@enabled]", false)) {
+            return null;
+        }
+        return new DerivativeGenerator(config.getString("derivatives.format", "jpg"), config.getInt("derivatives.maxSize", 2000),
+                config.getFloat("derivatives.quality", 0.85f));
+    }
+
+    /**
+     * Returns the file name of the derivative of an image, the extension is replaced by the one of the output format.
+     */
+    String getTargetName(String masterName) {
+        int dot = masterName.lastIndexOf('.');
+        return (dot > 0 ? masterName.substring(0, dot) : masterName) + "." + suffix;
+    }
+
+    /**
+     * Creates the derivative of the source image. The file is written to a temporary name first and renamed when it is complete.
+     *
+     * @return the size of the derivative in pixels
+     */
+    Rectangle generate(Path source, Path target) throws IOException {
+        BufferedImage image = read(source);
+        Path folder = target.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Path temp = folder.resolve("." + target.getFileName() + ".part");
+        try {
+            write(image, temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new Rectangle(image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Reads the image in the size of the derivative.
+     */
+    BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            if (in == null) {
+                throw new IOException("cannot read " + source);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("no image reader available for " + source.getFileName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double scale = Math.min(1.0, (double) maxSize / Math.max(width, height));
+                // the reader skips pixels down to twice the target size at most, the rest is interpolated
+                int subsampling = Math.max(1, (int) (0.5 / scale));
+                BufferedImage image = readSubsampled(reader, width, height, subsampling);
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+                return scale(image, targetWidth, targetHeight);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage readSubsampled(ImageReader reader, int width, int height, int subsampling) throws IOException {
+        ImageTypeSpecifier type = reader.getImageTypes(0).next();
+        BufferedImage image = type.createBufferedImage((width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        param.setDestination(image);
+        // tiled images are read in rows of tiles, strips and other formats are streamed by the reader in a single pass
+        int rows = height;
+        if (reader.isImageTiled(0)) {
+            int tileHeight = Math.max(1, reader.getTileHeight(0));
+            rows = (tileHeight + subsampling - 1) / subsampling * subsampling;
+        }
+        for (int y = 0; y < height; y += rows) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("reading was interrupted");
+            }
+            param.setSourceRegion(new Rectangle(0, y, width, Math.min(rows, height - y)));
+            param.setDestinationOffset(new Point(0, y / subsampling));
+            reader.read(0, param);
+        }
+        return image;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        boolean gray = image.getColorModel().getNumColorComponents() == 1;
+        BufferedImage scaled = new BufferedImage(width, height, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private void write(BufferedImage image, Path file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream out = new FileImageOutputStream(file.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                String[] types = param.getCompressionTypes();
+                if (param.getCompressionType() == null && types != null && types.length > 0) {
+                    param.setCompressionType(types[0]);
+                }
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+}
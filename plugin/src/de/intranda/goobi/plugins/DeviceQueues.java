@@ -0,0 +1,235 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the image copies on separate threads for every device, so that the copies from a slow disk array do not hold back the copies from
+ * the other source folders and the throughput of the devices adds up. Source folders on the same file store share the threads. Every
+ * device accepts a limited number of copies, further copies wait in the calling thread until the device has room.
+ * <p>
+ * If adaptive concurrency is enabled, every device gets a copy limiter of its own, so the latency of a slow device does not lower the
+ * limit of the others.
+ */
+class DeviceQueues {
+
+    private static final Logger logger = Logger.getLogger(DeviceQueues.class);
+
+    private final int threads;
+
+    private final int queueSize;
+
+    // creates the copy limiters of the devices, null without adaptive concurrency
+    private final HierarchicalConfiguration limiterConfig;
+
+    // receives the copy limiters of the devices, may be null
+    private final ImportMetrics metrics;
+
+    // devices by source folder, the file store of a folder is only looked up once
+    private final Map<String, Device> folders = new HashMap<String, Device>();
+
+    private final Map<Object, Device> devices = new LinkedHashMap<Object, Device>();
+
+    private boolean shutdown;
+
+    /**
+     * @param threads number of concurrent copies per device
+     * @param queueSize number of copies per device that wait for a thread
+     */
+    DeviceQueues(int threads, int queueSize) {
+        this(threads, queueSize, null, null);
+    }
+
+    /**
+     * @param limiterConfig configuration of the copy limiters in {@code adaptiveConcurrency/copy}, null for no limiters
+     * @param metrics metrics that report the limiters of the devices, null for none
+     */
+    DeviceQueues(int threads, int queueSize, HierarchicalConfiguration limiterConfig, ImportMetrics metrics) {
+        this.threads = Math.max(1, threads);
+        this.queueSize = Math.max(0, queueSize);
+        this.limiterConfig = limiterConfig;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Creates the queues configured in the {@code deviceQueues} section, or null if they are not enabled.
+     *
+     * @param metrics metrics that report the copy limiters of the devices
+     */
+    static DeviceQueues create(HierarchicalConfiguration config, ImportMetrics metrics) {
+        if (!config.getBoolean("deviceQueues[@enabled]", false)) {
+            return null;
+        }
+        return new DeviceQueues(config.getInt("deviceQueues.threads", 2), config.getInt("deviceQueues.queueSize", 20), config, metrics);
+    }
+
+    /**
+     * Executes the operation on the threads of the device of the source folder and waits for the result.
+     */
+    <T> T execute(String folder, Callable<T> operation) throws IOException, InterruptedException {
+        Device device = getDevice(folder);
+        Future<T> future = device.submit(operation);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns the copy limiter of the device of the source folder, or null if adaptive concurrency is not enabled.
+     */
+    AdaptiveLimiter getLimiter(String folder) throws IOException {
+        return getDevice(folder).limiter;
+    }
+
+    private synchronized Device getDevice(String folder) throws IOException {
+        if (shutdown) {
+            throw new IOException("device queues are shut down");
+        }
+        Device device = folders.get(folder);
+        if (device == null) {
+            Object key = getDeviceKey(Paths.get(folder));
+            device = devices.get(key);
+            if (device == null) {
+                device = new Device(String.valueOf(key));
+                devices.put(key, device);
+                if (metrics != null) {
+                    metrics.addLimiter(device.limiter);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("copy from " + key + " with " + threads + " threads");
+                }
+            }
+            folders.put(folder, device);
+        }
+        return device;
+    }
+
+    /**
+     * Returns the key of the device of the folder, the file store by default.
+     */
+    Object getDeviceKey(Path folder) throws IOException {
+        return Files.getFileStore(folder);
+    }
+
+    /**
+     * Returns the number of devices used so far.
+     */
+    synchronized int getDeviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * Returns the number of operations executed per device.
+     */
+    synchronized Map<String, Long> getCounts() {
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Device device : devices.values()) {
+            counts.put(device.name, device.executed.get());
+        }
+        return counts;
+    }
+
+    /**
+     * Stops the threads of all devices, running operations are interrupted.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        List<String> summary = new ArrayList<String>();
+        for (Device device : devices.values()) {
+            device.executor.shutdownNow();
+            summary.add(device.name + ": " + device.executed.get());
+        }
+        if (logger.isDebugEnabled() && !summary.isEmpty()) {
+            logger.debug("copies per device " + summary);
+        }
+    }
+
+    private class Device {
+
+        private final String name;
+
+        private final ExecutorService executor;
+
+        // a permit for every running or waiting operation
+        private final Semaphore capacity;
+
+        private final AtomicLong executed = new AtomicLong();
+
+        private final AdaptiveLimiter limiter;
+
+        Device(final String name) {
+            this.name = name;
+            this.limiter = limiterConfig == null ? null : AdaptiveLimiter.create(limiterConfig, "copy", "copy " + name, 2, 16);
+            this.capacity = new Semaphore(threads + queueSize);
+            this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "copy-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        <T> Future<T> submit(final Callable<T> operation) throws InterruptedException {
+            capacity.acquire();
+            FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return operation.call();
+                    } finally {
+                        // counted before the caller sees the result
+                        executed.incrementAndGet();
+                    }
+                }
+            }) {
+                // also called if the operation is cancelled before it started
+                @Override
+                protected void done() {
+                    capacity.release();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RuntimeException e) {
+                capacity.release();
+                throw e;
+            }
+            return task;
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+
+/**
+ * Imports the chunks of a {@link WorkQueue}. While a chunk is imported, its lease is renewed by a heartbeat thread every third of the
+ * lease time. If the lease is lost, the import thread is interrupted, so the chunk is not imported by two workers at once. The node
+ * that published the batch works on the queue as well and waits until all chunks are finished, it claims the chunks of nodes that died
+ * again when their leases expire.
+ */
+class DistributedImport {
+
+    private static final Logger logger = Logger.getLogger(DistributedImport.class);
+
+    private static final AtomicInteger WORKERS = new AtomicInteger();
+
+    private static final int RUNNING = 0;
+
+    private static final int LOST = 1;
+
+    private static final int DONE = 2;
+
+    /**
+     * Imports the records of a single chunk.
+     */
+    interface ChunkImporter {
+
+        List<ImportObject> importChunk(List<Record> records);
+    }
+
+    private final ChunkImporter importer;
+
+    private final String worker;
+
+    DistributedImport(ChunkImporter importer) {
+        this.importer = importer;
+        this.worker = ManagementFactory.getRuntimeMXBean().getName() + "-" + WORKERS.incrementAndGet();
+    }
+
+    String getWorker() {
+        return worker;
+    }
+
+    /**
+     * Imports chunks of the queue until all chunks are finished or claimed by other workers.
+     *
+     * @return the number of chunks imported by this worker
+     */
+    int work(WorkQueue queue) throws IOException {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "lease-heartbeat-" + worker);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int imported = 0;
+        try {
+            WorkQueue.Lease lease;
+            while (!Thread.currentThread().isInterrupted() && (lease = queue.claim(worker)) != null) {
+                if (importChunk(queue, lease, heartbeat)) {
+                    imported++;
+                }
+            }
+        } finally {
+            heartbeat.shutdownNow();
+        }
+        return imported;
+    }
+
+    /**
+     * Works on the queue and waits until all chunks are finished.
+     *
+     * @param pollMillis time between two looks at the queue while other workers import the last chunks
+     * @return the results of all chunks in the order of the records
+     */
+    List<ImportObject> run(WorkQueue queue, long pollMillis) throws IOException, InterruptedException {
+        int imported = work(queue);
+        while (!queue.isFinished()) {
+            Thread.sleep(pollMillis);
+            // claims the chunks whose leases expired
+            imported += work(queue);
+        }
+        logger.info(worker + " imported " + imported + " of " + queue.getChunkCount() + " chunks of " + queue.getFolder().getName());
+        return queue.getResults();
+    }
+
+    private boolean importChunk(final WorkQueue queue, final WorkQueue.Lease lease, ScheduledExecutorService heartbeat)
+            throws IOException {
+        long interval = Math.max(1, queue.getLeaseMillis() / 3);
+        final Thread thread = Thread.currentThread();
+        // running, lost or done, the import thread is only interrupted while the chunk is running
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        ScheduledFuture<?> renewal = heartbeat.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!lease.renew()) {
+                        logger.warn(worker + " lost the lease of chunk " + lease.getChunk() + " of " + queue.getFolder().getName()
+                                + ", the import of the chunk is aborted");
+                        synchronized (state) {
+                            if (state.compareAndSet(RUNNING, LOST)) {
+                                thread.interrupt();
+                            }
+                        }
+                        throw new IllegalStateException("lease lost");
+                    }
+                } catch (IOException e) {
+                    // the next heartbeat tries again
+                    logger.warn("cannot renew lease of chunk " + lease.getChunk() + ": " + e.getMessage());
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+        List<Record> records = lease.getRecords();
+        List<ImportObject> results;
+        try {
+            results = importer.importChunk(records);
+        } catch (RuntimeException e) {
+            logger.error("import of chunk " + lease.getChunk() + " failed", e);
+            results = new ArrayList<ImportObject>(records.size());
+            for (Record record : records) {
+                ImportObject io = new ImportObject();
+                io.setProcessTitle(record.getId());
+                io.setErrorMessage(record.getId() + ": import failed on " + worker + ": " + e.getMessage());
+                io.setImportReturnValue(ImportReturnValue.InvalidData);
+                results.add(io);
+            }
+        } finally {
+            renewal.cancel(false);
+        }
+        boolean lost;
+        synchronized (state) {
+            lost = !state.compareAndSet(RUNNING, DONE);
+        }
+        if (lost) {
+            // the chunk belongs to another worker now, the interrupt was meant for the chunk only
+            Thread.interrupted();
+            return false;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // the results are incomplete, another worker imports the chunk again
+            lease.release();
+            return false;
+        }
+        if (!lease.complete(results)) {
+            logger.warn(worker + " discarded the results of chunk " + lease.getChunk() + ", it was finished by another worker");
+            return false;
+        }
+        return true;
+    }
+
+}
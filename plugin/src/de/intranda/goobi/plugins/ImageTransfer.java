@@ -0,0 +1,228 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Copies image files into the import folder. The file is written to a temporary name first and renamed when it is complete, so the target
+ * never contains a partial file.
+ * <ul>
+ * <li>If linking is enabled and source and target are on the same file store, a hard link is created instead of a copy.</li>
+ * <li>Without checksum the data is copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, so it does
+ * not pass the java heap.</li>
+ * <li>With checksum the source is mapped into memory, the checksum is calculated and the mapped data is written in the same pass.</li>
+ * </ul>
+ */
+class ImageTransfer {
+
+    private static final Logger logger = Logger.getLogger(ImageTransfer.class);
+
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    // several nodes of a distributed import may write the same file into the shared import folder
+    private static final String NODE = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^\\w.-]", "_");
+
+    /**
+     * Result of a single transfer.
+     */
+    static class Result {
+
+        private final long size;
+
+        private final String checksum;
+
+        private final boolean linked;
+
+        Result(long size, String checksum, boolean linked) {
+            this.size = size;
+            this.checksum = checksum;
+            this.linked = linked;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /** hex encoded checksum of the copied data, null if no checksum was calculated or the file was linked */
+        String getChecksum() {
+            return checksum;
+        }
+
+        boolean isLinked() {
+            return linked;
+        }
+    }
+
+    private final boolean link;
+
+    private final String algorithm;
+
+    /**
+     * @param link create hard links if source and target are on the same file store
+     * @param algorithm checksum algorithm like MD5 or SHA-256, null or empty to copy without checksum
+     */
+    ImageTransfer(boolean link, String algorithm) {
+        this.link = link;
+        this.algorithm = algorithm == null || algorithm.isEmpty() ? null : algorithm;
+        if (this.algorithm != null) {
+            createDigest();
+        }
+    }
+
+    /**
+     * Returns the hidden name of a partial file, unique for the node and the thread that writes it.
+     */
+    static String getTempName(String name) {
+        return "." + name + "." + NODE + "-" + Thread.currentThread().getId() + ".part";
+    }
+
+    Result transfer(Path source, Path target) throws IOException {
+        Path folder = target.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Path temp = folder.resolve(getTempName(target.getFileName().toString()));
+        Files.deleteIfExists(temp);
+        try {
+            Result result = null;
+            if (link && Files.getFileStore(source).equals(Files.getFileStore(folder))) {
+                result = createLink(source, temp);
+            }
+            if (result == null) {
+                result = algorithm == null ? copy(source, temp) : copyWithChecksum(source, temp);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return result;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Creates a hard link to an existing copy of the image instead of copying it.
+     *
+     * @param checksum the checksum of the existing file, it is returned with the result
+     * @return the result or null, if the file cannot be linked, e.g. because it is on another file store
+     */
+    Result link(Path existing, Path target, String checksum) throws IOException {
+        Path folder = target.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Path temp = folder.resolve(getTempName(target.getFileName().toString()));
+        Files.deleteIfExists(temp);
+        try {
+            Result result = createLink(existing, temp);
+            if (result == null) {
+                return null;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(result.getSize(), checksum, true);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Calculates the checksum of a file without copying it.
+     *
+     * @throws IllegalStateException if no checksum algorithm is configured
+     */
+    String checksum(Path file) throws IOException {
+        if (algorithm == null) {
+            throw new IllegalStateException("no checksum algorithm configured");
+        }
+        MessageDigest digest = createDigest();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long position = 0; position < size; position += CHUNK_SIZE) {
+                digest.update(in.map(MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position)));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the checksum algorithm or null, if the images are copied without checksum.
+     */
+    String getAlgorithm() {
+        return algorithm;
+    }
+
+    private Result createLink(Path source, Path temp) {
+        try {
+            Files.createLink(temp, source);
+            return new Result(Files.size(temp), null, true);
+        } catch (IOException | UnsupportedOperationException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("cannot link " + source + ", copy it instead: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    private Result copy(Path source, Path temp) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+            verifySize(source, out.size(), size);
+            return new Result(size, null, false);
+        }
+    }
+
+    private Result copyWithChecksum(Path source, Path temp) throws IOException {
+        MessageDigest digest = createDigest();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(CHUNK_SIZE, size - position);
+                MappedByteBuffer buffer = in.map(MapMode.READ_ONLY, position, length);
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                position += length;
+            }
+            out.force(true);
+            verifySize(source, out.size(), size);
+            return new Result(size, toHex(digest.digest()), false);
+        }
+    }
+
+    private void verifySize(Path source, long written, long expected) throws IOException {
+        if (written != expected) {
+            throw new IOException("incomplete copy of " + source + ": " + written + " of " + expected + " bytes");
+        }
+    }
+
+    private MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("unknown checksum algorithm " + algorithm, e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+}
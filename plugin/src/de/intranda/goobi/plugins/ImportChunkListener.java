@@ -0,0 +1,17 @@
+package de.intranda.goobi.plugins;
+
+import java.util.List;
+
+import org.goobi.production.importer.ImportObject;
+
+/**
+ * Receives the results of a batch that is imported in chunks, see {@link MapImportPlugin#setChunkListener(ImportChunkListener)}.
+ */
+public interface ImportChunkListener {
+
+    /**
+     * Called on the thread that started the batch after every chunk, in the order of the records.
+     */
+    void chunkFinished(List<ImportObject> chunk);
+
+}
@@ -0,0 +1,154 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Append-only journal of the finished import stages of each record. A batch that was interrupted, e.g. by a restart of the application,
+ * can skip the stages that are already finished when it is started again.
+ * <p>
+ * The journal is flushed to disk after every {@code syncInterval} entries. After a crash, the last entries may be lost, these stages are
+ * simply repeated.
+ */
+class ImportJournal implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(ImportJournal.class);
+
+    static final String FILENAME = "mapimport.journal";
+
+    /**
+     * Import stages of a record.
+     */
+    enum Stage {
+        /** catalogue record received */
+        OPAC,
+        /** mets file written */
+        METS,
+        /** image copied and verified, the detail contains size and checksum */
+        IMAGE
+    }
+
+    private final File file;
+
+    private final int syncInterval;
+
+    private final Map<String, String> entries = new ConcurrentHashMap<String, String>();
+
+    private final FileChannel channel;
+
+    private int unsynced;
+
+    /**
+     * Opens the journal in the folder, existing entries are read.
+     */
+    ImportJournal(File folder, int syncInterval) throws IOException {
+        this.file = new File(folder, FILENAME);
+        this.syncInterval = Math.max(1, syncInterval);
+        if (file.exists()) {
+            read();
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        channel.position(size);
+        if (size > 0) {
+            // terminate an incomplete last line, so that the next entry starts on a new line
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, size - 1);
+            if (last.get(0) != '\n') {
+                channel.write(ByteBuffer.wrap(new byte[] { '\n' }));
+            }
+        }
+    }
+
+    private void read() throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 4 || !"end".equals(parts[3])) {
+                    // incomplete line written during a crash
+                    continue;
+                }
+                try {
+                    entries.put(createKey(parts[0], Stage.valueOf(parts[1])), parts[2]);
+                    count++;
+                } catch (IllegalArgumentException e) {
+                    logger.warn("invalid journal entry: " + line);
+                }
+            }
+        }
+        logger.info("read " + count + " entries from import journal " + file);
+    }
+
+    boolean isCompleted(String identifier, Stage stage) {
+        return entries.containsKey(createKey(identifier, stage));
+    }
+
+    /**
+     * Returns the detail of the stage or null, if the stage was not completed.
+     */
+    String getDetail(String identifier, Stage stage) {
+        return entries.get(createKey(identifier, stage));
+    }
+
+    /**
+     * Records that the stage of the record is completed.
+     */
+    synchronized void record(String identifier, Stage stage, String detail) throws IOException {
+        String value = detail == null ? "" : detail;
+        String line = clean(identifier) + "\t" + stage.name() + "\t" + clean(value) + "\tend\n";
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        entries.put(createKey(identifier, stage), value);
+        if (++unsynced >= syncInterval) {
+            sync();
+        }
+    }
+
+    synchronized void sync() throws IOException {
+        if (unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            sync();
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes and removes the journal, used when the batch is finished.
+     */
+    synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+        entries.clear();
+    }
+
+    private static String createKey(String identifier, Stage stage) {
+        return stage.name() + ":" + identifier;
+    }
+
+    private static String clean(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+}
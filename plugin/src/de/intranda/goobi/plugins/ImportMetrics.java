@@ -0,0 +1,538 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+/**
+ * Timers and counters of a single batch: time per stage, latency histogram of the catalogue requests, copied bytes, database lookup time
+ * and errors by cause. All methods can be called by several threads at once.
+ * <p>
+ * Depending on the {@code metrics} section of the plugin configuration, the metrics are registered as JMX MBean, a summary is logged
+ * periodically while the batch is running and a json report is written into the import folder when it is finished.
+ */
+class ImportMetrics implements ImportMetricsMBean {
+
+    private static final Logger logger = Logger.getLogger(ImportMetrics.class);
+
+    static final String OPAC = "opac";
+
+    static final String METS = "mets";
+
+    static final String IMAGE = "image";
+
+    static final String DERIVATIVE = "derivative";
+
+    static final String LOOKUP = "lookup";
+
+    static final String EXPORT = "export";
+
+    /** upper bounds in ms of the buckets of the catalogue latency histogram, the last bucket has no upper bound */
+    private static final long[] LATENCY_BUCKETS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    /**
+     * Number, total and maximal duration of an operation.
+     */
+    static class Timer {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong total = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos) {
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        double getTotalMillis() {
+            return total.get() / 1000000d;
+        }
+
+        double getAverageMillis() {
+            long c = count.get();
+            return c == 0 ? 0 : total.get() / 1000000d / c;
+        }
+
+        long getMaxMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(max.get());
+        }
+    }
+
+    private final String name;
+
+    private final long started = System.currentTimeMillis();
+
+    private final long startedNanos = System.nanoTime();
+
+    private volatile long finishedNanos;
+
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+    private final AtomicLong records = new AtomicLong();
+
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final List<String> stages = new ArrayList<String>();
+
+    private final List<AdaptiveLimiter> limiters = new CopyOnWriteArrayList<AdaptiveLimiter>();
+
+    private ScheduledExecutorService summaryLogger;
+
+    private ObjectName objectName;
+
+    private File reportFolder;
+
+    /**
+     * @param name name of the plugin, used for the MBean and the report file
+     */
+    ImportMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates the metrics of a new batch and starts the reporting configured in the {@code metrics} section.
+     *
+     * @param importFolder folder for the json report, null if no report should be written
+     */
+    static ImportMetrics start(String name, HierarchicalConfiguration config, String importFolder) {
+        ImportMetrics metrics = new ImportMetrics(name);
+        if (config.getBoolean("metrics.jmx", true)) {
+            metrics.register();
+        }
+        long interval = config.getLong("metrics.logInterval", 60);
+        if (interval > 0) {
+            metrics.startSummaryLogger(interval);
+        }
+        if (config.getBoolean("metrics.report", true) && importFolder != null) {
+            metrics.reportFolder = new File(importFolder);
+        }
+        return metrics;
+    }
+
+    /**
+     * Stops the summary log, logs the final summary and writes the report. The MBean stays registered until the next batch starts.
+     */
+    void finish() {
+        finishedNanos = System.nanoTime();
+        if (summaryLogger != null) {
+            summaryLogger.shutdownNow();
+        }
+        logger.info(getSummary());
+        if (reportFolder != null) {
+            try {
+                writeReport(reportFolder);
+            } catch (IOException e) {
+                logger.error("cannot write import report", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the current time to measure a duration with {@link #stop(String, long)}.
+     */
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since start to the timer of the stage. Catalogue requests are added to the latency histogram as well.
+     */
+    void stop(String stage, long start) {
+        long nanos = System.nanoTime() - start;
+        getTimer(stage).add(nanos);
+        if (OPAC.equals(stage)) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+                bucket++;
+            }
+            latencies.incrementAndGet(bucket);
+        }
+    }
+
+    void addRecord() {
+        records.incrementAndGet();
+    }
+
+    void addBytesCopied(long bytes) {
+        bytesCopied.addAndGet(bytes);
+    }
+
+    void count(String counter) {
+        increment(counters, counter);
+    }
+
+    void addError(String stage, String cause) {
+        increment(errors, stage + ": " + cause);
+    }
+
+    void addError(String stage, Throwable cause) {
+        addError(stage, cause.getClass().getSimpleName());
+    }
+
+    /**
+     * Adds the statistics of the pipeline stages to the report.
+     */
+    synchronized void addPipeline(ImportPipeline<?> pipeline) {
+        for (ImportPipeline.Stage<?> stage : pipeline.getStages()) {
+            stages.add(stage.toString());
+        }
+    }
+
+    /**
+     * Adds a limiter whose current limit is reported, null is ignored.
+     */
+    void addLimiter(AdaptiveLimiter limiter) {
+        if (limiter != null) {
+            limiters.add(limiter);
+        }
+    }
+
+    Timer getTimer(String stage) {
+        Timer timer = timers.get(stage);
+        if (timer == null) {
+            timers.putIfAbsent(stage, new Timer());
+            timer = timers.get(stage);
+        }
+        return timer;
+    }
+
+    /**
+     * Returns the timer of the stage without creating it, so that reading the metrics does not add empty stages.
+     */
+    private Timer peekTimer(String stage) {
+        Timer timer = timers.get(stage);
+        return timer == null ? new Timer() : timer;
+    }
+
+    long getCounter(String counter) {
+        AtomicLong value = counters.get(counter);
+        return value == null ? 0 : value.get();
+    }
+
+    long[] getLatencyCounts() {
+        long[] counts = new long[latencies.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencies.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public long getRecords() {
+        return records.get();
+    }
+
+    @Override
+    public long getErrors() {
+        long sum = 0;
+        for (AtomicLong value : errors.values()) {
+            sum += value.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public String getErrorCounts() {
+        return new TreeMap<String, AtomicLong>(errors).toString();
+    }
+
+    @Override
+    public long getOpacRequests() {
+        return peekTimer(OPAC).getCount();
+    }
+
+    /** average catalogue latency in ms */
+    @Override
+    public double getOpacLatencyAverage() {
+        return peekTimer(OPAC).getAverageMillis();
+    }
+
+    /** maximal catalogue latency in ms */
+    @Override
+    public long getOpacLatencyMax() {
+        return peekTimer(OPAC).getMaxMillis();
+    }
+
+    @Override
+    public String getOpacLatencyHistogram() {
+        StringBuilder sb = new StringBuilder();
+        long[] counts = getLatencyCounts();
+        for (int i = 0; i < counts.length; i++) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(getBucketName(i)).append(": ").append(counts[i]);
+        }
+        return sb.toString();
+    }
+
+    /** average time in ms to write a mets file */
+    @Override
+    public double getMetsWriteTimeAverage() {
+        return peekTimer(METS).getAverageMillis();
+    }
+
+    /** time in ms spent for process lookups in the database */
+    @Override
+    public double getLookupTimeTotal() {
+        return peekTimer(LOOKUP).getTotalMillis();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    @Override
+    public double getCopyThroughput() {
+        double seconds = peekTimer(IMAGE).getTotalMillis() / 1000;
+        return seconds == 0 ? 0 : bytesCopied.get() / 1048576d / seconds;
+    }
+
+    @Override
+    public String getConcurrencyLimits() {
+        StringBuilder sb = new StringBuilder();
+        for (AdaptiveLimiter limiter : limiters) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(limiter);
+        }
+        return sb.toString();
+    }
+
+    /** duration of the batch in seconds */
+    @Override
+    public double getDuration() {
+        long end = finishedNanos == 0 ? System.nanoTime() : finishedNanos;
+        return (end - startedNanos) / 1000000000d;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return finishedNanos == 0;
+    }
+
+    @Override
+    public String getSummary() {
+        String summary = String.format("%s: %d records in %.1f s, %d errors, opac %d requests avg %.1f ms max %d ms, "
+                + "mets avg %.1f ms, lookup %.0f ms, %d MB copied with %.1f MB/s", name, getRecords(), getDuration(), getErrors(),
+                getOpacRequests(), getOpacLatencyAverage(), getOpacLatencyMax(), getMetsWriteTimeAverage(), getLookupTimeTotal(),
+                bytesCopied.get() / 1048576, getCopyThroughput());
+        return limiters.isEmpty() ? summary : summary + ", " + getConcurrencyLimits();
+    }
+
+    /**
+     * Writes the metrics as json file into the folder.
+     *
+     * @return the report file
+     */
+    File writeReport(File folder) throws IOException {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(started));
+        File file = new File(folder, name + "-report-" + timestamp + ".json");
+        File temp = new File(folder, "." + file.getName() + ".tmp");
+        Files.write(temp.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        appendField(sb, "plugin", quote(name));
+        appendField(sb, "started", quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(started))));
+        appendField(sb, "durationSeconds", format(getDuration()));
+        appendField(sb, "records", String.valueOf(getRecords()));
+        appendField(sb, "errors", String.valueOf(getErrors()));
+
+        sb.append("  \"errorsByCause\": {");
+        appendCounts(sb, errors);
+        sb.append("},\n");
+        sb.append("  \"counters\": {");
+        appendCounts(sb, counters);
+        sb.append("},\n");
+
+        sb.append("  \"stages\": {\n");
+        List<String> names = new ArrayList<String>(new TreeMap<String, Timer>(timers).keySet());
+        for (int i = 0; i < names.size(); i++) {
+            Timer timer = timers.get(names.get(i));
+            sb.append("    ").append(quote(names.get(i))).append(": { \"count\": ").append(timer.getCount()).append(", \"totalMs\": ")
+                    .append(format(timer.getTotalMillis())).append(", \"averageMs\": ").append(format(timer.getAverageMillis()))
+                    .append(", \"maxMs\": ").append(timer.getMaxMillis()).append(" }").append(i + 1 < names.size() ? ",\n" : "\n");
+        }
+        sb.append("  },\n");
+
+        sb.append("  \"opacLatencyHistogram\": {");
+        long[] counts = getLatencyCounts();
+        for (int i = 0; i < counts.length; i++) {
+            sb.append(i == 0 ? " " : ", ").append(quote(getBucketName(i))).append(": ").append(counts[i]);
+        }
+        sb.append(" },\n");
+
+        appendField(sb, "bytesCopied", String.valueOf(bytesCopied.get()));
+        appendField(sb, "copyThroughputMBs", format(getCopyThroughput()));
+
+        sb.append("  \"concurrencyLimits\": {");
+        for (int i = 0; i < limiters.size(); i++) {
+            AdaptiveLimiter limiter = limiters.get(i);
+            sb.append(i == 0 ? "\n    " : ",\n    ").append(quote(limiter.getName())).append(": { \"limit\": ")
+                    .append(limiter.getLimit()).append(", \"latencyMs\": ").append(format(limiter.getLatency()))
+                    .append(", \"baselineMs\": ").append(format(limiter.getBaseline())).append(", \"decreases\": ")
+                    .append(limiter.getDecreases()).append(" }");
+        }
+        sb.append(limiters.isEmpty() ? "},\n" : "\n  },\n");
+
+        sb.append("  \"pipeline\": [");
+        synchronized (this) {
+            for (int i = 0; i < stages.size(); i++) {
+                sb.append(i == 0 ? "\n    " : ",\n    ").append(quote(stages.get(i)));
+            }
+            sb.append(stages.isEmpty() ? "]\n" : "\n  ]\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("de.intranda.goobi.plugins:type=ImportMetrics,name=" + name);
+            // replace the metrics of the previous batch
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.warn("cannot register import metrics as MBean", e);
+            objectName = null;
+        }
+    }
+
+    ObjectName getObjectName() {
+        return objectName;
+    }
+
+    private void startSummaryLogger(long seconds) {
+        summaryLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        summaryLogger.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                logger.info(getSummary());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static void increment(ConcurrentHashMap<String, AtomicLong> counts, String key) {
+        AtomicLong value = counts.get(key);
+        if (value == null) {
+            counts.putIfAbsent(key, new AtomicLong());
+            value = counts.get(key);
+        }
+        value.incrementAndGet();
+    }
+
+    private static String getBucketName(int bucket) {
+        return bucket < LATENCY_BUCKETS.length ? "<=" + LATENCY_BUCKETS[bucket] + "ms" : ">" + LATENCY_BUCKETS[bucket - 1] + "ms";
+    }
+
+    private static void appendField(StringBuilder sb, String field, String value) {
+        sb.append("  ").append(quote(field)).append(": ").append(value).append(",\n");
+    }
+
+    private static void appendCounts(StringBuilder sb, Map<String, AtomicLong> counts) {
+        boolean first = true;
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counts).entrySet()) {
+            sb.append(first ? " " : ", ").append(quote(entry.getKey())).append(": ").append(entry.getValue().get());
+            first = false;
+        }
+        if (!first) {
+            sb.append(' ');
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.3f", value);
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+}
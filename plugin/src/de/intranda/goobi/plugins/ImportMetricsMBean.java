@@ -0,0 +1,42 @@
+package de.intranda.goobi.plugins;
+
+/**
+ * JMX view of the metrics of the running or last batch of a map plugin.
+ */
+public interface ImportMetricsMBean {
+
+    long getRecords();
+
+    long getErrors();
+
+    /** error counts by stage and cause */
+    String getErrorCounts();
+
+    long getOpacRequests();
+
+    double getOpacLatencyAverage();
+
+    long getOpacLatencyMax();
+
+    /** number of catalogue requests per latency bucket */
+    String getOpacLatencyHistogram();
+
+    double getMetsWriteTimeAverage();
+
+    double getLookupTimeTotal();
+
+    long getBytesCopied();
+
+    /** MB per second of a single copy thread */
+    double getCopyThroughput();
+
+    /** current limits of the adaptive concurrency, empty if it is not enabled */
+    String getConcurrencyLimits();
+
+    double getDuration();
+
+    boolean isRunning();
+
+    String getSummary();
+
+}
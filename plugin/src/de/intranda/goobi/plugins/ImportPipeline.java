@@ -0,0 +1,195 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs items through a chain of stages. Every stage has its own worker threads and a bounded input queue, a full queue blocks the previous
+ * stage until the stage has capacity again.
+ */
+class ImportPipeline<T> {
+
+    private static final Logger logger = Logger.getLogger(ImportPipeline.class);
+
+    /**
+     * One processing step of the pipeline.
+     */
+    abstract static class Stage<T> {
+
+        private final String name;
+
+        private final int threads;
+
+        private final int queueSize;
+
+        private final AtomicLong processed = new AtomicLong();
+
+        private final AtomicLong busyTime = new AtomicLong();
+
+        private final AtomicLong blockedTime = new AtomicLong();
+
+        private final AtomicLong maxQueueDepth = new AtomicLong();
+
+        private final AtomicLong queueDepthSum = new AtomicLong();
+
+        private BlockingQueue<T> queue;
+
+        Stage(String name, int threads, int queueSize) {
+            this.name = name;
+            this.threads = Math.max(1, threads);
+            this.queueSize = Math.max(1, queueSize);
+        }
+
+        /**
+         * Processes the item.
+         *
+         * @return true if the item should be passed to the next stage, false if the remaining stages should be skipped
+         */
+        abstract boolean process(T item);
+
+        String getName() {
+            return name;
+        }
+
+        int getThreads() {
+            return threads;
+        }
+
+        long getProcessed() {
+            return processed.get();
+        }
+
+        /** time in ms the workers of this stage spent processing items */
+        long getBusyTime() {
+            return TimeUnit.NANOSECONDS.toMillis(busyTime.get());
+        }
+
+        /** time in ms the previous stage waited because the queue of this stage was full */
+        long getBlockedTime() {
+            return TimeUnit.NANOSECONDS.toMillis(blockedTime.get());
+        }
+
+        long getMaxQueueDepth() {
+            return maxQueueDepth.get();
+        }
+
+        int getQueueDepth() {
+            return queue == null ? 0 : queue.size();
+        }
+
+        double getAverageQueueDepth() {
+            long count = processed.get();
+            return count == 0 ? 0 : (double) queueDepthSum.get() / count;
+        }
+
+        private void enqueue(T item) throws InterruptedException {
+            long start = System.nanoTime();
+            queue.put(item);
+            blockedTime.addAndGet(System.nanoTime() - start);
+            long depth = queue.size();
+            queueDepthSum.addAndGet(depth);
+            long max = maxQueueDepth.get();
+            while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+                max = maxQueueDepth.get();
+            }
+        }
+
+        @Override
+        public String toString() {
+            double seconds = busyTime.get() / 1000000000d;
+            return name + ": " + processed.get() + " items, " + threads + " threads, busy " + getBusyTime() + " ms ("
+                    + String.format("%.1f", seconds == 0 ? 0 : processed.get() * threads / seconds) + " items/s), blocked on queue "
+                    + getBlockedTime() + " ms, queue depth avg " + String.format("%.1f", getAverageQueueDepth()) + " max " + getMaxQueueDepth()
+                    + "/" + queueSize;
+        }
+    }
+
+    private final List<Stage<T>> stages;
+
+    ImportPipeline(List<Stage<T>> stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Passes all items through the stages and returns when every item left the pipeline.
+     */
+    void run(List<T> items) throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(items.size());
+        List<ExecutorService> executors = new ArrayList<ExecutorService>();
+        try {
+            for (Stage<T> stage : stages) {
+                stage.queue = new ArrayBlockingQueue<T>(stage.queueSize);
+            }
+            for (int i = 0; i < stages.size(); i++) {
+                final Stage<T> stage = stages.get(i);
+                final Stage<T> next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+                ExecutorService executor = Executors.newFixedThreadPool(stage.threads);
+                executors.add(executor);
+                for (int t = 0; t < stage.threads; t++) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            work(stage, next, finished);
+                        }
+                    });
+                }
+            }
+
+            Stage<T> first = stages.get(0);
+            for (T item : items) {
+                first.enqueue(item);
+            }
+            finished.await();
+        } finally {
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+        }
+        if (logger.isInfoEnabled()) {
+            for (Stage<T> stage : stages) {
+                logger.info(stage);
+            }
+        }
+    }
+
+    private void work(Stage<T> stage, Stage<T> next, CountDownLatch finished) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                T item = stage.queue.take();
+                long start = System.nanoTime();
+                boolean proceed = false;
+                try {
+                    proceed = stage.process(item);
+                } catch (RuntimeException | Error e) {
+                    // the item fails, also on an error like an OutOfMemoryError while a large record is built. Otherwise the item would
+                    // never leave the pipeline and run() would wait for it forever.
+                    logger.error("error in stage " + stage.getName(), e);
+                } finally {
+                    stage.busyTime.addAndGet(System.nanoTime() - start);
+                    stage.processed.incrementAndGet();
+                }
+                if (proceed && next != null) {
+                    next.enqueue(item);
+                } else {
+                    finished.countDown();
+                }
+            }
+        } catch (InterruptedException e) {
+            // pipeline was shut down
+        }
+    }
+
+    List<Stage<T>> getStages() {
+        return stages;
+    }
+
+}
@@ -0,0 +1,246 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+import org.goobi.production.importer.Record;
+
+/**
+ * Groups the images of the source folder trees into maps with several pages, e.g. recto and verso scans or the sheets of an atlas in a
+ * sub folder. The identifier of a map is the first group of the configured pattern that matches the relative path of an image. The pages
+ * of a map are sorted by their path, numbers in the path are compared by value, so {@code sheet2} comes before {@code sheet10}.
+ * <p>
+ * The images of a record are stored in {@link Record#getData()}, one relative path per line.
+ */
+class MapImageGroups {
+
+    private static final Logger logger = Logger.getLogger(MapImageGroups.class);
+
+    static final String DEFAULT_PATTERN = "([^/_.]+)(?:[_/].*)?\\.tif";
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Compares paths like strings, but sequences of digits by their numeric value.
+     */
+    static final Comparator<String> NATURAL_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String s1, String s2) {
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < s1.length() && i2 < s2.length()) {
+                char c1 = s1.charAt(i1);
+                char c2 = s2.charAt(i2);
+                if (Character.isDigit(c1) && Character.isDigit(c2)) {
+                    int end1 = skipDigits(s1, i1);
+                    int end2 = skipDigits(s2, i2);
+                    int result = compareNumbers(s1.substring(i1, end1), s2.substring(i2, end2));
+                    if (result != 0) {
+                        return result;
+                    }
+                    i1 = end1;
+                    i2 = end2;
+                } else {
+                    if (c1 != c2) {
+                        return c1 - c2;
+                    }
+                    i1++;
+                    i2++;
+                }
+            }
+            int result = (s1.length() - i1) - (s2.length() - i2);
+            return result != 0 ? result : s1.compareTo(s2);
+        }
+
+        private int skipDigits(String s, int start) {
+            int end = start;
+            while (end < s.length() && Character.isDigit(s.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
+
+        private int compareNumbers(String n1, String n2) {
+            String t1 = trimZeros(n1);
+            String t2 = trimZeros(n2);
+            if (t1.length() != t2.length()) {
+                return t1.length() - t2.length();
+            }
+            return t1.compareTo(t2);
+        }
+
+        private String trimZeros(String number) {
+            int i = 0;
+            while (i < number.length() - 1 && number.charAt(i) == '0') {
+                i++;
+            }
+            return number.substring(i);
+        }
+    };
+
+    private final SourceRoots roots;
+
+    private final Pattern pattern;
+
+    private final SourceTreeScanner scanner;
+
+    private SortedMap<String, List<String>> groups;
+
+    private long lastScan;
+
+    MapImageGroups(SourceRoots roots, Pattern pattern, SourceTreeScanner scanner) {
+        this.roots = roots;
+        this.pattern = pattern;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Creates the groups of the source folders as configured in the {@code grouping} section, or null if grouping is not enabled.
+     */
+    static MapImageGroups create(HierarchicalConfiguration config, SourceRoots roots) {
+        if (!config.getBoolean("grouping[@enabled]", false)) {
+            return null;
+        }
+        Pattern pattern = Pattern.compile(config.getString("grouping.pattern", DEFAULT_PATTERN));
+        SourceTreeScanner scanner = new SourceTreeScanner(config.getString("grouping.files", "*.tif"),
+                config.getInt("grouping.maxDepth", 2), config.getInt("grouping.scanThreads", 4));
+        return new MapImageGroups(roots, pattern, scanner);
+    }
+
+    /**
+     * Returns the identifiers of all maps in the source folders.
+     */
+    synchronized List<String> getIdentifiers() {
+        return new ArrayList<String>(getGroups().keySet());
+    }
+
+    /**
+     * Returns a page of the identifiers that start with the prefix.
+     */
+    synchronized List<String> getIdentifiers(String prefix, int offset, int limit) {
+        SortedMap<String, List<String>> all = getGroups();
+        if (prefix != null && !prefix.isEmpty()) {
+            all = all.subMap(prefix, prefix + Character.MAX_VALUE);
+        }
+        List<String> page = new ArrayList<String>();
+        int index = 0;
+        for (String identifier : all.keySet()) {
+            if (page.size() >= limit) {
+                break;
+            }
+            if (index++ >= offset) {
+                page.add(identifier);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Creates one record for each identifier, the data of the record contains the paths of its images. Selected paths of single images
+     * are replaced by the identifier of their map.
+     */
+    synchronized List<Record> createRecords(List<String> selection) {
+        SortedMap<String, List<String>> all = getGroups();
+        List<String> identifiers = new ArrayList<String>();
+        for (String name : selection) {
+            String identifier = all.containsKey(name) ? name : getIdentifier(name);
+            if (identifier == null || !all.containsKey(identifier)) {
+                logger.warn("no images found for " + name);
+            } else if (!identifiers.contains(identifier)) {
+                identifiers.add(identifier);
+            }
+        }
+        List<Record> records = new ArrayList<Record>(identifiers.size());
+        for (String identifier : identifiers) {
+            Record record = new Record();
+            record.setId(identifier);
+            record.setData(toData(all.get(identifier)));
+            records.add(record);
+        }
+        return records;
+    }
+
+    private SortedMap<String, List<String>> getGroups() {
+        if (groups == null || System.currentTimeMillis() - lastScan > MAX_AGE) {
+            lastScan = System.currentTimeMillis();
+            groups = group(roots.scan(scanner));
+        }
+        return groups;
+    }
+
+    /**
+     * Groups the paths by identifier, paths that do not match the pattern are ignored.
+     */
+    SortedMap<String, List<String>> group(Collection<String> paths) {
+        SortedMap<String, List<String>> result = new TreeMap<String, List<String>>();
+        for (String path : paths) {
+            String identifier = getIdentifier(path);
+            if (identifier == null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("ignore " + path + ", it does not match " + pattern);
+                }
+                continue;
+            }
+            List<String> images = result.get(identifier);
+            if (images == null) {
+                images = new ArrayList<String>();
+                result.put(identifier, images);
+            }
+            images.add(path);
+        }
+        for (List<String> images : result.values()) {
+            Collections.sort(images, NATURAL_ORDER);
+        }
+        return result;
+    }
+
+    String getIdentifier(String path) {
+        Matcher matcher = pattern.matcher(path);
+        if (!matcher.matches()) {
+            return null;
+        }
+        for (int i = 1; i <= matcher.groupCount(); i++) {
+            if (matcher.group(i) != null) {
+                return matcher.group(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the relative paths of the images of the record.
+     */
+    static List<String> getImages(Record record) {
+        return Arrays.asList(record.getData().split("\n"));
+    }
+
+    static String toData(List<String> images) {
+        StringBuilder sb = new StringBuilder();
+        for (String image : images) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(image);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the name of the image in the media folder of the process, sub folders become part of the name.
+     */
+    static String getTargetName(String path) {
+        return path.replace('/', '_');
+    }
+
+}
@@ -1,36 +1,43 @@
 package de.intranda.goobi.plugins;
 
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.log4j.Logger;
+import org.goobi.beans.Process;
 import org.goobi.production.enums.ImportReturnValue;
 import org.goobi.production.enums.ImportType;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.importer.DocstructElement;
 import org.goobi.production.importer.ImportObject;
 import org.goobi.production.importer.Record;
-import org.goobi.production.plugin.PluginLoader;
 import org.goobi.production.plugin.interfaces.IImportPlugin;
 import org.goobi.production.plugin.interfaces.IOpacPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.properties.ImportProperty;
 
-import ugh.dl.DigitalDocument;
-import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
 import ugh.dl.Prefs;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.WriteException;
+import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.forms.MassImportForm;
 import de.sub.goobi.helper.exceptions.ImportPluginException;
-import de.unigoettingen.sub.search.opac.ConfigOpac;
 import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 
@@ -45,12 +52,75 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
 
     private String tempFolder;
 
-    private static final String SOURCE_FOLDER = "/home/tomcat/ubmaps/";
+    private static final String DEFAULT_SOURCE_FOLDER = "/home/tomcat/ubmaps/";
+
+    private static final String DEFAULT_CATALOGUE = "OBVSG-MAP";
+
+    /** number of records imported concurrently, 1 keeps the sequential import */
+    private static final int DEFAULT_PARALLELISM = 1;
+
+    private static final int DEFAULT_QUEUE_SIZE = 20;
+
+    private static final int DEFAULT_SYNC_INTERVAL = 50;
+
+    private static final int DEFAULT_PROGRESS_INTERVAL = 500;
+
+    private static final String DEFAULT_QUEUE_FOLDER = "/opt/digiverso/goobi/tmp/mapimport-queue/";
+
+    private static final int DEFAULT_DISTRIBUTED_CHUNK_SIZE = 50;
+
+    private static final long DEFAULT_LEASE_SECONDS = 300;
+
+    private static final String DEFAULT_CONTENT_INDEX = "/opt/digiverso/goobi/tmp/mapimport.contentindex";
 
     private String currentIdentifier;
 
     private MassImportForm form;
     
+    // progress and messages of the running batch
+    private ProgressReporter progress = ProgressReporter.create();
+
+    private XMLConfiguration config;
+
+    private OpacConfigResolver opacConfigResolver;
+
+    private OpacClient opacClient;
+
+    private MapRecordEnricher enricher;
+
+    private ImageTransfer imageTransfer;
+
+    // adapts the number of concurrent image copies to the throughput of the source folder, null if it is not enabled
+    private AdaptiveLimiter copyLimiter;
+
+    private MapImageGroups imageGroups;
+
+    // copies the images of maps with several pages at the same time
+    private ExecutorService imageCopyPool;
+
+    // copies the images on separate threads for every device of the source folders, null if it is not enabled
+    private DeviceQueues deviceQueues;
+
+    private DerivativeGenerator derivativeGenerator;
+
+    // creates the derivatives, one thread per processor as the work is bound by the cpu
+    private ExecutorService derivativePool;
+
+    private ImportJournal journal;
+
+    // images imported by earlier batches, null if deduplication is not enabled
+    private ContentIndex contentIndex;
+
+    // pipeline of the last batch, keeps the stage statistics
+    private ImportPipeline<MapImportTask> pipeline;
+
+    // metrics of the running or last batch
+    private ImportMetrics metrics = new ImportMetrics("mapimport");
+
+    private ImportChunkListener chunkListener;
+
+    private ProcessLookup.ProcessQuery processQuery = ProcessLookup.DATABASE;
+
     @Override
     public String getProcessTitle() {
         return currentIdentifier;
@@ -58,57 +128,879 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
 
     @Override
     public List<ImportObject> generateFiles(List<Record> records) {
-        List<ImportObject> answer = new ArrayList<ImportObject>();
+        XMLConfiguration config = getConfiguration();
+        if (config.getBoolean("preflight[@enabled]", false)) {
+            PreflightReport report = validate(records);
+            if (config.getBoolean("preflight.dryRun", true) || report.hasErrors() && config.getBoolean("preflight.abortOnError", true)) {
+                return report.getFailures();
+            }
+        }
+        if (config.getBoolean("distributed[@enabled]", false)) {
+            return importDistributed(records);
+        }
+        return importBatch(records, true);
+    }
 
-        for (Record record : records) {
-            form.addProcessToProgressBar();
-            
-            ImportObject io = new ImportObject();
-            io.setProcessTitle(record.getId());
-            if (logger.isDebugEnabled()) {
-                logger.debug("import data for " + record.getId());
+    /**
+     * Imports the records on this node.
+     *
+     * @param chunked import the records in chunks of {@code chunkSize} and pass them to the chunk listener
+     */
+    private List<ImportObject> importBatch(List<Record> records, boolean chunked) {
+        startMetrics("mapimport");
+        try {
+            return importOnNode(records, chunked);
+        } finally {
+            finishMetrics();
+        }
+    }
+
+    /**
+     * Starts the metrics and the device queues of a batch. A distributed batch is one batch on every node, although its chunks are
+     * imported one after another.
+     *
+     * @param name name of the metrics, of their MBean and their report
+     */
+    private void startMetrics(String name) {
+        XMLConfiguration config = getConfiguration();
+        metrics = ImportMetrics.start(name, config, tempFolder);
+        // with device queues, every device has a copy limiter of its own that is added to the metrics when the device is used
+        deviceQueues = DeviceQueues.create(config, metrics);
+        if (config.getBoolean("adaptiveConcurrency[@enabled]", false)) {
+            metrics.addLimiter(getOpacClient().getLimiter());
+            metrics.addLimiter(deviceQueues == null ? getCopyLimiter() : null);
+        }
+    }
+
+    private void finishMetrics() {
+        if (deviceQueues != null) {
+            deviceQueues.shutdown();
+            deviceQueues = null;
+        }
+        metrics.finish();
+    }
+
+    /**
+     * Imports the records on this node with the metrics of the running batch.
+     */
+    private List<ImportObject> importOnNode(List<Record> records, boolean chunked) {
+        XMLConfiguration config = getConfiguration();
+        progress = startProgress();
+        openJournal();
+        openContentIndex();
+        if (getImageGroups() != null) {
+            imageCopyPool = Executors.newFixedThreadPool(Math.max(1, getConfiguration().getInt("grouping.copyThreads", 4)));
+        }
+        if (getDerivativeGenerator() != null) {
+            derivativePool = Executors.newFixedThreadPool(
+                    Math.max(1, config.getInt("derivatives.threads", Runtime.getRuntime().availableProcessors())));
+        }
+        boolean finished = false;
+        try {
+            List<ImportObject> answer = chunked ? importChunks(records) : importRecords(records);
+            finished = !Thread.currentThread().isInterrupted();
+            return answer;
+        } finally {
+            if (imageCopyPool != null) {
+                imageCopyPool.shutdownNow();
+                imageCopyPool = null;
+            }
+            if (derivativePool != null) {
+                derivativePool.shutdownNow();
+                derivativePool = null;
+            }
+            closeJournal(finished);
+            closeContentIndex();
+            finishProgress();
+        }
+    }
+
+    /**
+     * Publishes the records to the shared work queue, imports chunks of the batch on this node and waits until the other nodes have
+     * imported the rest. The results of all nodes are returned as one batch. If the queue cannot be written, the records are imported on
+     * this node.
+     */
+    private List<ImportObject> importDistributed(List<Record> records) {
+        XMLConfiguration config = getConfiguration();
+        WorkQueue queue;
+        try {
+            queue = WorkQueue.publish(new File(config.getString("distributed.folder", DEFAULT_QUEUE_FOLDER)), records, tempFolder,
+                    config.getInt("distributed.chunkSize", DEFAULT_DISTRIBUTED_CHUNK_SIZE),
+                    config.getLong("distributed.leaseSeconds", DEFAULT_LEASE_SECONDS) * 1000);
+        } catch (IOException e) {
+            logger.error("cannot publish the batch to the work queue, import it on this node", e);
+            return importBatch(records, true);
+        }
+        List<ImportObject> answer = null;
+        DistributedRun importer = new DistributedRun("mapimport");
+        try {
+            answer = new DistributedImport(importer).run(queue, config.getLong("distributed.pollInterval", 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("distributed import was interrupted");
+        } catch (IOException e) {
+            logger.error("cannot read the work queue " + queue.getFolder(), e);
+        } finally {
+            importer.finish();
+        }
+        try {
+            if (answer == null) {
+                // the records of unfinished chunks are returned as failed
+                answer = queue.getResults();
+            }
+            queue.delete();
+        } catch (IOException e) {
+            logger.error("cannot read the results of " + queue.getFolder(), e);
+            answer = new ArrayList<ImportObject>();
+        }
+        if (chunkListener != null) {
+            chunkListener.chunkFinished(answer);
+            return new ArrayList<ImportObject>();
+        }
+        return answer;
+    }
+
+    /**
+     * Imports chunks of the distributed batches that other nodes published to the shared work queue, until all of their chunks are
+     * finished or claimed. Meant to be called on the other nodes, e.g. by a scheduled task. The records are written into the import folder
+     * of the node that published the batch.
+     *
+     * @param prefs ruleset of the batches, the ruleset of the process template that the batches were started with
+     * @return the number of chunks imported on this node
+     */
+    public int joinDistributedImports(Prefs prefs) {
+        setPrefs(prefs);
+        File folder = new File(getConfiguration().getString("distributed.folder", DEFAULT_QUEUE_FOLDER));
+        // the report of this node must not replace the report of the node that published the batch in the shared import folder
+        String name = "mapimport-" + ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^\\w.-]", "_");
+        int imported = 0;
+        for (WorkQueue queue : WorkQueue.findOpen(folder)) {
+            if (queue.getImportFolder() != null) {
+                setImportFolder(queue.getImportFolder());
             }
-            currentIdentifier = record.getId();
+            DistributedRun importer = new DistributedRun(name);
             try {
-                Fileformat ff = convertData();
+                imported += new DistributedImport(importer).work(queue);
+            } catch (IOException e) {
+                if (queue.getFolder().exists()) {
+                    logger.error("cannot import chunks of " + queue.getFolder(), e);
+                } else if (logger.isDebugEnabled()) {
+                    // finished and removed by the node that published it
+                    logger.debug(queue.getFolder() + " was removed");
+                }
+            } finally {
+                importer.finish();
+            }
+        }
+        return imported;
+    }
 
-                if (ff == null) {
-                    io.setErrorMessage(record.getId() + ": error during opac request.");
-                    io.setImportReturnValue(ImportReturnValue.InvalidData);
-                } else {
+    /**
+     * Imports the chunks of a distributed batch that this node claims. The metrics are started with the first chunk and finished after
+     * the last, so a node that claims no chunk writes no report.
+     */
+    private class DistributedRun implements DistributedImport.ChunkImporter {
 
-                    // save mets file
-                    try {
-                        ff.write(tempFolder + record.getId() + ".xml");
-                    } catch (WriteException | PreferencesException e) {
-                        logger.error(e);
-                    }
-                    //            io.setImportFileName(importFolder + name + ".xml");
-                    io.setMetsFilename(tempFolder + record.getId() + ".xml");
-                    io.setProcessTitle(record.getId());
-                    io.setImportReturnValue(ImportReturnValue.ExportFinished);
-
-                    // copy image
-                    File destination =
-                            new File(tempFolder + record.getId() + File.separator + "images" + File.separator + "master_" + record.getId() + "_media"
-                                    + File.separator + record.getId() + ".tif");
-                    if (!destination.getParentFile().exists()) {
-                        destination.getParentFile().mkdirs();
+        private final String name;
+
+        private boolean started;
+
+        DistributedRun(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public List<ImportObject> importChunk(List<Record> records) {
+            if (!started) {
+                startMetrics(name);
+                started = true;
+            }
+            return importOnNode(records, false);
+        }
+
+        void finish() {
+            if (started) {
+                finishMetrics();
+                started = false;
+            }
+        }
+    }
+
+    /**
+     * Checks the records before the import, without changing anything. The source images are read, the catalogue or its cache is asked,
+     * existing processes are searched and the free space of the import folder is compared to the size of the images.
+     */
+    PreflightReport validate(List<Record> records) {
+        XMLConfiguration config = getConfiguration();
+        List<String> titles = new ArrayList<String>(records.size());
+        for (Record record : records) {
+            titles.add(record.getId());
+        }
+        ProcessLookup lookup = new ProcessLookup(processQuery, config.getInt("processLookupChunkSize", ProcessLookup.DEFAULT_CHUNK_SIZE));
+        Map<String, List<Process>> processes = lookup.findByTitles(titles);
+        PreflightCheck check =
+                new PreflightCheck(getSourceRoots(), getOpacClient().createProbe(config.getString("preflight.catalogue", "cache"), "12"),
+                        config.getInt("preflight.threads", 8));
+        PreflightReport report = check.check(records, processes, false, tempFolder == null ? null : new File(tempFolder),
+                !config.getBoolean("imageTransfer.link", false));
+        report.publish("mapimport", config, tempFolder);
+        return report;
+    }
+
+    /**
+     * Imports the records in chunks of the configured size, so that only the records of a single chunk are in progress at once. If a
+     * chunk listener is set, the results are passed to the listener after every chunk and not kept until the batch is finished.
+     */
+    private List<ImportObject> importChunks(List<Record> records) {
+        int chunkSize = getConfiguration().getInt("chunkSize", 0);
+        if (chunkSize <= 0 || chunkSize >= records.size()) {
+            List<ImportObject> answer = importRecords(records);
+            if (chunkListener == null) {
+                return answer;
+            }
+            chunkListener.chunkFinished(answer);
+            return new ArrayList<ImportObject>();
+        }
+        List<ImportObject> answer = new ArrayList<ImportObject>(chunkListener == null ? records.size() : 0);
+        for (int start = 0; start < records.size() && !Thread.currentThread().isInterrupted(); start += chunkSize) {
+            List<ImportObject> chunk = importRecords(records.subList(start, Math.min(records.size(), start + chunkSize)));
+            if (chunkListener == null) {
+                answer.addAll(chunk);
+            } else {
+                chunkListener.chunkFinished(chunk);
+            }
+        }
+        return answer;
+    }
+
+    private List<ImportObject> importRecords(List<Record> records) {
+        if (getConfiguration().getBoolean("pipeline[@enabled]", false) && records.size() > 1) {
+            return generateFilesInPipeline(records);
+        }
+        int parallelism = Math.max(1, getConfiguration().getInt("parallelism", DEFAULT_PARALLELISM));
+        if (parallelism == 1 || records.size() < 2) {
+            List<ImportObject> answer = new ArrayList<ImportObject>(records.size());
+            for (Record record : records) {
+                if (Thread.currentThread().isInterrupted()) {
+                    answer.add(createInterrupted(record));
+                    continue;
+                }
+                currentIdentifier = record.getId();
+                answer.add(importRecord(record));
+            }
+            return answer;
+        }
+        return generateFilesInParallel(records, Math.min(parallelism, records.size()));
+    }
+
+    /**
+     * Imports the records on a fixed pool of worker threads. The returned list has the same order as the given records.
+     */
+    private List<ImportObject> generateFilesInParallel(List<Record> records, int parallelism) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("import " + records.size() + " records with " + parallelism + " threads");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Future<ImportObject>> results = new ArrayList<Future<ImportObject>>(records.size());
+        try {
+            for (final Record record : records) {
+                results.add(executor.submit(new Callable<ImportObject>() {
+                    @Override
+                    public ImportObject call() {
+                        return importRecord(record);
                     }
-                    File source = new File(SOURCE_FOLDER + record.getData());
-                    FileUtils.copyFile(source, destination);
+                }));
+            }
 
+            List<ImportObject> answer = new ArrayList<ImportObject>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                try {
+                    answer.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause());
+                    ImportObject io = new ImportObject();
+                    io.setProcessTitle(record.getId());
+                    io.setErrorMessage(record.getId() + ": " + e.getCause().getMessage());
+                    io.setImportReturnValue(ImportReturnValue.InvalidData);
+                    answer.add(io);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    answer.add(createInterrupted(record));
                 }
+            }
+            return answer;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            } catch (ImportPluginException | IOException e) {
-                logger.error(e);
-                io.setErrorMessage(record.getId() + ": " + e.getMessage());
+    private static ImportObject createInterrupted(Record record) {
+        ImportObject io = new ImportObject();
+        io.setProcessTitle(record.getId());
+        io.setErrorMessage(record.getId() + ": import was interrupted.");
+        io.setImportReturnValue(ImportReturnValue.InvalidData);
+        return io;
+    }
+
+    /**
+     * Imports the records in three stages (opac request, mets file, image copy). Every stage has its own threads and a bounded queue, so slow
+     * catalogue requests and slow image copies do not block each other.
+     */
+    private List<ImportObject> generateFilesInPipeline(List<Record> records) {
+        XMLConfiguration config = getConfiguration();
+        int queueSize = config.getInt("pipeline.queueSize", DEFAULT_QUEUE_SIZE);
+
+        List<ImportPipeline.Stage<MapImportTask>> stages = new ArrayList<ImportPipeline.Stage<MapImportTask>>();
+        stages.add(new ImportPipeline.Stage<MapImportTask>("opac", config.getInt("pipeline.opacThreads", DEFAULT_PARALLELISM), queueSize) {
+            @Override
+            boolean process(MapImportTask task) {
+                return fetchOpacData(task);
+            }
+        });
+        stages.add(new ImportPipeline.Stage<MapImportTask>("mets", config.getInt("pipeline.metsThreads", DEFAULT_PARALLELISM), queueSize) {
+            @Override
+            boolean process(MapImportTask task) {
+                return writeMetsFile(task);
+            }
+        });
+        stages.add(new ImportPipeline.Stage<MapImportTask>("image", config.getInt("pipeline.imageThreads", DEFAULT_PARALLELISM), queueSize) {
+            @Override
+            boolean process(MapImportTask task) {
+                copyImages(task);
+                indexImages(task);
+                return true;
+            }
+        });
+
+        List<MapImportTask> tasks = new ArrayList<MapImportTask>(records.size());
+        for (Record record : records) {
+            tasks.add(new MapImportTask(record));
+        }
+        pipeline = new ImportPipeline<MapImportTask>(stages);
+        try {
+            pipeline.run(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("import was interrupted");
+        }
+        metrics.addPipeline(pipeline);
+
+        List<ImportObject> answer = new ArrayList<ImportObject>(tasks.size());
+        for (MapImportTask task : tasks) {
+            ImportObject io = task.getImportObject();
+            if (io.getImportReturnValue() == null && io.getErrorMessage() == null) {
+                io.setErrorMessage(task.getIdentifier() + ": import was interrupted.");
+                io.setImportReturnValue(ImportReturnValue.InvalidData);
             }
             answer.add(io);
         }
         return answer;
     }
 
+    /**
+     * Imports a single record: get the opac data, write the mets file and copy the image. Uses no shared mutable state besides the progress
+     * bar, so it can run on several threads at once.
+     */
+    ImportObject importRecord(Record record) {
+        MapImportTask task = new MapImportTask(record);
+        if (fetchOpacData(task) && writeMetsFile(task)) {
+            copyImages(task);
+            indexImages(task);
+        }
+        return task.getImportObject();
+    }
+
+    private boolean fetchOpacData(MapImportTask task) {
+        addProcessToProgressBar();
+        metrics.addRecord();
+
+        String identifier = task.getIdentifier();
+        if (journal != null && journal.isCompleted(identifier, ImportJournal.Stage.METS)
+                && new File(getMetsFilename(identifier)).isFile()) {
+            // the mets file was written by an interrupted run of this batch
+            if (logger.isDebugEnabled()) {
+                logger.debug("mets file for " + identifier + " exists already");
+            }
+            task.setMetsWritten(true);
+            metrics.count("metsResumed");
+            return true;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("import data for " + identifier);
+        }
+        Fileformat ff = convertData(identifier, getTargetNames(task.getRecord()));
+        if (ff == null) {
+            ImportObject io = task.getImportObject();
+            io.setErrorMessage(identifier + ": error during opac request.");
+            io.setImportReturnValue(ImportReturnValue.InvalidData);
+            return false;
+        }
+        task.setFileformat(ff);
+        recordStage(identifier, ImportJournal.Stage.OPAC, null);
+        return true;
+    }
+
+    private boolean writeMetsFile(MapImportTask task) {
+        String identifier = task.getIdentifier();
+        ImportObject io = task.getImportObject();
+        String metsFilename = getMetsFilename(identifier);
+        if (!task.isMetsWritten()) {
+            // save mets file
+            try {
+                long start = metrics.start();
+                writeMetsFile(task.getFileformat(), metsFilename);
+                metrics.stop(ImportMetrics.METS, start);
+                task.setMetsWritten(true);
+                recordStage(identifier, ImportJournal.Stage.METS, null);
+            } catch (WriteException | PreferencesException | IOException e) {
+                logger.error(e);
+                metrics.addError(ImportMetrics.METS, e);
+            }
+            // the fileformat is not needed anymore, release it before the image is copied
+            task.setFileformat(null);
+        }
+        //            io.setImportFileName(importFolder + name + ".xml");
+        io.setMetsFilename(metsFilename);
+        io.setProcessTitle(identifier);
+        io.setImportReturnValue(ImportReturnValue.ExportFinished);
+        return true;
+    }
+
+    /**
+     * Copies the images of the map into its media folder. The images of a map with several pages are copied at the same time.
+     */
+    private void copyImages(final MapImportTask task) {
+        List<String> images = MapImageGroups.getImages(task.getRecord());
+        if (images.size() == 1 || imageCopyPool == null) {
+            for (String image : images) {
+                copyImage(task, image, images.size() > 1);
+            }
+            return;
+        }
+        List<Future<?>> copies = new ArrayList<Future<?>>(images.size());
+        for (final String image : images) {
+            copies.add(imageCopyPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    copyImage(task, image, true);
+                }
+            }));
+        }
+        for (Future<?> copy : copies) {
+            try {
+                copy.get();
+            } catch (ExecutionException e) {
+                logger.error(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<?> other : copies) {
+                    other.cancel(true);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies a single image. Images of maps with several pages are recorded in the journal by identifier and image name.
+     */
+    private void copyImage(MapImportTask task, String image, boolean multiple) {
+        String identifier = task.getIdentifier();
+        String targetName = MapImageGroups.getTargetName(image);
+        String journalKey = multiple ? identifier + "/" + targetName : identifier;
+        try {
+            File destination =
+                    new File(tempFolder + identifier + File.separator + "images" + File.separator + "master_" + identifier + "_media"
+                            + File.separator + targetName);
+            if (isImageCopied(journalKey, destination)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("image " + targetName + " for " + identifier + " was already copied");
+                }
+                metrics.count("imageResumed");
+                createDerivative(task, destination);
+                return;
+            }
+            String folder = getSourceRoots().getFolder(image);
+            File source = new File(folder + image);
+            if (contentIndex != null && handleDuplicate(task, source, destination, journalKey)) {
+                createDerivative(task, destination);
+                return;
+            }
+            long start = metrics.start();
+            ImageTransfer.Result result = transferImage(folder, source, destination);
+            if (result.isLinked()) {
+                metrics.count("imageLinked");
+            } else {
+                metrics.stop(ImportMetrics.IMAGE, start);
+                metrics.addBytesCopied(result.getSize());
+            }
+            task.setChecksum(targetName, result.getChecksum());
+            String checksum = result.getChecksum() == null ? "" : result.getChecksum();
+            recordStage(journalKey, ImportJournal.Stage.IMAGE, result.getSize() + ":" + checksum);
+            if (logger.isDebugEnabled()) {
+                logger.debug((result.isLinked() ? "linked " : "copied ") + source + " (" + result.getSize() + " bytes"
+                        + (result.getChecksum() == null ? "" : ", checksum " + result.getChecksum()) + ")");
+            }
+            createDerivative(task, destination);
+        } catch (IOException e) {
+            logger.error(e);
+            metrics.addError(ImportMetrics.IMAGE, e);
+            task.addError(identifier + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Copies or links the image. If device queues are enabled, the copy runs on the threads of the device of the source folder and is
+     * limited by the copy limiter of that device instead of the shared one.
+     */
+    private ImageTransfer.Result transferImage(String folder, final File source, final File destination) throws IOException {
+        DeviceQueues queues = deviceQueues;
+        if (queues == null) {
+            return limitTransfer(getCopyLimiter(), source, destination);
+        }
+        final AdaptiveLimiter limiter = queues.getLimiter(folder);
+        try {
+            return queues.execute(folder, new Callable<ImageTransfer.Result>() {
+                @Override
+                public ImageTransfer.Result call() throws IOException {
+                    return limitTransfer(limiter, source, destination);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("copy of " + source + " was interrupted");
+        }
+    }
+
+    /**
+     * Copies or links the image. If a limiter is given, the number of concurrent copies is adapted to the time per MB.
+     */
+    private ImageTransfer.Result limitTransfer(AdaptiveLimiter limiter, File source, File destination) throws IOException {
+        if (limiter == null) {
+            return getImageTransfer().transfer(source.toPath(), destination.toPath());
+        }
+        long start;
+        try {
+            start = limiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("copy of " + source + " was interrupted");
+        }
+        ImageTransfer.Result result = null;
+        try {
+            result = getImageTransfer().transfer(source.toPath(), destination.toPath());
+            return result;
+        } finally {
+            if (result == null) {
+                limiter.release(start, 1, true);
+            } else if (result.isLinked()) {
+                limiter.ignore();
+            } else {
+                limiter.release(start, result.getSize() / 1048576d, false);
+            }
+        }
+    }
+
+    /**
+     * Looks up the source image in the content index, only images with the size of an indexed image are read for the checksum. A
+     * duplicate is logged and counted. If {@code deduplication.mode} is link, the destination becomes a hard link to an existing copy
+     * with the same content instead.
+     *
+     * @return true if the destination was linked and the image must not be copied
+     */
+    private boolean handleDuplicate(MapImportTask task, File source, File destination, String journalKey) throws IOException {
+        long size = source.length();
+        if (!contentIndex.containsSize(size)) {
+            return false;
+        }
+        String checksum = getImageTransfer().checksum(source.toPath());
+        ContentIndex.Entry duplicate = contentIndex.get(checksum, size);
+        if (duplicate == null) {
+            return false;
+        }
+        String targetName = destination.getName();
+        logger.warn(task.getIdentifier() + "/" + targetName + " is identical to " + duplicate + " imported before");
+        metrics.count("imageDuplicate");
+        if (!"link".equals(getConfiguration().getString("deduplication.mode", "flag"))) {
+            return false;
+        }
+        for (File existing : getCopies(duplicate)) {
+            // the existing copy may have been changed since it was indexed
+            if (existing.length() != size || !checksum.equals(getImageTransfer().checksum(existing.toPath()))) {
+                continue;
+            }
+            ImageTransfer.Result result = getImageTransfer().link(existing.toPath(), destination.toPath(), checksum);
+            if (result != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("linked " + destination + " to " + existing);
+                }
+                metrics.count("imageDeduplicated");
+                task.setChecksum(targetName, checksum);
+                recordStage(journalKey, ImportJournal.Stage.IMAGE, size + ":" + checksum);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the places where a copy of an indexed image may still exist: the master folder of the process, the import folder and the
+     * source folder.
+     */
+    private List<File> getCopies(ContentIndex.Entry entry) {
+        List<File> copies = new ArrayList<File>(3);
+        String identifier = entry.getIdentifier();
+        String media = "images" + File.separator + "master_" + identifier + "_media" + File.separator + entry.getImage();
+        try {
+            List<Process> processes =
+                    new ProcessLookup(processQuery, 1).findByTitles(Collections.singletonList(identifier)).get(identifier);
+            if (processes != null && processes.size() == 1) {
+                copies.add(new File(processes.get(0).getProcessDataDirectory(), media));
+            }
+        } catch (Exception e) {
+            logger.warn("cannot find the process of " + identifier + ": " + e.getMessage());
+        }
+        copies.add(new File(tempFolder + identifier + File.separator + media));
+        if (!entry.getSource().isEmpty()) {
+            copies.add(new File(entry.getSource()));
+        }
+        List<File> existing = new ArrayList<File>(copies.size());
+        for (File copy : copies) {
+            if (copy.isFile()) {
+                existing.add(copy);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Adds the copied images of a map to the content index, once all images of the map were copied without errors.
+     */
+    private void indexImages(MapImportTask task) {
+        if (contentIndex == null || task.getImportObject().getErrorMessage() != null) {
+            return;
+        }
+        String identifier = task.getIdentifier();
+        Map<String, String> checksums = task.getChecksums();
+        for (String image : MapImageGroups.getImages(task.getRecord())) {
+            String targetName = MapImageGroups.getTargetName(image);
+            String checksum = checksums.get(targetName);
+            if (checksum == null) {
+                // linked, resumed or copied without checksum
+                continue;
+            }
+            File destination =
+                    new File(tempFolder + identifier + File.separator + "images" + File.separator + "master_" + identifier + "_media"
+                            + File.separator + targetName);
+            try {
+                contentIndex.add(new ContentIndex.Entry(checksum, destination.length(), identifier, targetName,
+                        getSourceRoots().resolve(image).getAbsolutePath()));
+            } catch (IOException e) {
+                logger.error("cannot write content index", e);
+            }
+        }
+    }
+
+    /**
+     * Creates the derivative of a master image in the media folder, right after the master was copied. The work is passed to the
+     * derivative pool, so no more images are decoded at the same time than there are processors, and the copy thread waits for it.
+     * Existing derivatives that are newer than the master are kept.
+     */
+    private void createDerivative(MapImportTask task, final File master) {
+        final DerivativeGenerator generator = getDerivativeGenerator();
+        if (generator == null || derivativePool == null) {
+            return;
+        }
+        String identifier = task.getIdentifier();
+        final File derivative = new File(tempFolder + identifier + File.separator + "images" + File.separator + identifier + "_media"
+                + File.separator + generator.getTargetName(master.getName()));
+        if (derivative.isFile() && derivative.lastModified() >= master.lastModified()) {
+            metrics.count("derivativeResumed");
+            return;
+        }
+        Future<Rectangle> future = derivativePool.submit(new Callable<Rectangle>() {
+            @Override
+            public Rectangle call() throws IOException {
+                long start = metrics.start();
+                Rectangle size = generator.generate(master.toPath(), derivative.toPath());
+                metrics.stop(ImportMetrics.DERIVATIVE, start);
+                return size;
+            }
+        });
+        try {
+            Rectangle size = future.get();
+            if (logger.isDebugEnabled()) {
+                logger.debug("created derivative " + derivative + " (" + size.width + "x" + size.height + ")");
+            }
+        } catch (ExecutionException e) {
+            logger.error(e.getCause());
+            metrics.addError(ImportMetrics.DERIVATIVE, e.getCause());
+            task.addError(identifier + ": cannot create derivative of " + master.getName() + ": " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Returns the names of the page images in the media folder.
+     */
+    private static List<String> getTargetNames(Record record) {
+        List<String> names = new ArrayList<String>();
+        for (String image : MapImageGroups.getImages(record)) {
+            names.add(MapImageGroups.getTargetName(image));
+        }
+        return names;
+    }
+
+    /**
+     * Writes the mets file to a temporary name and renames it when it is complete, so that an interrupted import never leaves a partial
+     * mets file in the import folder.
+     */
+    private void writeMetsFile(Fileformat ff, String metsFilename) throws WriteException, PreferencesException, IOException {
+        File target = new File(metsFilename);
+        File temp = new File(target.getParentFile(), ImageTransfer.getTempName(target.getName().replace(".xml", "")) + ".xml");
+        try {
+            ff.write(temp.getAbsolutePath());
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // anchor files are written next to the mets file
+            File tempAnchor = new File(temp.getParentFile(), temp.getName().replace(".xml", "_anchor.xml"));
+            if (tempAnchor.exists()) {
+                File anchor = new File(target.getParentFile(), target.getName().replace(".xml", "_anchor.xml"));
+                Files.move(tempAnchor.toPath(), anchor.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private String getMetsFilename(String identifier) {
+        return tempFolder + identifier + ".xml";
+    }
+
+    /**
+     * Checks if the journal contains a verified copy of the image with the size of the existing file.
+     */
+    private boolean isImageCopied(String journalKey, File destination) {
+        if (journal == null) {
+            return false;
+        }
+        String detail = journal.getDetail(journalKey, ImportJournal.Stage.IMAGE);
+        if (detail == null || !destination.isFile()) {
+            return false;
+        }
+        String size = detail.substring(0, detail.indexOf(':'));
+        return Long.parseLong(size) == destination.length();
+    }
+
+    private void openJournal() {
+        journal = null;
+        XMLConfiguration config = getConfiguration();
+        // the nodes of a distributed import share the import folder, an interrupted chunk is imported again as a whole
+        if (config.getBoolean("journal[@enabled]", false) && !config.getBoolean("distributed[@enabled]", false)) {
+            try {
+                journal = new ImportJournal(new File(tempFolder), config.getInt("journal.syncInterval", DEFAULT_SYNC_INTERVAL));
+            } catch (IOException e) {
+                logger.error("cannot open import journal, import without journal", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the content index, if deduplication is enabled. The index needs the checksums of the copied images.
+     */
+    private void openContentIndex() {
+        contentIndex = null;
+        XMLConfiguration config = getConfiguration();
+        if (!config.getBoolean("deduplication[@enabled]", false)) {
+            return;
+        }
+        String algorithm = getImageTransfer().getAlgorithm();
+        if (algorithm == null) {
+            logger.error("deduplication needs a checksum in imageTransfer.checksum, import without deduplication");
+            return;
+        }
+        try {
+            contentIndex = new ContentIndex(new File(config.getString("deduplication.index", DEFAULT_CONTENT_INDEX)), algorithm,
+                    config.getInt("deduplication.syncInterval", DEFAULT_SYNC_INTERVAL));
+        } catch (IOException e) {
+            logger.error("cannot open content index, import without deduplication", e);
+        }
+    }
+
+    private void closeContentIndex() {
+        if (contentIndex != null) {
+            long duplicates = metrics.getCounter("imageDuplicate");
+            if (duplicates > 0) {
+                progress.info(duplicates + " images are identical to images imported before, "
+                        + metrics.getCounter("imageDeduplicated") + " of them were linked");
+            }
+            try {
+                contentIndex.close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+            contentIndex = null;
+        }
+    }
+
+    /**
+     * Closes the journal. If the batch is finished, the journal is deleted, otherwise it is kept for the next run.
+     */
+    private void closeJournal(boolean finished) {
+        if (journal != null) {
+            try {
+                if (finished) {
+                    journal.delete();
+                } else {
+                    journal.close();
+                }
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    private void recordStage(String identifier, ImportJournal.Stage stage, String detail) {
+        if (journal != null) {
+            try {
+                journal.record(identifier, stage, detail);
+            } catch (IOException e) {
+                logger.error("cannot write import journal", e);
+            }
+        }
+    }
+
+    private void addProcessToProgressBar() {
+        progress.recordFinished();
+    }
+
+    /**
+     * Starts the reporter for the progress and the messages of a batch.
+     */
+    private ProgressReporter startProgress() {
+        final MassImportForm currentForm = form;
+        Runnable step = null;
+        if (currentForm != null) {
+            step = new Runnable() {
+                @Override
+                public void run() {
+                    currentForm.addProcessToProgressBar();
+                }
+            };
+        }
+        return ProgressReporter.start(step, getConfiguration().getInt("progress.interval", DEFAULT_PROGRESS_INTERVAL));
+    }
+
+    /**
+     * Stops the reporter of the batch and shows its messages.
+     */
+    private void finishProgress() {
+        progress.close();
+        progress.publish();
+    }
+
     @Override
     public List<ImportProperty> getProperties() {
         return null;
@@ -116,6 +1008,10 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
 
     @Override
     public List<Record> generateRecordsFromFilenames(List<String> filenames) {
+        MapImageGroups groups = getImageGroups();
+        if (groups != null) {
+            return groups.createRecords(filenames);
+        }
         List<Record> answer = new ArrayList<Record>();
         for (String filename : filenames) {
             Record record = new Record();
@@ -129,51 +1025,37 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
 
     @Override
     public Fileformat convertData() throws ImportPluginException {
+        return convertData(currentIdentifier, null);
+    }
+
+    /**
+     * Gets the catalogue record and adds one page for each image.
+     *
+     * @param images names of the page images, null for a single image named after the identifier
+     */
+    private Fileformat convertData(String identifier, List<String> images) {
         if (logger.isDebugEnabled()) {
-            logger.debug("Get opac record for " + currentIdentifier);
+            logger.debug("Get opac record for " + identifier);
         }
         Fileformat ff = null;
         try {
             // get logical data from opac
-            ConfigOpacCatalogue coc = new ConfigOpac().getCatalogueByName("OBVSG-MAP");
-            IOpacPlugin myImportOpac = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
-            ff = myImportOpac.search("12", currentIdentifier, coc, prefs);
-
-            // create physical image
-            DigitalDocument dd = ff.getDigitalDocument();
-
-            // create collection
-            
-            DocStruct log = dd.getLogicalDocStruct();
-            Metadata col = new Metadata(prefs.getMetadataTypeByName("singleDigCollection"));
-            col.setValue("Karten");
-            log.addMetadata(col);
-            
-            DocStruct phys = dd.getPhysicalDocStruct();
-            if (phys == null) {
-                phys = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
-                dd.setPhysicalDocStruct(phys);
-            }
-            //  imagepath
-            Metadata path = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
-            path.setValue(currentIdentifier + "/images/" + currentIdentifier + "_media");
-            phys.addMetadata(path);
-            
-            DocStruct page = dd.createDocStruct(prefs.getDocStrctTypeByName("page"));
-            phys.addChild(page);
-            page.setImageName(currentIdentifier + ".tif");
-
-            Metadata logOrder = new Metadata(prefs.getMetadataTypeByName("logicalPageNumber"));
-            logOrder.setValue("-");
-            page.addMetadata(logOrder);
-
-            Metadata physOrder = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
-            physOrder.setValue("1");
-            page.addMetadata(physOrder);
-
-            phys.addChild(page);
+            long start = metrics.start();
+            ff = getOpacClient().search("12", identifier);
+            metrics.stop(ImportMetrics.OPAC, start);
+            if (ff == null) {
+                metrics.addError(ImportMetrics.OPAC, "no record found");
+                return null;
+            }
+
+            if (images == null) {
+                getEnricher().enrich(ff.getDigitalDocument(), identifier);
+            } else {
+                getEnricher().enrich(ff.getDigitalDocument(), identifier, images);
+            }
         } catch (Exception e1) {
             logger.error(e1);
+            metrics.addError(ImportMetrics.OPAC, e1);
         }
 
         return ff;
@@ -213,11 +1095,23 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
 
     @Override
     public List<String> getAllFilenames() {
-        File folder = new File(SOURCE_FOLDER);
-        String[] filenames = folder.list();
-        List<String> files = Arrays.asList(filenames);
-        Collections.sort(files);
-        return files;
+        MapImageGroups groups = getImageGroups();
+        if (groups != null) {
+            return groups.getIdentifiers();
+        }
+        return getSourceRoots().getFilenames();
+    }
+
+    /**
+     * Returns a page of the tif files in the source folder that start with the prefix, in alphabetical order. If grouping is enabled, the
+     * identifiers of the maps are returned instead.
+     */
+    public List<String> getFilenames(String prefix, int offset, int limit) {
+        MapImageGroups groups = getImageGroups();
+        if (groups != null) {
+            return groups.getIdentifiers(prefix, offset, limit);
+        }
+        return getSourceRoots().getFilenames(prefix, offset, limit);
     }
 
     @Override
@@ -275,6 +1169,8 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
     @Override
     public void setPrefs(Prefs prefs) {
         this.prefs = prefs;
+        this.opacClient = null;
+        this.enricher = null;
     }
 
     @Override
@@ -290,4 +1186,115 @@ public class MapImportPlugin implements IImportPlugin, IPlugin {
     public void setForm(MassImportForm form) {
         this.form = form;
     }
+
+    XMLConfiguration getConfiguration() {
+        if (config == null) {
+            config = ConfigPlugins.getPluginConfig(this);
+        }
+        return config;
+    }
+
+    /**
+     * Returns the folders with the source images.
+     */
+    private SourceRoots getSourceRoots() {
+        return SourceRoots.create(getConfiguration(), DEFAULT_SOURCE_FOLDER);
+    }
+
+    void setConfiguration(XMLConfiguration config) {
+        this.config = config;
+        this.opacClient = null;
+        this.enricher = null;
+        this.imageTransfer = null;
+        this.imageGroups = null;
+        this.derivativeGenerator = null;
+        this.copyLimiter = null;
+    }
+
+    private synchronized OpacConfigResolver getOpacConfigResolver() {
+        if (opacConfigResolver == null) {
+            opacConfigResolver = new OpacConfigResolver(getConfiguration().getString("catalogue", DEFAULT_CATALOGUE));
+        }
+        return opacConfigResolver;
+    }
+
+    private synchronized OpacClient getOpacClient() {
+        if (opacClient == null) {
+            opacClient = new OpacClient(getConfiguration(), prefs, getOpacConfigResolver());
+        }
+        return opacClient;
+    }
+
+    private synchronized MapRecordEnricher getEnricher() {
+        if (enricher == null) {
+            enricher = new MapRecordEnricher(getConfiguration(), prefs);
+        }
+        return enricher;
+    }
+
+    /**
+     * Returns the groups of images in the source folder, or null if grouping is not enabled.
+     */
+    private synchronized MapImageGroups getImageGroups() {
+        if (imageGroups == null) {
+            imageGroups = MapImageGroups.create(getConfiguration(), getSourceRoots());
+        }
+        return imageGroups;
+    }
+
+    /**
+     * Returns the generator for the derivatives, or null if derivatives are not enabled.
+     */
+    private synchronized DerivativeGenerator getDerivativeGenerator() {
+        if (derivativeGenerator == null) {
+            derivativeGenerator = DerivativeGenerator.create(getConfiguration());
+        }
+        return derivativeGenerator;
+    }
+
+    /**
+     * Returns the limiter of the image copies, or null if adaptive concurrency is not enabled.
+     */
+    private synchronized AdaptiveLimiter getCopyLimiter() {
+        if (copyLimiter == null) {
+            copyLimiter = AdaptiveLimiter.create(getConfiguration(), "copy", 2, 16);
+        }
+        return copyLimiter;
+    }
+
+    private synchronized ImageTransfer getImageTransfer() {
+        if (imageTransfer == null) {
+            XMLConfiguration config = getConfiguration();
+            imageTransfer = new ImageTransfer(config.getBoolean("imageTransfer.link", false), config.getString("imageTransfer.checksum", "MD5"));
+        }
+        return imageTransfer;
+    }
+
+    /**
+     * Sets a listener for the results of the batch. With a listener, {@link #generateFiles(List)} passes the results of each chunk to the
+     * listener and returns an empty list, so the results of large batches are not kept in memory.
+     */
+    public void setChunkListener(ImportChunkListener chunkListener) {
+        this.chunkListener = chunkListener;
+    }
+
+    void setProcessQuery(ProcessLookup.ProcessQuery processQuery) {
+        this.processQuery = processQuery;
+    }
+
+    ImportMetrics getMetrics() {
+        return metrics;
+    }
+
+    ImportPipeline<MapImportTask> getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Uses the given opac plugin and catalogue instead of the configured catalogue.
+     */
+    synchronized void setOpacPlugin(IOpacPlugin opacPlugin, ConfigOpacCatalogue opacCatalogue) {
+        this.opacConfigResolver = new OpacConfigResolver(opacCatalogue, opacPlugin);
+        this.opacClient = null;
+    }
 }
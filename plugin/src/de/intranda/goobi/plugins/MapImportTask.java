@@ -0,0 +1,76 @@
+package de.intranda.goobi.plugins;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+
+import ugh.dl.Fileformat;
+
+/**
+ * State of a single map while it passes the import stages.
+ */
+class MapImportTask {
+
+    private final Record record;
+
+    private final ImportObject importObject = new ImportObject();
+
+    private Fileformat fileformat;
+
+    private final Map<String, String> checksums = new LinkedHashMap<String, String>();
+
+    private boolean metsWritten;
+
+    MapImportTask(Record record) {
+        this.record = record;
+        importObject.setProcessTitle(record.getId());
+    }
+
+    Record getRecord() {
+        return record;
+    }
+
+    String getIdentifier() {
+        return record.getId();
+    }
+
+    ImportObject getImportObject() {
+        return importObject;
+    }
+
+    Fileformat getFileformat() {
+        return fileformat;
+    }
+
+    void setFileformat(Fileformat fileformat) {
+        this.fileformat = fileformat;
+    }
+
+    boolean isMetsWritten() {
+        return metsWritten;
+    }
+
+    void setMetsWritten(boolean metsWritten) {
+        this.metsWritten = metsWritten;
+    }
+
+    /**
+     * Adds an error message, the images of a map may fail on several threads at once.
+     */
+    synchronized void addError(String message) {
+        String previous = importObject.getErrorMessage();
+        importObject.setErrorMessage(previous == null ? message : previous + "; " + message);
+    }
+
+    /** checksums of the copied images by image name, null if the image was linked or copied without checksum */
+    synchronized Map<String, String> getChecksums() {
+        return new LinkedHashMap<String, String>(checksums);
+    }
+
+    synchronized void setChecksum(String image, String checksum) {
+        checksums.put(image, checksum);
+    }
+
+}
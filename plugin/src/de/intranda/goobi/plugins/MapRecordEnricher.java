@@ -0,0 +1,204 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+
+/**
+ * Adds the collection, the image path and the pages to a catalogue record. The rules are read from the {@code enrichment} section of the
+ * plugin configuration, all metadata and structure types are resolved once when the enricher is created. An enricher does not change
+ * after creation and can be used by several threads.
+ * <p>
+ * Values may contain the placeholders {@code {id}} for the identifier of the record and {@code {order}} for the number of the page.
+ */
+class MapRecordEnricher {
+
+    private static final String ENRICHMENT = "enrichment";
+
+    private static final String[][] DEFAULT_LOGICAL = { { "singleDigCollection", "Karten" } };
+
+    private static final String[][] DEFAULT_PHYSICAL = { { "pathimagefiles", "{id}/images/{id}_media" } };
+
+    private static final String[][] DEFAULT_PAGE = { { "logicalPageNumber", "-" }, { "physPageNumber", "{order}" } };
+
+    /**
+     * Value with placeholders, split into literal text and placeholders when the rules are read.
+     */
+    static class Template {
+
+        private enum Placeholder {
+            IDENTIFIER("{id}"),
+            ORDER("{order}");
+
+            private final String text;
+
+            Placeholder(String text) {
+                this.text = text;
+            }
+        }
+
+        /** literal text as String, placeholders as {@link Placeholder} */
+        private final Object[] parts;
+
+        Template(String value) {
+            List<Object> list = new ArrayList<Object>();
+            int start = 0;
+            while (start < value.length()) {
+                Placeholder placeholder = null;
+                int next = -1;
+                for (Placeholder p : Placeholder.values()) {
+                    int index = value.indexOf(p.text, start);
+                    if (index >= 0 && (next < 0 || index < next)) {
+                        next = index;
+                        placeholder = p;
+                    }
+                }
+                if (placeholder == null) {
+                    list.add(value.substring(start));
+                    break;
+                }
+                if (next > start) {
+                    list.add(value.substring(start, next));
+                }
+                list.add(placeholder);
+                start = next + placeholder.text.length();
+            }
+            this.parts = list.toArray();
+        }
+
+        String apply(String identifier, int order) {
+            if (parts.length == 1 && parts[0] instanceof String) {
+                return (String) parts[0];
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Object part : parts) {
+                if (part == Placeholder.IDENTIFIER) {
+                    sb.append(identifier);
+                } else if (part == Placeholder.ORDER) {
+                    sb.append(order);
+                } else {
+                    sb.append(part);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class MetadataRule {
+
+        private final MetadataType type;
+
+        private final Template value;
+
+        MetadataRule(MetadataType type, Template value) {
+            this.type = type;
+            this.value = value;
+        }
+    }
+
+    private final List<MetadataRule> logicalMetadata;
+
+    private final DocStructType physicalType;
+
+    private final List<MetadataRule> physicalMetadata;
+
+    private final DocStructType pageType;
+
+    private final Template imageName;
+
+    private final List<MetadataRule> pageMetadata;
+
+    /**
+     * Reads the rules from the configuration, the default rules are used if the configuration contains no {@code enrichment} section.
+     *
+     * @throws IllegalArgumentException if a type of the rules is not defined in the ruleset
+     */
+    MapRecordEnricher(HierarchicalConfiguration config, Prefs prefs) {
+        boolean configured = !config.configurationsAt(ENRICHMENT).isEmpty();
+        logicalMetadata = readRules(config, configured, "enrichment.logical.metadata", DEFAULT_LOGICAL, prefs);
+        physicalType = getDocStructType(prefs, config.getString("enrichment.physical[@type]", "BoundBook"));
+        physicalMetadata = readRules(config, configured, "enrichment.physical.metadata", DEFAULT_PHYSICAL, prefs);
+        pageType = getDocStructType(prefs, config.getString("enrichment.page[@type]", "page"));
+        imageName = new Template(config.getString("enrichment.page[@image]", "{id}.tif"));
+        pageMetadata = readRules(config, configured, "enrichment.page.metadata", DEFAULT_PAGE, prefs);
+    }
+
+    /**
+     * Enriches a record with a single image, the name of the image is created from the identifier.
+     */
+    void enrich(DigitalDocument dd, String identifier) throws UGHException {
+        enrich(dd, identifier, Collections.singletonList(imageName.apply(identifier, 1)));
+    }
+
+    /**
+     * Adds the configured metadata to the logical and physical element and one page for each image, in the given order.
+     */
+    void enrich(DigitalDocument dd, String identifier, List<String> images) throws UGHException {
+        addMetadata(dd.getLogicalDocStruct(), logicalMetadata, identifier, 0);
+
+        DocStruct phys = dd.getPhysicalDocStruct();
+        if (phys == null) {
+            phys = dd.createDocStruct(physicalType);
+            dd.setPhysicalDocStruct(phys);
+        }
+        addMetadata(phys, physicalMetadata, identifier, 0);
+
+        int order = 1;
+        for (String image : images) {
+            DocStruct page = dd.createDocStruct(pageType);
+            page.setImageName(image);
+            addMetadata(page, pageMetadata, identifier, order++);
+            phys.addChild(page);
+        }
+    }
+
+    private void addMetadata(DocStruct ds, List<MetadataRule> rules, String identifier, int order) throws UGHException {
+        for (MetadataRule rule : rules) {
+            Metadata md = new Metadata(rule.type);
+            md.setValue(rule.value.apply(identifier, order));
+            ds.addMetadata(md);
+        }
+    }
+
+    private static List<MetadataRule> readRules(HierarchicalConfiguration config, boolean configured, String key, String[][] defaults,
+            Prefs prefs) {
+        List<MetadataRule> rules = new ArrayList<MetadataRule>();
+        if (configured) {
+            for (HierarchicalConfiguration rule : config.configurationsAt(key)) {
+                rules.add(createRule(prefs, rule.getString("[@type]"), rule.getString("[@value]", "")));
+            }
+        } else {
+            for (String[] rule : defaults) {
+                rules.add(createRule(prefs, rule[0], rule[1]));
+            }
+        }
+        return rules;
+    }
+
+    private static MetadataRule createRule(Prefs prefs, String typeName, String value) {
+        MetadataType type = prefs.getMetadataTypeByName(typeName);
+        if (type == null) {
+            throw new IllegalArgumentException("metadata type " + typeName + " is not defined in the ruleset");
+        }
+        return new MetadataRule(type, new Template(value));
+    }
+
+    private static DocStructType getDocStructType(Prefs prefs, String typeName) {
+        DocStructType type = prefs.getDocStrctTypeByName(typeName);
+        if (type == null) {
+            throw new IllegalArgumentException("structure type " + typeName + " is not defined in the ruleset");
+        }
+        return type;
+    }
+
+}
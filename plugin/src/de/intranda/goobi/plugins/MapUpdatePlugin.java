@@ -3,24 +3,29 @@ package de.intranda.goobi.plugins;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.log4j.Logger;
 import org.goobi.beans.Process;
+import org.goobi.production.enums.ImportReturnValue;
 import org.goobi.production.enums.ImportType;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.importer.DocstructElement;
 import org.goobi.production.importer.ImportObject;
 import org.goobi.production.importer.Record;
-import org.goobi.production.plugin.PluginLoader;
 import org.goobi.production.plugin.interfaces.IImportPlugin;
-import org.goobi.production.plugin.interfaces.IOpacPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.properties.ImportProperty;
 
-import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
 import ugh.dl.Metadata;
@@ -30,14 +35,11 @@ import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.ReadException;
 import ugh.exceptions.WriteException;
+import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.forms.MassImportForm;
-import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.ImportPluginException;
 import de.sub.goobi.helper.exceptions.SwapException;
-import de.sub.goobi.persistence.managers.ProcessManager;
-import de.unigoettingen.sub.search.opac.ConfigOpac;
-import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 
 @PluginImplementation
@@ -51,12 +53,51 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
 
     private String tempFolder;
 
-    private static final String SOURCE_FOLDER = "/home/tomcat/ubmaps/";
+    private static final String DEFAULT_SOURCE_FOLDER = "/home/tomcat/ubmaps/";
+
+    private static final String DEFAULT_CATALOGUE = "OBVSG-MAP";
+
+    // shared by all instances, so two batches never write the same mets file at once
+    private static final StripedLocks PROCESS_LOCKS = new StripedLocks(256);
+
+    private static final int DEFAULT_PROGRESS_INTERVAL = 500;
+
+    private static final String DEFAULT_CATALOGUE_EXPORT = "/opt/digiverso/goobi/import/obvsg-maps.xml";
 
     private String currentIdentifier;
 
     private MassImportForm form;
 
+    private XMLConfiguration config;
+
+    private OpacConfigResolver opacConfigResolver;
+
+    private OpacClient opacClient;
+
+    private MapRecordEnricher enricher;
+
+    private MapImageGroups imageGroups;
+
+    private MarcDumpIndex catalogueExport;
+
+    private MarcRecordMapper marcRecordMapper;
+
+    private MetadataMerge merge;
+
+    // changes of the running or last batch, null if the change log is not enabled
+    private UpdateChangeLog changeLog;
+
+    // metrics of the running or last batch
+    private ImportMetrics metrics = new ImportMetrics("mapupdate");
+
+    private ProcessLookup.ProcessQuery processQuery = ProcessLookup.DATABASE;
+
+    // results of the running or last batch
+    private UpdateSummary summary = new UpdateSummary();
+
+    // progress and messages of the running batch
+    private ProgressReporter progress = ProgressReporter.create();
+
     @Override
     public String getProcessTitle() {
         return currentIdentifier;
@@ -64,44 +105,291 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
 
     @Override
     public List<ImportObject> generateFiles(List<Record> records) {
-        List<ImportObject> answer = new ArrayList<ImportObject>();
+        XMLConfiguration config = getConfiguration();
+        if (config.getBoolean("preflight[@enabled]", false)) {
+            PreflightReport report = validate(records);
+            if (config.getBoolean("preflight.dryRun", true) || report.hasErrors() && config.getBoolean("preflight.abortOnError", true)) {
+                return report.getFailures();
+            }
+        }
+        metrics = ImportMetrics.start("mapupdate", config, tempFolder);
+        if (config.getBoolean("adaptiveConcurrency[@enabled]", false)) {
+            metrics.addLimiter(getOpacClient().getLimiter());
+        }
+        progress = startProgress();
+        openChangeLog();
+        try {
+            return updateRecords(records);
+        } finally {
+            closeChangeLog();
+            metrics.finish();
+            finishProgress();
+        }
+    }
 
-        for (Record record : records) {
+    /**
+     * Opens the change log of the batch in the import folder, if it is configured.
+     */
+    private void openChangeLog() {
+        changeLog = null;
+        if (tempFolder != null && getConfiguration().getBoolean("merge.changeLog", true)) {
             try {
-                form.addProcessToProgressBar();
+                changeLog = new UpdateChangeLog(new File(tempFolder), "mapupdate");
+            } catch (IOException e) {
+                logger.error("cannot create change log in " + tempFolder, e);
+            }
+        }
+    }
+
+    private void closeChangeLog() {
+        if (changeLog == null) {
+            return;
+        }
+        try {
+            changeLog.close();
+            logger.info(changeLog.getChanges() + " changes of " + changeLog.getRecords() + " maps written to " + changeLog.getFile());
+        } catch (IOException e) {
+            logger.error("cannot close change log " + changeLog.getFile(), e);
+        }
+    }
+
+    private List<ImportObject> updateRecords(List<Record> records) {
+        // find the processes of all records before the update starts
+        List<String> titles = new ArrayList<String>(records.size());
+        for (Record record : records) {
+            titles.add(record.getId());
+        }
+        ProcessLookup lookup =
+                new ProcessLookup(processQuery, getConfiguration().getInt("processLookupChunkSize", ProcessLookup.DEFAULT_CHUNK_SIZE));
+        long start = metrics.start();
+        Map<String, List<Process>> processes = lookup.findByTitles(titles);
+        metrics.stop(ImportMetrics.LOOKUP, start);
+
+        UpdateSummary result = new UpdateSummary();
+        int parallelism = Math.max(1, getConfiguration().getInt("parallelism", 1));
+        if (parallelism == 1 || records.size() < 2) {
+            for (Record record : records) {
                 currentIdentifier = record.getId();
-                Fileformat ff = convertData();
-                if (ff == null) {
-                    Helper.setFehlerMeldung("opac request error: " + currentIdentifier);
-                } else {
-
-                    List<Process> processList = ProcessManager.getProcesses(null, "prozesse.titel='" + currentIdentifier + "'");
-
-                    if (processList.size() == 1) {
-                        Process process = processList.get(0);
-                        Fileformat metsfile = process.readMetadataFile();
-
-                        DocStruct map = metsfile.getDigitalDocument().getLogicalDocStruct();
-                        List<Metadata> oldData = map.getAllMetadata();
-                        for (Metadata md : oldData) {
-                            map.removeMetadata(md);
-                        }
-                        List<Metadata> newData = ff.getDigitalDocument().getLogicalDocStruct().getAllMetadata();
-                        for (Metadata md : newData) {
-                            map.addMetadata(md);
-                        }
-
-                        process.writeMetadataFile(metsfile);
-                        Helper.setMeldung("import successfull: " + currentIdentifier);
+                ImportObject io = createImportObject(record);
+                result.add(updateRecord(record, processes.get(record.getId()), io), io);
+            }
+        } else {
+            updateInParallel(records, processes, Math.min(parallelism, records.size()), result);
+        }
+        summary = result;
+        progress.info(result.toString());
+        return result.getFailures();
+    }
+
+    /**
+     * Checks the records before the update, without changing anything. Every record needs a single process and a catalogue record, in the
+     * catalogue export if it is enabled.
+     */
+    PreflightReport validate(List<Record> records) {
+        XMLConfiguration config = getConfiguration();
+        List<String> titles = new ArrayList<String>(records.size());
+        for (Record record : records) {
+            titles.add(record.getId());
+        }
+        ProcessLookup lookup = new ProcessLookup(processQuery, config.getInt("processLookupChunkSize", ProcessLookup.DEFAULT_CHUNK_SIZE));
+        Map<String, List<Process>> processes = lookup.findByTitles(titles);
+        PreflightCheck.CatalogueProbe probe;
+        if (config.getBoolean("catalogueExport[@enabled]", false)) {
+            probe = new PreflightCheck.CatalogueProbe() {
+                @Override
+                public Boolean find(String identifier) throws IOException {
+                    return getCatalogueExport().get(identifier) != null;
+                }
+            };
+        } else {
+            probe = getOpacClient().createProbe(config.getString("preflight.catalogue", "cache"), "12");
+        }
+        // the update only changes existing mets files, the images and the free space are not checked
+        PreflightCheck check = new PreflightCheck(null, probe, config.getInt("preflight.threads", 8));
+        PreflightReport report = check.check(records, processes, true, null, false);
+        report.publish("mapupdate", config, tempFolder);
+        return report;
+    }
+
+    /**
+     * Updates the records on a fixed pool of worker threads. The results are added to the summary in the order of the records.
+     */
+    private void updateInParallel(List<Record> records, final Map<String, List<Process>> processes, int parallelism,
+            UpdateSummary result) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("update " + records.size() + " records with " + parallelism + " threads");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<ImportObject> importObjects = new ArrayList<ImportObject>(records.size());
+        List<Future<UpdateSummary.Result>> results = new ArrayList<Future<UpdateSummary.Result>>(records.size());
+        try {
+            for (final Record record : records) {
+                final ImportObject io = createImportObject(record);
+                importObjects.add(io);
+                results.add(executor.submit(new Callable<UpdateSummary.Result>() {
+                    @Override
+                    public UpdateSummary.Result call() {
+                        return updateRecord(record, processes.get(record.getId()), io);
                     }
+                }));
+            }
+            for (int i = 0; i < records.size(); i++) {
+                ImportObject io = importObjects.get(i);
+                try {
+                    result.add(results.get(i).get(), io);
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause());
+                    metrics.addError("update", e.getCause());
+                    result.add(fail(io, ImportReturnValue.WriteError, "update failed: " + e.getCause().getMessage()), io);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.add(fail(io, ImportReturnValue.WriteError, "update was interrupted"), io);
                 }
-            } catch (ImportPluginException | PreferencesException | ReadException | WriteException | IOException | InterruptedException
-                    | SwapException | DAOException | MetadataTypeNotAllowedException | DocStructHasNoTypeException e) {
-                logger.error(e);
-                Helper.setFehlerMeldung("import error: " + currentIdentifier);
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Merges the catalogue record into the logical metadata of the process, the mets file is only written if the metadata was changed.
+     * The mets file of a process is read, changed and written by one thread at a time.
+     */
+    private UpdateSummary.Result updateRecord(Record record, List<Process> processList, ImportObject io) {
+        String identifier = record.getId();
+        addProcessToProgressBar();
+        metrics.addRecord();
+        if (processList == null) {
+            metrics.addError(ImportMetrics.LOOKUP, "no process found");
+            return fail(io, ImportReturnValue.NoData, "no process found");
+        }
+        if (processList.size() > 1) {
+            metrics.addError(ImportMetrics.LOOKUP, "several processes found");
+            return fail(io, ImportReturnValue.DataAllreadyExists, processList.size() + " processes found");
+        }
+        boolean incremental = getConfiguration().getBoolean("incremental", false);
+        try {
+            Fileformat ff = convertData(identifier);
+            if (ff == null) {
+                return fail(io, ImportReturnValue.InvalidData, "opac request error");
+            }
+            Process process = processList.get(0);
+            List<Metadata> newData = ff.getDigitalDocument().getLogicalDocStruct().getAllMetadata();
+
+            Lock lock = PROCESS_LOCKS.get(process.getId());
+            lock.lockInterruptibly();
+            try {
+                File processFolder = null;
+                String fingerprint = null;
+                if (incremental) {
+                    // skip the mets file if the catalogue record was not changed since the last update
+                    processFolder = new File(process.getProcessDataDirectory());
+                    fingerprint = MetadataFingerprint.create(newData);
+                    if (fingerprint.equals(MetadataFingerprint.read(processFolder))) {
+                        metrics.count("unchanged");
+                        return UpdateSummary.Result.UNCHANGED;
+                    }
+                }
+
+                Fileformat metsfile = process.readMetadataFile();
+
+                DocStruct map = metsfile.getDigitalDocument().getLogicalDocStruct();
+                // the catalogue export only delivers the mapped types, the other types of the process are kept
+                Set<String> scope = null;
+                if (getConfiguration().getBoolean("catalogueExport[@enabled]", false)) {
+                    scope = getMarcRecordMapper().getMetadataTypes();
+                }
+                MetadataMerge.Diff diff = getMerge().merge(map, newData, scope);
+                if (diff.isEmpty()) {
+                    // the process has the values of the catalogue record already, the mets file stays as it is
+                    if (incremental) {
+                        MetadataFingerprint.write(processFolder, fingerprint);
+                    }
+                    metrics.count("unchanged");
+                    return UpdateSummary.Result.UNCHANGED;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("changes of " + identifier + ": " + diff);
+                }
+
+                // the mets file is written to a temporary file and renamed by goobi, no other thread writes the same file
+                long metsStart = metrics.start();
+                process.writeMetadataFile(metsfile);
+                metrics.stop(ImportMetrics.METS, metsStart);
+                metrics.count("updated");
+                if (incremental) {
+                    MetadataFingerprint.write(processFolder, fingerprint);
+                }
+                writeChanges(identifier, process, diff);
+            } finally {
+                lock.unlock();
+            }
+            return UpdateSummary.Result.UPDATED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fail(io, ImportReturnValue.WriteError, "update was interrupted");
+        } catch (PreferencesException | ReadException | WriteException | IOException | SwapException | DAOException
+                | MetadataTypeNotAllowedException | DocStructHasNoTypeException e) {
+            logger.error(e);
+            metrics.addError("update", e);
+            return fail(io, ImportReturnValue.WriteError, "import error: " + e.getMessage());
         }
-        return answer;
+    }
+
+    /**
+     * Adds the changes of the map to the change log of the batch, if there is one.
+     */
+    private void writeChanges(String identifier, Process process, MetadataMerge.Diff diff) {
+        UpdateChangeLog log = changeLog;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.write(identifier, process.getId(), diff);
+        } catch (IOException e) {
+            logger.error("cannot write change log " + log.getFile(), e);
+        }
+    }
+
+    private static ImportObject createImportObject(Record record) {
+        ImportObject io = new ImportObject();
+        io.setProcessTitle(record.getId());
+        return io;
+    }
+
+    private static UpdateSummary.Result fail(ImportObject io, ImportReturnValue value, String message) {
+        io.setImportReturnValue(value);
+        io.setErrorMessage(io.getProcessTitle() + ": " + message);
+        return UpdateSummary.Result.FAILED;
+    }
+
+    private void addProcessToProgressBar() {
+        progress.recordFinished();
+    }
+
+    /**
+     * Starts the reporter for the progress and the messages of a batch.
+     */
+    private ProgressReporter startProgress() {
+        final MassImportForm currentForm = form;
+        Runnable step = null;
+        if (currentForm != null) {
+            step = new Runnable() {
+                @Override
+                public void run() {
+                    currentForm.addProcessToProgressBar();
+                }
+            };
+        }
+        return ProgressReporter.start(step, getConfiguration().getInt("progress.interval", DEFAULT_PROGRESS_INTERVAL));
+    }
+
+    /**
+     * Stops the reporter of the batch and shows its messages.
+     */
+    private void finishProgress() {
+        progress.close();
+        progress.publish();
     }
 
     @Override
@@ -111,6 +399,10 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
 
     @Override
     public List<Record> generateRecordsFromFilenames(List<String> filenames) {
+        MapImageGroups groups = getImageGroups();
+        if (groups != null) {
+            return groups.createRecords(filenames);
+        }
         List<Record> answer = new ArrayList<Record>();
         for (String filename : filenames) {
             Record record = new Record();
@@ -124,51 +416,36 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
 
     @Override
     public Fileformat convertData() throws ImportPluginException {
+        return convertData(currentIdentifier);
+    }
+
+    private Fileformat convertData(String identifier) {
         if (logger.isDebugEnabled()) {
-            logger.debug("Get opac record for " + currentIdentifier);
+            logger.debug("Get opac record for " + identifier);
         }
         Fileformat ff = null;
         try {
-            // get logical data from opac
-            ConfigOpacCatalogue coc = new ConfigOpac().getCatalogueByName("OBVSG-MAP");
-            IOpacPlugin myImportOpac = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
-            ff = myImportOpac.search("12", currentIdentifier, coc, prefs);
-
-            // create physical image
-            DigitalDocument dd = ff.getDigitalDocument();
-
-            // create collection
-
-            DocStruct log = dd.getLogicalDocStruct();
-            Metadata col = new Metadata(prefs.getMetadataTypeByName("singleDigCollection"));
-            col.setValue("Karten");
-            log.addMetadata(col);
-
-            DocStruct phys = dd.getPhysicalDocStruct();
-            if (phys == null) {
-                phys = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
-                dd.setPhysicalDocStruct(phys);
+            MarcDumpIndex export = getCatalogueExport();
+            long start = metrics.start();
+            if (export != null) {
+                // get logical data from the local catalogue export
+                MarcRecord record = export.get(identifier);
+                ff = record == null ? null : getMarcRecordMapper().map(record);
+                metrics.stop(ImportMetrics.EXPORT, start);
+            } else {
+                // get logical data from opac
+                ff = getOpacClient().search("12", identifier);
+                metrics.stop(ImportMetrics.OPAC, start);
+            }
+            if (ff == null) {
+                metrics.addError(export != null ? ImportMetrics.EXPORT : ImportMetrics.OPAC, "no record found");
+                return null;
             }
-            //  imagepath
-            Metadata path = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
-            path.setValue(currentIdentifier + "/images/" + currentIdentifier + "_media");
-            phys.addMetadata(path);
-
-            DocStruct page = dd.createDocStruct(prefs.getDocStrctTypeByName("page"));
-            phys.addChild(page);
-            page.setImageName(currentIdentifier + ".tif");
-
-            Metadata logOrder = new Metadata(prefs.getMetadataTypeByName("logicalPageNumber"));
-            logOrder.setValue("-");
-            page.addMetadata(logOrder);
-
-            Metadata physOrder = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
-            physOrder.setValue("1");
-            page.addMetadata(physOrder);
 
-            phys.addChild(page);
+            getEnricher().enrich(ff.getDigitalDocument(), identifier);
         } catch (Exception e1) {
             logger.error(e1);
+            metrics.addError(ImportMetrics.OPAC, e1);
         }
 
         return ff;
@@ -208,11 +485,23 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
 
     @Override
     public List<String> getAllFilenames() {
-        File folder = new File(SOURCE_FOLDER);
-        String[] filenames = folder.list();
-        List<String> files = Arrays.asList(filenames);
-        Collections.sort(files);
-        return files;
+        MapImageGroups groups = getImageGroups();
+        if (groups != null) {
+            return groups.getIdentifiers();
+        }
+        return getSourceRoots().getFilenames();
+    }
+
+    /**
+     * Returns a page of the tif files in the source folder that start with the prefix, in alphabetical order. If grouping is enabled, the
+     * identifiers of the maps are returned instead.
+     */
+    public List<String> getFilenames(String prefix, int offset, int limit) {
+        MapImageGroups groups = getImageGroups();
+        if (groups != null) {
+            return groups.getIdentifiers(prefix, offset, limit);
+        }
+        return getSourceRoots().getFilenames(prefix, offset, limit);
     }
 
     @Override
@@ -270,6 +559,9 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
     @Override
     public void setPrefs(Prefs prefs) {
         this.prefs = prefs;
+        this.opacClient = null;
+        this.enricher = null;
+        this.marcRecordMapper = null;
     }
 
     @Override
@@ -284,4 +576,110 @@ public class MapUpdatePlugin implements IImportPlugin, IPlugin {
     public void setForm(MassImportForm form) {
         this.form = form;
     }
+
+    XMLConfiguration getConfiguration() {
+        if (config == null) {
+            config = ConfigPlugins.getPluginConfig(this);
+        }
+        return config;
+    }
+
+    /**
+     * Returns the folders with the source images.
+     */
+    private SourceRoots getSourceRoots() {
+        return SourceRoots.create(getConfiguration(), DEFAULT_SOURCE_FOLDER);
+    }
+
+    void setConfiguration(XMLConfiguration config) {
+        this.config = config;
+        this.opacClient = null;
+        this.enricher = null;
+        this.imageGroups = null;
+        this.marcRecordMapper = null;
+        this.merge = null;
+        closeCatalogueExport();
+    }
+
+    void setProcessQuery(ProcessLookup.ProcessQuery processQuery) {
+        this.processQuery = processQuery;
+    }
+
+    UpdateSummary getSummary() {
+        return summary;
+    }
+
+    private synchronized OpacConfigResolver getOpacConfigResolver() {
+        if (opacConfigResolver == null) {
+            opacConfigResolver = new OpacConfigResolver(getConfiguration().getString("catalogue", DEFAULT_CATALOGUE));
+        }
+        return opacConfigResolver;
+    }
+
+    private synchronized OpacClient getOpacClient() {
+        if (opacClient == null) {
+            opacClient = new OpacClient(getConfiguration(), prefs, getOpacConfigResolver());
+        }
+        return opacClient;
+    }
+
+    private synchronized MapRecordEnricher getEnricher() {
+        if (enricher == null) {
+            enricher = new MapRecordEnricher(getConfiguration(), prefs);
+        }
+        return enricher;
+    }
+
+    /**
+     * Returns the index of the catalogue export, or null if the records are read from the catalogue. The index is opened again when the
+     * export was replaced.
+     */
+    private synchronized MarcDumpIndex getCatalogueExport() throws IOException {
+        XMLConfiguration config = getConfiguration();
+        if (!config.getBoolean("catalogueExport[@enabled]", false)) {
+            return null;
+        }
+        if (catalogueExport == null || !catalogueExport.isCurrent()) {
+            closeCatalogueExport();
+            File export = new File(config.getString("catalogueExport.file", DEFAULT_CATALOGUE_EXPORT));
+            File index = new File(config.getString("catalogueExport.index", export.getPath() + ".idx"));
+            catalogueExport = MarcDumpIndex.open(export, index, config.getString("catalogueExport.identifier", "009"));
+        }
+        return catalogueExport;
+    }
+
+    private synchronized void closeCatalogueExport() {
+        if (catalogueExport != null) {
+            try {
+                catalogueExport.close();
+            } catch (IOException e) {
+                logger.warn("cannot close catalogue export", e);
+            }
+            catalogueExport = null;
+        }
+    }
+
+    private synchronized MarcRecordMapper getMarcRecordMapper() {
+        if (marcRecordMapper == null) {
+            marcRecordMapper = new MarcRecordMapper(getConfiguration(), prefs);
+        }
+        return marcRecordMapper;
+    }
+
+    private synchronized MetadataMerge getMerge() {
+        if (merge == null) {
+            merge = MetadataMerge.create(getConfiguration());
+        }
+        return merge;
+    }
+
+    /**
+     * Returns the groups of images in the source folder, or null if grouping is not enabled.
+     */
+    private synchronized MapImageGroups getImageGroups() {
+        if (imageGroups == null) {
+            imageGroups = MapImageGroups.create(getConfiguration(), getSourceRoots());
+        }
+        return imageGroups;
+    }
 }
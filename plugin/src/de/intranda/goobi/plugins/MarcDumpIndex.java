@@ -0,0 +1,416 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Index of the records of a MARCXML bulk export of the catalogue. The index file contains the hash of the identifier, the byte offset and
+ * the length of every record, sorted by hash. It is memory mapped, so neither the index nor the export are held on the heap, a record is
+ * read from the export when it is requested.
+ * <p>
+ * The index is created when it is opened for the first time and created again when the export or the identifier field changed. If an
+ * export contains several records with the same identifier, the last one is used. Deleted records are treated as missing.
+ */
+class MarcDumpIndex implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(MarcDumpIndex.class);
+
+    private static final int MAGIC = 0x4d445831;
+
+    /** magic, size and modification time of the export, hash of the identifier field, number of entries */
+    private static final int HEADER = 4 + 8 + 8 + 8 + 4;
+
+    /** hash, offset, length */
+    private static final int ENTRY = 8 + 8 + 4;
+
+    private final File dump;
+
+    private final String identifierField;
+
+    private final long dumpSize;
+
+    private final long dumpModified;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer entries;
+
+    private final int count;
+
+    private MarcDumpIndex(File dump, File indexFile, String identifierField) throws IOException {
+        this.dump = dump;
+        this.identifierField = identifierField;
+        try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(index);
+            header.getInt();
+            this.dumpSize = header.getLong();
+            this.dumpModified = header.getLong();
+            header.getLong();
+            this.count = header.getInt();
+            this.entries = index.map(FileChannel.MapMode.READ_ONLY, HEADER, (long) count * ENTRY);
+        }
+        this.channel = FileChannel.open(dump.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens the index of the export, the index is created if it does not exist or does not match the export.
+     *
+     * @param dump the MARCXML export
+     * @param indexFile the index file
+     * @param identifierField field of the identifier, e.g. {@code 009} or {@code 035$a}
+     */
+    static MarcDumpIndex open(File dump, File indexFile, String identifierField) throws IOException {
+        if (!dump.isFile()) {
+            throw new IOException("catalogue export " + dump + " does not exist");
+        }
+        if (!isValid(dump, indexFile, identifierField)) {
+            build(dump, indexFile, identifierField);
+        }
+        return new MarcDumpIndex(dump, indexFile, identifierField);
+    }
+
+    /**
+     * Returns the record with the identifier, or null if the export contains no such record or the record is deleted.
+     */
+    MarcRecord get(String identifier) throws IOException {
+        long hash = hash(identifier);
+        MarcRecord found = null;
+        // entries with the same hash are sorted by offset, so the last matching record of the export is used
+        for (int i = findFirst(hash); i < count && entries.getLong(i * ENTRY) == hash; i++) {
+            MarcRecord record = MarcRecord.parse(read(entries.getLong(i * ENTRY + 8), entries.getInt(i * ENTRY + 16)));
+            if (identifier.equals(record.getValue(identifierField))) {
+                found = record;
+            }
+        }
+        return found == null || found.isDeleted() ? null : found;
+    }
+
+    /**
+     * Returns the number of indexed records.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns false if the export was changed after the index was created.
+     */
+    boolean isCurrent() {
+        return dump.length() == dumpSize && dump.lastModified() == dumpModified;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int findFirst(long hash) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (entries.getLong(middle * ENTRY) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("catalogue export " + dump + " ends inside the record at " + offset);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static boolean isValid(File dump, File indexFile, String identifierField) {
+        if (!indexFile.isFile() || indexFile.length() < HEADER) {
+            return false;
+        }
+        try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(index);
+            return header.remaining() == HEADER && header.getInt() == MAGIC && header.getLong() == dump.length()
+                    && header.getLong() == dump.lastModified() && header.getLong() == hash(identifierField)
+                    && index.size() == HEADER + (long) header.getInt() * ENTRY;
+        } catch (IOException e) {
+            logger.warn("cannot read index " + indexFile, e);
+            return false;
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel index) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining() && index.read(header) >= 0) {
+            // read the complete header
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Reads the export once and writes the sorted index. The index is written to a temporary file first, so an interrupted run does not
+     * leave an incomplete index.
+     */
+    static void build(File dump, File indexFile, String identifierField) throws IOException {
+        long start = System.currentTimeMillis();
+        long size = dump.length();
+        long modified = dump.lastModified();
+        long[] hashes = new long[1024];
+        long[] offsets = new long[1024];
+        int[] lengths = new int[1024];
+        int count = 0;
+        int missing = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(dump), 1 << 16)) {
+            RecordScanner scanner = new RecordScanner(in);
+            byte[] data;
+            while ((data = scanner.next()) != null) {
+                String identifier = MarcRecord.parse(data).getValue(identifierField);
+                if (identifier == null) {
+                    missing++;
+                    continue;
+                }
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                hashes[count] = hash(identifier);
+                offsets[count] = scanner.getOffset();
+                lengths[count] = scanner.getLength();
+                count++;
+            }
+        }
+        sort(hashes, offsets, lengths, 0, count - 1);
+
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + ".part");
+        try (FileChannel index = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            buffer.putInt(MAGIC).putLong(size).putLong(modified).putLong(hash(identifierField)).putInt(count);
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < ENTRY) {
+                    write(index, buffer);
+                }
+                buffer.putLong(hashes[i]).putLong(offsets[i]).putInt(lengths[i]);
+            }
+            write(index, buffer);
+            index.force(true);
+        }
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (missing > 0) {
+            logger.warn(missing + " records of " + dump + " have no identifier in " + identifierField);
+        }
+        logger.info("indexed " + count + " records of " + dump + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Sorts the entries by hash and offset.
+     */
+    private static void sort(long[] hashes, long[] offsets, int[] lengths, int from, int to) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            long pivotHash = hashes[middle];
+            long pivotOffset = offsets[middle];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (compare(hashes[i], offsets[i], pivotHash, pivotOffset) < 0) {
+                    i++;
+                }
+                while (compare(hashes[j], offsets[j], pivotHash, pivotOffset) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    long hash = hashes[i];
+                    hashes[i] = hashes[j];
+                    hashes[j] = hash;
+                    long offset = offsets[i];
+                    offsets[i] = offsets[j];
+                    offsets[j] = offset;
+                    int length = lengths[i];
+                    lengths[i] = lengths[j];
+                    lengths[j] = length;
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part, so the depth of the recursion stays small
+            if (j - from < to - i) {
+                sort(hashes, offsets, lengths, from, j);
+                from = i;
+            } else {
+                sort(hashes, offsets, lengths, i, to);
+                to = j;
+            }
+        }
+    }
+
+    private static int compare(long hash1, long offset1, long hash2, long offset2) {
+        int result = Long.compare(hash1, hash2);
+        return result != 0 ? result : Long.compare(offset1, offset2);
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the UTF-8 bytes.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finds the {@code record} elements in the export. Only the tags are looked at, the content of the records is parsed later.
+     */
+    private static class RecordScanner {
+
+        private final InputStream in;
+
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(1 << 12);
+
+        private boolean capture;
+
+        private long position;
+
+        private long offset;
+
+        private int pending = -1;
+
+        RecordScanner(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Returns the bytes of the next record, or null at the end of the export.
+         */
+        byte[] next() throws IOException {
+            int c;
+            while ((c = read()) >= 0) {
+                if (c != '<') {
+                    continue;
+                }
+                long start = position - 1;
+                String name = readName();
+                if (!capture && isRecord(name)) {
+                    if (skipTag()) {
+                        // empty record
+                        continue;
+                    }
+                    offset = start;
+                    record.reset();
+                    record.write('<');
+                    record.write(name.getBytes(StandardCharsets.US_ASCII));
+                    record.write('>');
+                    capture = true;
+                } else if (capture && name.startsWith("/") && isRecord(name.substring(1))) {
+                    skipTag();
+                    capture = false;
+                    return record.toByteArray();
+                }
+            }
+            if (capture) {
+                throw new IOException("incomplete record at " + offset);
+            }
+            return null;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the last record in the export. The returned bytes may be shorter, the attributes of the record element
+         * are not kept.
+         */
+        int getLength() {
+            return (int) (position - offset);
+        }
+
+        private int read() throws IOException {
+            int c = in.read();
+            if (c >= 0) {
+                position++;
+                if (capture) {
+                    record.write(c);
+                }
+            }
+            return c;
+        }
+
+        /**
+         * Reads the name of a tag, the character after the name is read as well.
+         */
+        private String readName() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            pending = -1;
+            int c;
+            while ((c = read()) >= 0 && sb.length() < 64) {
+                if (c == '>' || Character.isWhitespace(c) || c == '/' && sb.length() > 0) {
+                    if (c == '>' || c == '/') {
+                        // the end of the tag is needed by skipTag
+                        pending = c;
+                    }
+                    break;
+                }
+                sb.append((char) c);
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Reads to the end of the tag and returns true if the tag is an empty element.
+         */
+        private boolean skipTag() throws IOException {
+            int previous = pending;
+            pending = -1;
+            if (previous == '>') {
+                return false;
+            }
+            int c;
+            while ((c = read()) >= 0) {
+                if (c == '>') {
+                    return previous == '/';
+                }
+                previous = c;
+            }
+            return false;
+        }
+
+        private static boolean isRecord(String name) {
+            int colon = name.indexOf(':');
+            return "record".equals(colon < 0 ? name : name.substring(colon + 1));
+        }
+    }
+
+}
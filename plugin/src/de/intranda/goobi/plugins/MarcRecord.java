@@ -0,0 +1,160 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A single MARCXML record, read with StAX from the UTF-8 bytes of its {@code record} element. The element may use a namespace prefix
+ * that is declared outside of the record, e.g. {@code marc:record}.
+ * <p>
+ * Fields are addressed by tag for control fields, e.g. {@code 001}, and by tag and subfield codes for data fields, e.g. {@code 245$a} or
+ * {@code 260$abc}. Several subfields of the same field are joined by a space.
+ */
+class MarcRecord {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private static class Field {
+
+        private final String tag;
+
+        private final String value;
+
+        private final List<String[]> subfields = new ArrayList<String[]>();
+
+        Field(String tag, String value) {
+            this.tag = tag;
+            this.value = value;
+        }
+    }
+
+    private String leader = "";
+
+    private final List<Field> fields = new ArrayList<Field>();
+
+    private MarcRecord() {
+    }
+
+    /**
+     * Parses the bytes of a {@code record} element.
+     */
+    static MarcRecord parse(byte[] data) throws IOException {
+        MarcRecord record = new MarcRecord();
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(new ByteArrayInputStream(data));
+            Field field = null;
+            String code = null;
+            StringBuilder text = new StringBuilder();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = getLocalName(reader.getLocalName());
+                    text.setLength(0);
+                    if ("datafield".equals(name)) {
+                        field = new Field(reader.getAttributeValue(null, "tag"), null);
+                        record.fields.add(field);
+                    } else if ("subfield".equals(name)) {
+                        code = reader.getAttributeValue(null, "code");
+                    } else if ("controlfield".equals(name)) {
+                        code = reader.getAttributeValue(null, "tag");
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = getLocalName(reader.getLocalName());
+                    if ("leader".equals(name)) {
+                        record.leader = text.toString();
+                    } else if ("controlfield".equals(name)) {
+                        record.fields.add(new Field(code, text.toString()));
+                    } else if ("subfield".equals(name) && field != null) {
+                        field.subfields.add(new String[] { code, text.toString() });
+                    } else if ("datafield".equals(name)) {
+                        field = null;
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("cannot read marc record", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Returns the values of all occurrences of the field, a data field without the requested subfields has no value.
+     */
+    List<String> getValues(String field) {
+        int separator = field.indexOf('$');
+        String tag = separator < 0 ? field : field.substring(0, separator);
+        String codes = separator < 0 ? null : field.substring(separator + 1);
+        List<String> values = new ArrayList<String>();
+        for (Field f : fields) {
+            if (!tag.equals(f.tag)) {
+                continue;
+            }
+            if (f.value != null) {
+                values.add(f.value.trim());
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String[] subfield : f.subfields) {
+                if (codes == null || codes.contains(subfield[0])) {
+                    if (sb.length() > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(subfield[1].trim());
+                }
+            }
+            if (sb.length() > 0) {
+                values.add(sb.toString());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the first value of the field or null.
+     */
+    String getValue(String field) {
+        List<String> values = getValues(field);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Returns true if the leader marks the record as deleted.
+     */
+    boolean isDeleted() {
+        return leader.length() > 5 && leader.charAt(5) == 'd';
+    }
+
+    private static String getLocalName(String name) {
+        // the parser is not namespace aware, prefixes are part of the name
+        int colon = name.indexOf(':');
+        return colon < 0 ? name : name.substring(colon + 1);
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+}
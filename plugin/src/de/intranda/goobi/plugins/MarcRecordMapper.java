@@ -0,0 +1,107 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Converts records of the catalogue export into mets files with a single logical element. The fields are mapped as configured in
+ * {@code catalogueExport.field}, e.g. {@code <field marc="245$ab" metadata="TitleDocMain" />}; every occurrence of a field becomes a
+ * metadata of its own. All types are resolved when the mapper is created.
+ */
+class MarcRecordMapper {
+
+    private static final String[][] DEFAULT_FIELDS = { { "245$ab", "TitleDocMain" } };
+
+    private static class FieldRule {
+
+        private final String field;
+
+        private final MetadataType type;
+
+        FieldRule(String field, MetadataType type) {
+            this.field = field;
+            this.type = type;
+        }
+    }
+
+    private final Prefs prefs;
+
+    private final DocStructType docStructType;
+
+    private final List<FieldRule> rules = new ArrayList<FieldRule>();
+
+    /**
+     * @throws IllegalArgumentException if a type of the mapping is not defined in the ruleset
+     */
+    MarcRecordMapper(HierarchicalConfiguration config, Prefs prefs) {
+        this.prefs = prefs;
+        String typeName = config.getString("catalogueExport.docstruct", "Map");
+        docStructType = prefs.getDocStrctTypeByName(typeName);
+        if (docStructType == null) {
+            throw new IllegalArgumentException("structure type " + typeName + " is not defined in the ruleset");
+        }
+        List<HierarchicalConfiguration> fields = config.configurationsAt("catalogueExport.field");
+        if (fields.isEmpty()) {
+            for (String[] field : DEFAULT_FIELDS) {
+                rules.add(createRule(prefs, field[0], field[1]));
+            }
+        } else {
+            for (HierarchicalConfiguration field : fields) {
+                rules.add(createRule(prefs, field.getString("[@marc]"), field.getString("[@metadata]")));
+            }
+        }
+    }
+
+    Fileformat map(MarcRecord record) throws UGHException {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct logical = dd.createDocStruct(docStructType);
+        dd.setLogicalDocStruct(logical);
+        for (FieldRule rule : rules) {
+            for (String value : record.getValues(rule.field)) {
+                Metadata md = new Metadata(rule.type);
+                md.setValue(value);
+                logical.addMetadata(md);
+            }
+        }
+        MetsMods mm = new MetsMods(prefs);
+        mm.setDigitalDocument(dd);
+        return mm;
+    }
+
+    /**
+     * Returns the names of the metadata types that the mapping can create.
+     */
+    Set<String> getMetadataTypes() {
+        Set<String> types = new HashSet<String>();
+        for (FieldRule rule : rules) {
+            types.add(rule.type.getName());
+        }
+        return types;
+    }
+
+    private static FieldRule createRule(Prefs prefs, String field, String typeName) {
+        if (field == null || field.isEmpty()) {
+            throw new IllegalArgumentException("no marc field configured for metadata " + typeName);
+        }
+        MetadataType type = prefs.getMetadataTypeByName(typeName);
+        if (type == null) {
+            throw new IllegalArgumentException("metadata type " + typeName + " is not defined in the ruleset");
+        }
+        return new FieldRule(field, type);
+    }
+
+}
@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ugh.dl.Metadata;
+
+/**
+ * Hash of the metadata of a docstruct. The order of the metadata and surrounding whitespace in the values are ignored, so two lists with
+ * the same values get the same fingerprint.
+ */
+class MetadataFingerprint {
+
+    /** name of the file in the process folder that contains the fingerprint of the last update */
+    static final String FILENAME = "mapupdate.fingerprint";
+
+    private MetadataFingerprint() {
+    }
+
+    static String create(List<Metadata> metadata) {
+        List<String> entries = new ArrayList<String>();
+        if (metadata != null) {
+            for (Metadata md : metadata) {
+                String value = md.getValue() == null ? "" : md.getValue().trim();
+                entries.add(md.getType().getName() + "\u0000" + value);
+            }
+        }
+        Collections.sort(entries);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String entry : entries) {
+                digest.update(entry.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            return ImageTransfer.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the fingerprint stored in the given folder or null, if there is none.
+     */
+    static String read(File folder) throws IOException {
+        File file = new File(folder, FILENAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim();
+    }
+
+    static void write(File folder, String fingerprint) throws IOException {
+        File file = new File(folder, FILENAME);
+        File temp = new File(folder, FILENAME + ".tmp");
+        Files.write(temp.toPath(), fingerprint.getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
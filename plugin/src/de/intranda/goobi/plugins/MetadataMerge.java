@@ -0,0 +1,333 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.exceptions.DocStructHasNoTypeException;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+
+/**
+ * Merges the metadata of a catalogue record into the logical docstruct of a process, type by type. Metadata with the same value is left
+ * as it is, values that differ are changed in place, so only the fields that really changed are touched. The rule of a type decides who
+ * owns its values:
+ * <ul>
+ * <li>{@code catalogue}: the values of the process are made equal to the values of the catalogue, values that are missing in the
+ * catalogue are removed.</li>
+ * <li>{@code local}: the values of the process are kept, the values of the catalogue are only added if the process has none.</li>
+ * <li>{@code append}: values of the catalogue that the process does not have yet are added, nothing is removed.</li>
+ * </ul>
+ * Values are compared without surrounding whitespace, like in {@link MetadataFingerprint}.
+ */
+class MetadataMerge {
+
+    private static final Logger logger = Logger.getLogger(MetadataMerge.class);
+
+    /**
+     * Owner of the values of a metadata type.
+     */
+    enum Rule {
+        CATALOGUE,
+        LOCAL,
+        APPEND;
+
+        static Rule parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Kind of a change of a single value.
+     */
+    enum Kind {
+        ADDED,
+        CHANGED,
+        REMOVED
+    }
+
+    private final Rule defaultRule;
+
+    private final Map<String, Rule> rules;
+
+    /**
+     * @param defaultRule rule of the types without a rule of their own
+     * @param rules rules by metadata type
+     */
+    MetadataMerge(Rule defaultRule, Map<String, Rule> rules) {
+        this.defaultRule = defaultRule;
+        this.rules = new HashMap<String, Rule>(rules);
+    }
+
+    /**
+     * Creates the merge configured in the {@code merge} section. Without configuration, all types are owned by the catalogue.
+     */
+    static MetadataMerge create(HierarchicalConfiguration config) {
+        Rule defaultRule = parse(config.getString("merge[@default]", "catalogue"), Rule.CATALOGUE);
+        Map<String, Rule> rules = new HashMap<String, Rule>();
+        for (HierarchicalConfiguration field : config.configurationsAt("merge.field")) {
+            String type = field.getString("[@type]");
+            if (type != null) {
+                rules.put(type, parse(field.getString("[@rule]", ""), defaultRule));
+            }
+        }
+        return new MetadataMerge(defaultRule, rules);
+    }
+
+    private static Rule parse(String value, Rule defaultRule) {
+        try {
+            return Rule.parse(value);
+        } catch (IllegalArgumentException e) {
+            logger.warn("unknown merge rule '" + value + "', " + defaultRule.name().toLowerCase(Locale.ENGLISH) + " is used");
+            return defaultRule;
+        }
+    }
+
+    Rule getRule(String type) {
+        Rule rule = rules.get(type);
+        return rule == null ? defaultRule : rule;
+    }
+
+    /**
+     * Merges the metadata into the docstruct.
+     *
+     * @param incoming metadata of the catalogue record, may be null
+     * @return the changes made to the docstruct, empty if it was not changed
+     */
+    Diff merge(DocStruct target, List<Metadata> incoming) throws MetadataTypeNotAllowedException, DocStructHasNoTypeException {
+        return merge(target, incoming, null);
+    }
+
+    /**
+     * Merges the metadata into the docstruct, limited to the types that the source of the record can deliver. Types of the docstruct
+     * outside of the scope are left as they are, even if they are owned by the catalogue, because a source that does not know a type
+     * cannot tell that its values were removed.
+     *
+     * @param incoming metadata of the catalogue record, may be null
+     * @param scope types that the source of the record delivers, null for all types. The types of the incoming metadata are always merged.
+     * @return the changes made to the docstruct, empty if it was not changed
+     */
+    Diff merge(DocStruct target, List<Metadata> incoming, Set<String> scope)
+            throws MetadataTypeNotAllowedException, DocStructHasNoTypeException {
+        Map<String, List<Metadata>> existing = groupByType(target.getAllMetadata());
+        Map<String, List<Metadata>> catalogue = groupByType(incoming);
+        Set<String> types = new LinkedHashSet<String>(existing.keySet());
+        types.addAll(catalogue.keySet());
+        Diff diff = new Diff();
+        for (String type : types) {
+            if (scope != null && !scope.contains(type) && !catalogue.containsKey(type)) {
+                continue;
+            }
+            List<Metadata> current = existing.get(type);
+            List<Metadata> values = catalogue.get(type);
+            switch (getRule(type)) {
+                case CATALOGUE:
+                    replace(target, type, current, values, diff);
+                    break;
+                case LOCAL:
+                    if (current == null) {
+                        add(target, type, values, diff);
+                    }
+                    break;
+                case APPEND:
+                    add(target, type, unmatched(values, current, null), diff);
+                    break;
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * Makes the values of the type equal to the catalogue. Unmatched values are changed in place before any value is removed or added.
+     */
+    private void replace(DocStruct target, String type, List<Metadata> current, List<Metadata> values, Diff diff)
+            throws MetadataTypeNotAllowedException, DocStructHasNoTypeException {
+        List<Metadata> obsolete = new ArrayList<Metadata>();
+        List<Metadata> missing = unmatched(values, current, obsolete);
+        int changes = Math.min(obsolete.size(), missing.size());
+        for (int i = 0; i < changes; i++) {
+            Metadata md = obsolete.get(i);
+            String oldValue = md.getValue();
+            md.setValue(missing.get(i).getValue());
+            diff.add(Kind.CHANGED, type, oldValue, md.getValue());
+        }
+        for (Metadata md : obsolete.subList(changes, obsolete.size())) {
+            target.removeMetadata(md);
+            diff.add(Kind.REMOVED, type, md.getValue(), null);
+        }
+        add(target, type, missing.subList(changes, missing.size()), diff);
+    }
+
+    private void add(DocStruct target, String type, List<Metadata> values, Diff diff)
+            throws MetadataTypeNotAllowedException, DocStructHasNoTypeException {
+        if (values == null) {
+            return;
+        }
+        for (Metadata md : values) {
+            target.addMetadata(md);
+            diff.add(Kind.ADDED, type, null, md.getValue());
+        }
+    }
+
+    /**
+     * Returns the values that have no metadata with the same value in the current list, every current metadata matches once.
+     *
+     * @param obsolete receives the current metadata that matches no value, may be null
+     */
+    private static List<Metadata> unmatched(List<Metadata> values, List<Metadata> current, List<Metadata> obsolete) {
+        List<Metadata> remaining = current == null ? new ArrayList<Metadata>() : new ArrayList<Metadata>(current);
+        List<Metadata> missing = new ArrayList<Metadata>();
+        if (values != null) {
+            for (Metadata md : values) {
+                int index = indexOf(remaining, normalize(md.getValue()));
+                if (index < 0) {
+                    missing.add(md);
+                } else {
+                    remaining.remove(index);
+                }
+            }
+        }
+        if (obsolete != null) {
+            obsolete.addAll(remaining);
+        }
+        return missing;
+    }
+
+    private static int indexOf(List<Metadata> list, String value) {
+        for (int i = 0; i < list.size(); i++) {
+            if (normalize(list.get(i).getValue()).equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    private static Map<String, List<Metadata>> groupByType(List<Metadata> metadata) {
+        if (metadata == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<Metadata>> groups = new LinkedHashMap<String, List<Metadata>>();
+        for (Metadata md : metadata) {
+            String type = md.getType().getName();
+            List<Metadata> group = groups.get(type);
+            if (group == null) {
+                group = new ArrayList<Metadata>(2);
+                groups.put(type, group);
+            }
+            group.add(md);
+        }
+        return groups;
+    }
+
+    /**
+     * A changed value, the old value of an added and the new value of a removed metadata are null.
+     */
+    static class Change {
+
+        private final Kind kind;
+
+        private final String type;
+
+        private final String oldValue;
+
+        private final String newValue;
+
+        Change(Kind kind, String type, String oldValue, String newValue) {
+            this.kind = kind;
+            this.type = type;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getOldValue() {
+            return oldValue;
+        }
+
+        String getNewValue() {
+            return newValue;
+        }
+
+        String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"kind\": ").append(ImportMetrics.quote(kind.name().toLowerCase(Locale.ENGLISH)));
+            sb.append(", \"type\": ").append(ImportMetrics.quote(type));
+            if (oldValue != null) {
+                sb.append(", \"old\": ").append(ImportMetrics.quote(oldValue));
+            }
+            if (newValue != null) {
+                sb.append(", \"new\": ").append(ImportMetrics.quote(newValue));
+            }
+            return sb.append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case ADDED:
+                    return "+" + type + " '" + newValue + "'";
+                case REMOVED:
+                    return "-" + type + " '" + oldValue + "'";
+                default:
+                    return type + " '" + oldValue + "' -> '" + newValue + "'";
+            }
+        }
+    }
+
+    /**
+     * The changes of a single docstruct.
+     */
+    static class Diff {
+
+        private final List<Change> changes = new ArrayList<Change>();
+
+        void add(Kind kind, String type, String oldValue, String newValue) {
+            changes.add(new Change(kind, type, oldValue, newValue));
+        }
+
+        boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        List<Change> getChanges() {
+            return Collections.unmodifiableList(changes);
+        }
+
+        int count(Kind kind) {
+            int count = 0;
+            for (Change change : changes) {
+                if (change.kind == kind) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return changes.toString();
+        }
+    }
+
+}
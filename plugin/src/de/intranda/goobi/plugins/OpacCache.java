@@ -0,0 +1,247 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache for catalogue responses, keyed by catalogue name, search field and identifier. Entries are stored as files in a folder and the most
+ * recently used entries are kept in memory as well. Entries expire after the configured time, if the folder contains more than the
+ * configured number of entries, the oldest ones are deleted.
+ */
+class OpacCache<T> {
+
+    private static final Logger logger = Logger.getLogger(OpacCache.class);
+
+    private static final String SUFFIX = ".xml";
+
+    /**
+     * Converts the cached values from and to files. Values returned by the cache are always copies, so the caller may change them.
+     */
+    interface Codec<T> {
+
+        void write(T value, File file) throws IOException;
+
+        T read(File file) throws IOException;
+
+        T copy(T value) throws IOException;
+    }
+
+    private static class MemoryEntry<T> {
+
+        private final T value;
+
+        private final long created;
+
+        MemoryEntry(T value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    private final File folder;
+
+    private final long timeToLive;
+
+    private final int maxEntries;
+
+    private final Codec<T> codec;
+
+    private final Map<String, MemoryEntry<T>> memory;
+
+    private final AtomicInteger diskEntries = new AtomicInteger();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param folder folder for the cache files
+     * @param timeToLive time in ms after that an entry expires
+     * @param maxEntries maximal number of entries in the folder
+     * @param memoryEntries number of entries kept in memory
+     * @param codec converts the values from and to files
+     */
+    OpacCache(File folder, long timeToLive, int maxEntries, final int memoryEntries, Codec<T> codec) {
+        this.folder = folder;
+        this.timeToLive = timeToLive;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.codec = codec;
+        this.memory = new LinkedHashMap<String, MemoryEntry<T>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MemoryEntry<T>> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        File[] files = listEntries();
+        diskEntries.set(files.length);
+        evict(files);
+    }
+
+    /**
+     * Returns a copy of the cached value or null, if the cache contains no valid entry.
+     */
+    T get(String catalogue, String field, String identifier) throws IOException {
+        String key = createKey(catalogue, field, identifier);
+        long now = System.currentTimeMillis();
+        MemoryEntry<T> entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+            if (entry != null && now - entry.created > timeToLive) {
+                memory.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            memoryHits.incrementAndGet();
+            return codec.copy(entry.value);
+        }
+
+        File file = new File(folder, key + SUFFIX);
+        long modified = file.lastModified();
+        if (modified == 0 || now - modified > timeToLive) {
+            misses.incrementAndGet();
+            return null;
+        }
+        T value;
+        try {
+            value = codec.read(file);
+        } catch (IOException e) {
+            logger.warn("cannot read cached opac response " + file, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        diskHits.incrementAndGet();
+        synchronized (memory) {
+            memory.put(key, new MemoryEntry<T>(value, modified));
+        }
+        return codec.copy(value);
+    }
+
+    boolean contains(String catalogue, String field, String identifier) {
+        String key = createKey(catalogue, field, identifier);
+        long now = System.currentTimeMillis();
+        synchronized (memory) {
+            MemoryEntry<T> entry = memory.get(key);
+            if (entry != null && now - entry.created <= timeToLive) {
+                return true;
+            }
+        }
+        long modified = new File(folder, key + SUFFIX).lastModified();
+        return modified != 0 && now - modified <= timeToLive;
+    }
+
+    /**
+     * Stores a copy of the value, the caller may change the value afterwards.
+     */
+    void put(String catalogue, String field, String identifier, T value) throws IOException {
+        String key = createKey(catalogue, field, identifier);
+        T copy = codec.copy(value);
+
+        File file = new File(folder, key + SUFFIX);
+        File temp = new File(folder, key + "." + Thread.currentThread().getId() + ".tmp");
+        boolean existed = file.exists();
+        try {
+            codec.write(copy, temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        synchronized (memory) {
+            memory.put(key, new MemoryEntry<T>(copy, System.currentTimeMillis()));
+        }
+        if (!existed && diskEntries.incrementAndGet() > maxEntries) {
+            evict(listEntries());
+        }
+    }
+
+    /**
+     * Deletes expired entries and the oldest entries above the maximal number of entries.
+     */
+    private synchronized void evict(File[] files) {
+        long now = System.currentTimeMillis();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        // delete down to 90% of the limit, so we don't need to list the folder again for every new entry
+        int keep = files.length > maxEntries ? maxEntries - maxEntries / 10 : files.length;
+        int remaining = files.length;
+        for (int i = 0; i < files.length; i++) {
+            File file = files[i];
+            if ((files.length - i > keep || now - file.lastModified() > timeToLive) && file.delete()) {
+                remaining--;
+            }
+        }
+        diskEntries.set(remaining);
+    }
+
+    private File[] listEntries() {
+        File[] files = folder.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    static String createKey(String catalogue, String field, String identifier) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((catalogue + "\u0000" + field + "\u0000" + identifier).getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    long getDiskHits() {
+        return diskHits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int getSize() {
+        return diskEntries.get();
+    }
+
+    @Override
+    public String toString() {
+        return "opac cache " + folder + ": " + memoryHits.get() + " memory hits, " + diskHits.get() + " disk hits, " + misses.get() + " misses, "
+                + diskEntries.get() + " entries";
+    }
+
+}
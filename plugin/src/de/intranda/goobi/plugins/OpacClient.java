@@ -0,0 +1,205 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+import org.goobi.production.plugin.interfaces.IOpacPlugin;
+
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+import ugh.exceptions.WriteException;
+import ugh.fileformats.mets.MetsMods;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+/**
+ * Sends the catalogue requests of the map plugins. If the opac cache is enabled in the plugin configuration, responses are taken from the
+ * cache and new responses are added to it. Requests to the catalogue are limited, repeated and paused by a {@link RequestGuard} as
+ * configured in {@code opacRequests}. If {@code adaptiveConcurrency} is enabled, an {@link AdaptiveLimiter} adapts the number of
+ * concurrent requests to the latency of the catalogue.
+ */
+class OpacClient {
+
+    private static final Logger logger = Logger.getLogger(OpacClient.class);
+
+    private static final String DEFAULT_CACHE_FOLDER = "/opt/digiverso/goobi/tmp/opaccache/";
+
+    private final Prefs prefs;
+
+    private final OpacConfigResolver resolver;
+
+    private final OpacCache<Fileformat> cache;
+
+    private final boolean refresh;
+
+    private final RequestGuard guard;
+
+    // null if adaptive concurrency is not enabled
+    private final AdaptiveLimiter limiter;
+
+    OpacClient(HierarchicalConfiguration config, Prefs prefs, OpacConfigResolver resolver) {
+        this.prefs = prefs;
+        this.resolver = resolver;
+        if (config.getBoolean("opacCache[@enabled]", false) && !config.getBoolean("opacCache.bypass", false)) {
+            File folder = new File(config.getString("opacCache.folder", DEFAULT_CACHE_FOLDER));
+            long timeToLive = TimeUnit.HOURS.toMillis(config.getLong("opacCache.ttl", 168));
+            int maxEntries = config.getInt("opacCache.maxEntries", 100000);
+            int memoryEntries = config.getInt("opacCache.memoryEntries", 500);
+            this.cache = new OpacCache<Fileformat>(folder, timeToLive, maxEntries, memoryEntries, new FileformatCodec(prefs));
+            this.refresh = config.getBoolean("opacCache.refresh", false);
+        } else {
+            this.cache = null;
+            this.refresh = false;
+        }
+        this.guard = createGuard(config);
+        this.limiter = AdaptiveLimiter.create(config, "opac", 4, 32);
+    }
+
+    static RequestGuard createGuard(HierarchicalConfiguration config) {
+        return new RequestGuard(config.getDouble("opacRequests.rateLimit", 0), config.getInt("opacRequests.burst", 1),
+                config.getInt("opacRequests.retries", 3), config.getLong("opacRequests.backoff", 1000),
+                config.getLong("opacRequests.maxBackoff", 30000), config.getInt("opacRequests.failureThreshold", 5),
+                config.getLong("opacRequests.pause", 60000), config.getLong("opacRequests.maxPause", 1800000));
+    }
+
+    /**
+     * Searches the identifier in the given field of the catalogue.
+     *
+     * @return the catalogue record or null, if nothing was found
+     */
+    Fileformat search(final String field, final String identifier) throws Exception {
+        String catalogue = resolver.getCatalogueName();
+        if (cache != null && !refresh) {
+            Fileformat ff = cache.get(catalogue, field, identifier);
+            if (ff != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Found opac record for " + identifier + " in cache");
+                }
+                return ff;
+            }
+        }
+        final ConfigOpacCatalogue coc = resolver.getCatalogue();
+        final IOpacPlugin opacPlugin = resolver.getOpacPlugin();
+        final Callable<Fileformat> request = new Callable<Fileformat>() {
+            @Override
+            public Fileformat call() throws Exception {
+                return opacPlugin.search(field, identifier, coc, prefs);
+            }
+        };
+        // every attempt of the guard is a sample of the limiter
+        Fileformat ff = guard.execute(limiter == null ? request : new Callable<Fileformat>() {
+            @Override
+            public Fileformat call() throws Exception {
+                return limiter.execute(request);
+            }
+        });
+        if (ff != null && cache != null) {
+            try {
+                cache.put(catalogue, field, identifier, ff);
+            } catch (IOException e) {
+                logger.warn("cannot cache opac record for " + identifier, e);
+            }
+        }
+        return ff;
+    }
+
+    /**
+     * Returns true if the opac cache contains a valid record for the identifier.
+     */
+    boolean isCached(String field, String identifier) {
+        return cache != null && cache.contains(resolver.getCatalogueName(), field, identifier);
+    }
+
+    /**
+     * Creates the catalogue lookup of the preflight check. Mode {@code cache} only looks into the opac cache, mode {@code catalogue} sends
+     * a request for every identifier that is not cached and mode {@code none} does not check the catalogue.
+     *
+     * @return the probe or null if the catalogue is not checked
+     */
+    PreflightCheck.CatalogueProbe createProbe(String mode, final String field) {
+        if ("catalogue".equals(mode)) {
+            return new PreflightCheck.CatalogueProbe() {
+                @Override
+                public Boolean find(String identifier) throws Exception {
+                    // the response is cached, so the import does not ask again
+                    return search(field, identifier) != null;
+                }
+            };
+        }
+        if ("cache".equals(mode) && cache != null) {
+            return new PreflightCheck.CatalogueProbe() {
+                @Override
+                public Boolean find(String identifier) {
+                    return isCached(field, identifier) ? Boolean.TRUE : null;
+                }
+            };
+        }
+        return null;
+    }
+
+    RequestGuard getGuard() {
+        return guard;
+    }
+
+    /**
+     * Returns the limiter of the concurrent requests, or null if adaptive concurrency is not enabled.
+     */
+    AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    OpacCache<Fileformat> getCache() {
+        return cache;
+    }
+
+    /**
+     * Stores catalogue records as mets files.
+     */
+    private static class FileformatCodec implements OpacCache.Codec<Fileformat> {
+
+        private final Prefs prefs;
+
+        FileformatCodec(Prefs prefs) {
+            this.prefs = prefs;
+        }
+
+        @Override
+        public void write(Fileformat value, File file) throws IOException {
+            try {
+                MetsMods mm = new MetsMods(prefs);
+                mm.setDigitalDocument(value.getDigitalDocument());
+                mm.write(file.getAbsolutePath());
+            } catch (PreferencesException | WriteException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Fileformat read(File file) throws IOException {
+            try {
+                MetsMods mm = new MetsMods(prefs);
+                mm.read(file.getAbsolutePath());
+                return mm;
+            } catch (PreferencesException | ReadException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public Fileformat copy(Fileformat value) throws IOException {
+            try {
+                MetsMods mm = new MetsMods(prefs);
+                mm.setDigitalDocument(value.getDigitalDocument().copyDigitalDocument());
+                return mm;
+            } catch (PreferencesException | WriteException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+}
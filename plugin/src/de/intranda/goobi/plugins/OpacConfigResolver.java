@@ -0,0 +1,146 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.goobi.production.enums.PluginType;
+import org.goobi.production.plugin.PluginLoader;
+import org.goobi.production.plugin.interfaces.IOpacPlugin;
+
+import de.sub.goobi.helper.ConfigurationHelper;
+import de.sub.goobi.helper.exceptions.ImportPluginException;
+import de.unigoettingen.sub.search.opac.ConfigOpac;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+/**
+ * Loads the catalogue configuration and the opac plugin once and keeps them until goobi_opac.xml is changed. Opac plugins keep the state
+ * of the last search in fields, therefore every thread gets its own plugin instance.
+ */
+class OpacConfigResolver {
+
+    private static final Logger logger = Logger.getLogger(OpacConfigResolver.class);
+
+    private static final String OPAC_CONFIGURATION = "goobi_opac.xml";
+
+    /** minimal time in ms between two checks of the configuration file */
+    private static final long CHECK_INTERVAL = 5000;
+
+    /**
+     * Catalogue and opac plugin of one version of the configuration file.
+     */
+    private static class Resolved {
+
+        private final ConfigOpacCatalogue catalogue;
+
+        private final IOpacPlugin opacPlugin;
+
+        private final long lastModified;
+
+        private volatile long lastCheck;
+
+        // the instance from the plugin loader is given to the first thread, the other threads create new instances
+        private final AtomicBoolean opacPluginUsed = new AtomicBoolean();
+
+        Resolved(ConfigOpacCatalogue catalogue, IOpacPlugin opacPlugin, long lastModified) {
+            this.catalogue = catalogue;
+            this.opacPlugin = opacPlugin;
+            this.lastModified = lastModified;
+            this.lastCheck = System.currentTimeMillis();
+        }
+    }
+
+    private final String catalogueName;
+
+    private final File configurationFile;
+
+    private volatile Resolved resolved;
+
+    private final ThreadLocal<Object[]> threadPlugins = new ThreadLocal<Object[]>();
+
+    OpacConfigResolver(String catalogueName) {
+        this.catalogueName = catalogueName;
+        this.configurationFile = new File(ConfigurationHelper.getInstance().getConfigurationFolder(), OPAC_CONFIGURATION);
+    }
+
+    /**
+     * Uses the given catalogue and opac plugin instead of the configured ones.
+     */
+    OpacConfigResolver(ConfigOpacCatalogue catalogue, IOpacPlugin opacPlugin) {
+        this.catalogueName = catalogue == null ? opacPlugin.getTitle() : catalogue.getTitle();
+        this.configurationFile = null;
+        this.resolved = new Resolved(catalogue, opacPlugin, 0);
+    }
+
+    String getCatalogueName() {
+        return catalogueName;
+    }
+
+    ConfigOpacCatalogue getCatalogue() throws ImportPluginException {
+        return resolve().catalogue;
+    }
+
+    /**
+     * Returns the opac plugin of the catalogue. The instance is reused for all calls from the same thread.
+     */
+    IOpacPlugin getOpacPlugin() throws ImportPluginException {
+        Resolved current = resolve();
+        if (configurationFile == null) {
+            return current.opacPlugin;
+        }
+        Object[] cached = threadPlugins.get();
+        if (cached != null && cached[0] == current) {
+            return (IOpacPlugin) cached[1];
+        }
+        IOpacPlugin opacPlugin;
+        if (current.opacPluginUsed.compareAndSet(false, true)) {
+            opacPlugin = current.opacPlugin;
+        } else {
+            opacPlugin = createInstance(current.opacPlugin);
+        }
+        threadPlugins.set(new Object[] { current, opacPlugin });
+        return opacPlugin;
+    }
+
+    private Resolved resolve() throws ImportPluginException {
+        Resolved current = resolved;
+        if (configurationFile == null) {
+            return current;
+        }
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.lastCheck < CHECK_INTERVAL) {
+            return current;
+        }
+        synchronized (this) {
+            current = resolved;
+            long lastModified = configurationFile.lastModified();
+            if (current != null && current.lastModified == lastModified) {
+                current.lastCheck = now;
+                return current;
+            }
+            if (current != null) {
+                logger.info(configurationFile + " was changed, reload catalogue " + catalogueName);
+            }
+            ConfigOpacCatalogue coc = new ConfigOpac().getCatalogueByName(catalogueName);
+            if (coc == null) {
+                throw new ImportPluginException("catalogue " + catalogueName + " is not configured");
+            }
+            IOpacPlugin opacPlugin = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
+            if (opacPlugin == null) {
+                throw new ImportPluginException("opac plugin " + coc.getOpacType() + " not found");
+            }
+            current = new Resolved(coc, opacPlugin, lastModified);
+            resolved = current;
+            return current;
+        }
+    }
+
+    private IOpacPlugin createInstance(IOpacPlugin prototype) throws ImportPluginException {
+        try {
+            return prototype.getClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new ImportPluginException("cannot create opac plugin " + prototype.getTitle(), e);
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.goobi.beans.Process;
+import org.goobi.production.importer.Record;
+
+/**
+ * Checks the records of a batch before the import starts: the source images exist and can be read, the catalogue knows the identifier,
+ * the processes exist or not and the target folder has enough free space. Images and catalogue are checked on several threads, the
+ * processes must be looked up by the caller with a few bulk queries.
+ */
+class PreflightCheck {
+
+    private static final Logger logger = Logger.getLogger(PreflightCheck.class);
+
+    static final String SOURCE = "source";
+
+    static final String CATALOGUE = "catalogue";
+
+    static final String PROCESS = "process";
+
+    static final String DISK = "disk";
+
+    /** estimated size of a mets file, added to the required space for every record */
+    static final long METS_SIZE = 64 * 1024;
+
+    /**
+     * Looks up an identifier in the catalogue or its cache.
+     */
+    interface CatalogueProbe {
+
+        /**
+         * @return true if a record was found, false if the catalogue has no record, null if it was not checked
+         */
+        Boolean find(String identifier) throws Exception;
+    }
+
+    private final SourceRoots sources;
+
+    private final CatalogueProbe probe;
+
+    private final int threads;
+
+    /**
+     * @param sources folders of the images, the images of a record are relative to these folders, null to skip the images
+     * @param probe catalogue lookup or null to skip the catalogue
+     * @param threads number of threads
+     */
+    PreflightCheck(SourceRoots sources, CatalogueProbe probe, int threads) {
+        this.sources = sources;
+        this.probe = probe;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Checks the records.
+     *
+     * @param processes the processes of the records by title
+     * @param update true if every record needs exactly one process, false if a record must not have a process yet
+     * @param target folder for the new files or null to skip the disk space check
+     * @param copyImages true if the images are copied into the target folder, false if they are linked or not needed
+     */
+    PreflightReport check(List<Record> records, Map<String, List<Process>> processes, boolean update, File target, boolean copyImages) {
+        PreflightReport report = new PreflightReport();
+        checkProcesses(records, processes, update, report);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, records.size())));
+        List<Future<RecordResult>> results = new ArrayList<Future<RecordResult>>(records.size());
+        try {
+            for (final Record record : records) {
+                results.add(executor.submit(new Callable<RecordResult>() {
+                    @Override
+                    public RecordResult call() {
+                        return checkRecord(record);
+                    }
+                }));
+            }
+            for (int i = 0; i < records.size(); i++) {
+                String identifier = records.get(i).getId();
+                try {
+                    RecordResult result = results.get(i).get();
+                    report.addRecord(result.images, result.bytes);
+                    for (PreflightReport.Issue issue : result.issues) {
+                        report.add(issue);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error(e.getCause());
+                    report.addError(identifier, SOURCE, "check failed: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    report.addError(identifier, SOURCE, "check was interrupted");
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (target != null) {
+            checkDiskSpace(report, target, copyImages);
+        }
+        report.finish();
+        return report;
+    }
+
+    private void checkProcesses(List<Record> records, Map<String, List<Process>> processes, boolean update, PreflightReport report) {
+        Set<String> identifiers = new HashSet<String>();
+        for (Record record : records) {
+            String identifier = record.getId();
+            if (!identifiers.add(identifier)) {
+                report.addError(identifier, PROCESS, "selected more than once");
+                continue;
+            }
+            List<Process> list = processes.get(identifier);
+            int count = list == null ? 0 : list.size();
+            if (update && count == 0) {
+                report.addError(identifier, PROCESS, "no process found");
+            } else if (update && count > 1) {
+                report.addError(identifier, PROCESS, count + " processes found");
+            } else if (!update && count > 0) {
+                report.addError(identifier, PROCESS, "process exists already");
+            }
+        }
+    }
+
+    private RecordResult checkRecord(Record record) {
+        String identifier = record.getId();
+        RecordResult result = new RecordResult(identifier);
+        if (sources != null) {
+            for (String image : MapImageGroups.getImages(record)) {
+                Path path = sources.resolve(image).toPath();
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (!attributes.isRegularFile()) {
+                        result.add(PreflightReport.Severity.ERROR, SOURCE, image + " is no file");
+                    } else if (attributes.size() == 0) {
+                        result.add(PreflightReport.Severity.ERROR, SOURCE, image + " is empty");
+                    } else if (!Files.isReadable(path)) {
+                        result.add(PreflightReport.Severity.ERROR, SOURCE, image + " is not readable");
+                    } else {
+                        result.images++;
+                        result.bytes += attributes.size();
+                    }
+                } catch (IOException e) {
+                    result.add(PreflightReport.Severity.ERROR, SOURCE, image + " not found");
+                }
+            }
+        }
+        if (probe != null) {
+            try {
+                if (Boolean.FALSE.equals(probe.find(identifier))) {
+                    result.add(PreflightReport.Severity.ERROR, CATALOGUE, "no catalogue record found");
+                }
+            } catch (Exception e) {
+                result.add(PreflightReport.Severity.WARNING, CATALOGUE, "catalogue request failed: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void checkDiskSpace(PreflightReport report, File target, boolean copyImages) {
+        long required = report.getRecords() * METS_SIZE + (copyImages ? report.getSourceBytes() : 0);
+        File existing = target;
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        if (existing == null) {
+            report.addError(null, DISK, "target folder " + target + " does not exist");
+            return;
+        }
+        try {
+            long usable = Files.getFileStore(existing.toPath()).getUsableSpace();
+            report.setDiskSpace(required, usable);
+            if (required > usable) {
+                report.addError(null, DISK,
+                        (required / 1048576) + " MB required, but only " + (usable / 1048576) + " MB free in " + target);
+            } else if (required > usable * 0.9) {
+                report.addWarning(null, DISK, "the batch fills more than 90% of the free space in " + target);
+            }
+        } catch (IOException e) {
+            report.addWarning(null, DISK, "cannot read the free space of " + target + ": " + e.getMessage());
+        }
+    }
+
+    private static class RecordResult {
+
+        private final String identifier;
+
+        private final List<PreflightReport.Issue> issues = new ArrayList<PreflightReport.Issue>();
+
+        private int images;
+
+        private long bytes;
+
+        RecordResult(String identifier) {
+            this.identifier = identifier;
+        }
+
+        void add(PreflightReport.Severity severity, String check, String message) {
+            issues.add(new PreflightReport.Issue(identifier, severity, check, message));
+        }
+    }
+
+}
@@ -0,0 +1,257 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.log4j.Logger;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+
+import de.sub.goobi.helper.Helper;
+
+/**
+ * Result of a {@link PreflightCheck}. Errors would let the import of a record fail, warnings are worth a look but do not stop the
+ * import.
+ */
+class PreflightReport {
+
+    private static final Logger logger = Logger.getLogger(PreflightReport.class);
+
+    enum Severity {
+        ERROR,
+        WARNING
+    }
+
+    /**
+     * A problem found for a record, or for the whole batch if the identifier is null.
+     */
+    static class Issue {
+
+        private final String identifier;
+
+        private final Severity severity;
+
+        private final String check;
+
+        private final String message;
+
+        Issue(String identifier, Severity severity, String check, String message) {
+            this.identifier = identifier;
+            this.severity = severity;
+            this.check = check;
+            this.message = message;
+        }
+
+        String getIdentifier() {
+            return identifier;
+        }
+
+        Severity getSeverity() {
+            return severity;
+        }
+
+        String getCheck() {
+            return check;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return severity + " " + check + (identifier == null ? "" : " " + identifier) + ": " + message;
+        }
+    }
+
+    private final long started = System.currentTimeMillis();
+
+    private final List<Issue> issues = new ArrayList<Issue>();
+
+    private int records;
+
+    private int images;
+
+    private long sourceBytes;
+
+    private long requiredBytes;
+
+    private long usableBytes = -1;
+
+    private long duration;
+
+    void add(Issue issue) {
+        issues.add(issue);
+    }
+
+    void addError(String identifier, String check, String message) {
+        issues.add(new Issue(identifier, Severity.ERROR, check, message));
+    }
+
+    void addWarning(String identifier, String check, String message) {
+        issues.add(new Issue(identifier, Severity.WARNING, check, message));
+    }
+
+    void addRecord(int recordImages, long recordBytes) {
+        records++;
+        images += recordImages;
+        sourceBytes += recordBytes;
+    }
+
+    void setDiskSpace(long required, long usable) {
+        this.requiredBytes = required;
+        this.usableBytes = usable;
+    }
+
+    void finish() {
+        duration = System.currentTimeMillis() - started;
+    }
+
+    List<Issue> getIssues() {
+        return Collections.unmodifiableList(issues);
+    }
+
+    int count(Severity severity) {
+        int count = 0;
+        for (Issue issue : issues) {
+            if (issue.severity == severity) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    boolean hasErrors() {
+        return count(Severity.ERROR) > 0;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    int getImages() {
+        return images;
+    }
+
+    long getSourceBytes() {
+        return sourceBytes;
+    }
+
+    long getRequiredBytes() {
+        return requiredBytes;
+    }
+
+    /**
+     * Returns the usable space of the target folder in bytes, or -1 if it was not checked.
+     */
+    long getUsableBytes() {
+        return usableBytes;
+    }
+
+    /**
+     * Returns one import object for every record with errors, the messages of a record are joined. Errors of the whole batch are returned
+     * with the name of the check as process title.
+     */
+    List<ImportObject> getFailures() {
+        Map<String, ImportObject> failures = new LinkedHashMap<String, ImportObject>();
+        for (Issue issue : issues) {
+            if (issue.severity != Severity.ERROR) {
+                continue;
+            }
+            String title = issue.identifier == null ? issue.check : issue.identifier;
+            ImportObject io = failures.get(title);
+            if (io == null) {
+                io = new ImportObject();
+                io.setProcessTitle(title);
+                io.setImportReturnValue(ImportReturnValue.InvalidData);
+                io.setErrorMessage(title + ": " + issue.message);
+                failures.put(title, io);
+            } else {
+                io.setErrorMessage(io.getErrorMessage() + "; " + issue.message);
+            }
+        }
+        return new ArrayList<ImportObject>(failures.values());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(records).append(" records, ").append(images).append(" images with ").append(sourceBytes / 1048576).append(" MB, ");
+        sb.append(count(Severity.ERROR)).append(" errors, ").append(count(Severity.WARNING)).append(" warnings");
+        if (usableBytes >= 0) {
+            sb.append(", ").append(requiredBytes / 1048576).append(" MB required, ").append(usableBytes / 1048576).append(" MB free");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Logs and shows the summary and writes the report into the folder, if {@code preflight.report} is enabled.
+     */
+    void publish(String name, HierarchicalConfiguration config, String folder) {
+        logger.info(name + " preflight check: " + this);
+        if (folder != null && config.getBoolean("preflight.report", true)) {
+            try {
+                File file = writeReport(new File(folder), name);
+                logger.info("preflight report written to " + file);
+            } catch (IOException e) {
+                logger.warn("cannot write preflight report", e);
+            }
+        }
+        if (hasErrors()) {
+            Helper.setFehlerMeldung("preflight check: " + this);
+        } else {
+            Helper.setMeldung("preflight check: " + this);
+        }
+    }
+
+    /**
+     * Writes the report as json file into the folder.
+     *
+     * @return the report file
+     */
+    File writeReport(File folder, String name) throws IOException {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(started));
+        File file = new File(folder, name + "-preflight-" + timestamp + ".json");
+        File temp = new File(folder, "." + file.getName() + ".tmp");
+        Files.write(temp.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"records\": ").append(records).append(",\n");
+        sb.append("  \"images\": ").append(images).append(",\n");
+        sb.append("  \"sourceBytes\": ").append(sourceBytes).append(",\n");
+        sb.append("  \"requiredBytes\": ").append(requiredBytes).append(",\n");
+        sb.append("  \"usableBytes\": ").append(usableBytes).append(",\n");
+        sb.append("  \"durationMillis\": ").append(duration).append(",\n");
+        sb.append("  \"errors\": ").append(count(Severity.ERROR)).append(",\n");
+        sb.append("  \"warnings\": ").append(count(Severity.WARNING)).append(",\n");
+        sb.append("  \"issues\": [");
+        for (int i = 0; i < issues.size(); i++) {
+            Issue issue = issues.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append("    {\"identifier\": ").append(issue.identifier == null ? "null" : ImportMetrics.quote(issue.identifier));
+            sb.append(", \"severity\": ").append(ImportMetrics.quote(issue.severity.name()));
+            sb.append(", \"check\": ").append(ImportMetrics.quote(issue.check));
+            sb.append(", \"message\": ").append(ImportMetrics.quote(issue.message)).append('}');
+        }
+        sb.append(issues.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Process;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+
+/**
+ * Finds the processes for a list of titles with a few database queries instead of one query per title.
+ */
+class ProcessLookup {
+
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Executes a process query with the given filter.
+     */
+    interface ProcessQuery {
+
+        List<Process> getProcesses(String filter);
+    }
+
+    static final ProcessQuery DATABASE = new ProcessQuery() {
+        @Override
+        public List<Process> getProcesses(String filter) {
+            return ProcessManager.getProcesses(null, filter);
+        }
+    };
+
+    private final ProcessQuery query;
+
+    private final int chunkSize;
+
+    ProcessLookup(ProcessQuery query, int chunkSize) {
+        this.query = query;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Returns the processes of each title. Titles without process are missing in the map, a list with more than one entry means that the
+     * title is not unique.
+     */
+    Map<String, List<Process>> findByTitles(Collection<String> titles) {
+        List<String> uniqueTitles = new ArrayList<String>(new LinkedHashSet<String>(titles));
+        Map<String, List<Process>> processes = new HashMap<String, List<Process>>(uniqueTitles.size() * 2);
+        for (int start = 0; start < uniqueTitles.size(); start += chunkSize) {
+            List<String> chunk = uniqueTitles.subList(start, Math.min(start + chunkSize, uniqueTitles.size()));
+            List<Process> result = query.getProcesses(createFilter(chunk));
+            if (result == null) {
+                continue;
+            }
+            for (Process process : result) {
+                List<Process> list = processes.get(process.getTitel());
+                if (list == null) {
+                    list = new ArrayList<Process>(1);
+                    processes.put(process.getTitel(), list);
+                }
+                list.add(process);
+            }
+        }
+        return processes;
+    }
+
+    static String createFilter(List<String> titles) {
+        StringBuilder filter = new StringBuilder("prozesse.titel IN (");
+        for (int i = 0; i < titles.size(); i++) {
+            if (i > 0) {
+                filter.append(',');
+            }
+            filter.append('\'').append(escape(titles.get(i))).append('\'');
+        }
+        return filter.append(')').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("'", "''");
+    }
+
+}
@@ -0,0 +1,225 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+import de.sub.goobi.helper.Helper;
+
+/**
+ * Passes the progress and the messages of a batch to the user interface without blocking the import threads. The import threads only
+ * increment a counter and add messages to a lock-free queue.
+ * <ul>
+ * <li>A single consumer thread advances the progress bar at most once per interval, by all records finished since the last time.</li>
+ * <li>The consumer thread also takes the messages from the queue and counts equal messages. Only the first {@link #MAX_MESSAGES}
+ * different messages of a severity are kept, the others are only counted.</li>
+ * <li>The messages are shown by {@link #publish()} when the batch is finished, on the thread of the request, because the messages belong
+ * to its faces context.</li>
+ * </ul>
+ */
+class ProgressReporter {
+
+    private static final Logger logger = Logger.getLogger(ProgressReporter.class);
+
+    static final int MAX_MESSAGES = 20;
+
+    /**
+     * A message and the number of times it was reported.
+     */
+    static class Message {
+
+        private final boolean error;
+
+        private final String text;
+
+        private int count = 1;
+
+        Message(boolean error, String text) {
+            this.error = error;
+            this.text = text;
+        }
+
+        boolean isError() {
+            return error;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return count > 1 ? text + " (" + count + "x)" : text;
+        }
+    }
+
+    private final Runnable step;
+
+    private final long intervalNanos;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<Message> messages = new ConcurrentLinkedQueue<Message>();
+
+    // only used by the consumer thread, or by the thread of the request once the consumer is stopped
+    private final Map<String, Message> errors = new LinkedHashMap<String, Message>();
+
+    private final Map<String, Message> infos = new LinkedHashMap<String, Message>();
+
+    private int hiddenErrors;
+
+    private int hiddenInfos;
+
+    private final Thread consumer;
+
+    private volatile boolean closed;
+
+    /**
+     * @param step advances the progress bar by one record, null if there is no progress bar
+     * @param intervalMillis minimum time between two updates of the progress bar
+     */
+    private ProgressReporter(Runnable step, long intervalMillis, boolean consume) {
+        this.step = step;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, intervalMillis));
+        if (!consume) {
+            consumer = null;
+            return;
+        }
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    LockSupport.parkNanos(intervalNanos);
+                    flushProgress();
+                    collectMessages();
+                }
+            }
+        }, "progress-reporter");
+        consumer.setDaemon(true);
+    }
+
+    /**
+     * Creates a reporter and starts its consumer thread.
+     */
+    static ProgressReporter start(Runnable step, long intervalMillis) {
+        ProgressReporter reporter = new ProgressReporter(step, intervalMillis, true);
+        reporter.consumer.start();
+        return reporter;
+    }
+
+    /**
+     * Returns a reporter without consumer thread, used outside of a batch. The messages are collected when they are published.
+     */
+    static ProgressReporter create() {
+        return new ProgressReporter(null, 1, false);
+    }
+
+    /**
+     * Counts a finished record, the progress bar is advanced by the consumer thread.
+     */
+    void recordFinished() {
+        if (step != null) {
+            pending.incrementAndGet();
+        }
+    }
+
+    void info(String text) {
+        messages.add(new Message(false, text));
+    }
+
+    void error(String text) {
+        messages.add(new Message(true, text));
+    }
+
+    /**
+     * Stops the consumer thread and advances the progress bar by the records that are not shown yet.
+     */
+    void close() {
+        closed = true;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushProgress();
+    }
+
+    /**
+     * Shows the collected messages. Must be called on the thread of the request.
+     */
+    void publish() {
+        for (Message message : drain()) {
+            if (message.error) {
+                Helper.setFehlerMeldung(message.toString());
+            } else {
+                Helper.setMeldung(message.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the collected messages, errors first, and removes them. Must not be called while the consumer thread is running.
+     */
+    List<Message> drain() {
+        collectMessages();
+        List<Message> summary = new ArrayList<Message>(errors.values());
+        if (hiddenErrors > 0) {
+            summary.add(new Message(true, "... and " + hiddenErrors + " more errors"));
+        }
+        summary.addAll(infos.values());
+        if (hiddenInfos > 0) {
+            summary.add(new Message(false, "... and " + hiddenInfos + " more messages"));
+        }
+        errors.clear();
+        infos.clear();
+        hiddenErrors = 0;
+        hiddenInfos = 0;
+        return summary;
+    }
+
+    private void collectMessages() {
+        Message message;
+        while ((message = messages.poll()) != null) {
+            Map<String, Message> map = message.error ? errors : infos;
+            Message existing = map.get(message.text);
+            if (existing != null) {
+                existing.count++;
+            } else if (map.size() < MAX_MESSAGES) {
+                map.put(message.text, message);
+            } else if (message.error) {
+                hiddenErrors++;
+            } else {
+                hiddenInfos++;
+            }
+        }
+    }
+
+    private void flushProgress() {
+        if (step == null) {
+            return;
+        }
+        int count = pending.getAndSet(0);
+        try {
+            for (int i = 0; i < count; i++) {
+                step.run();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("cannot update the progress bar", e);
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Protects the catalogue from too many requests and the import from a catalogue that is not available.
+ * <ul>
+ * <li>Requests are limited by a token bucket to the configured rate.</li>
+ * <li>Failed requests are repeated with exponentially growing delays.</li>
+ * <li>After the configured number of consecutive failures, the circuit opens: all requests wait until the pause is over, then a single
+ * request probes the catalogue. If it succeeds, the requests continue, otherwise the next pause starts. If the catalogue is not available
+ * for longer than the maximal pause, the other requests fail immediately instead of waiting, but a probe is still sent after every pause,
+ * so the requests continue when the catalogue is back.</li>
+ * </ul>
+ */
+class RequestGuard {
+
+    private static final Logger logger = Logger.getLogger(RequestGuard.class);
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Object lock = new Object();
+
+    private final Random random = new Random();
+
+    // token bucket
+    private final double rate;
+
+    private final double burst;
+
+    private double tokens;
+
+    private long lastRefill = System.nanoTime();
+
+    // retries
+    private final int retries;
+
+    private final long backoff;
+
+    private final long maxBackoff;
+
+    // circuit breaker
+    private final int failureThreshold;
+
+    private final long pause;
+
+    private final long maxPause;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openUntil;
+
+    private long unavailableSince;
+
+    /**
+     * @param rate maximal requests per second, 0 for no limit
+     * @param burst number of requests that can be sent at once after an idle time
+     * @param retries number of retries of a failed request
+     * @param backoff delay in ms before the first retry, doubled for each further retry
+     * @param maxBackoff maximal delay in ms between two retries
+     * @param failureThreshold consecutive failures that open the circuit
+     * @param pause time in ms the circuit stays open
+     * @param maxPause time in ms after that the requests fail immediately, if the catalogue is still not available
+     */
+    RequestGuard(double rate, int burst, int retries, long backoff, long maxBackoff, int failureThreshold, long pause, long maxPause) {
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.retries = Math.max(0, retries);
+        this.backoff = Math.max(0, backoff);
+        this.maxBackoff = Math.max(this.backoff, maxBackoff);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.pause = Math.max(0, pause);
+        this.maxPause = maxPause;
+    }
+
+    /**
+     * Executes the request, waits for the rate limit and repeats failed requests.
+     *
+     * @throws Exception the exception of the last attempt or an {@link IllegalStateException}, if the circuit is open for longer than
+     *             the maximal pause
+     */
+    <T> T execute(Callable<T> request) throws Exception {
+        for (int attempt = 0;; attempt++) {
+            boolean probe = awaitCircuit();
+            T result;
+            try {
+                acquireToken();
+                result = request.call();
+            } catch (InterruptedException e) {
+                if (probe) {
+                    releaseProbe();
+                }
+                throw e;
+            } catch (Exception e) {
+                onFailure(probe);
+                if (attempt >= retries) {
+                    throw e;
+                }
+                long delay = Math.min(maxBackoff, backoff << Math.min(attempt, 30));
+                // random jitter, so that parallel requests are not repeated at the same time
+                delay += delay > 0 ? random.nextInt((int) Math.min(Integer.MAX_VALUE, delay / 4 + 1)) : 0;
+                logger.warn("catalogue request failed (" + e.getMessage() + "), retry in " + delay + " ms");
+                Thread.sleep(delay);
+                continue;
+            }
+            onSuccess();
+            return result;
+        }
+    }
+
+    /**
+     * Waits while the circuit is open.
+     *
+     * @return true if this request is the probe of a half open circuit
+     */
+    private boolean awaitCircuit() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (state == State.CLOSED) {
+                    return false;
+                }
+                if (state == State.OPEN && now >= openUntil) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                if (maxPause > 0 && now - unavailableSince > maxPause) {
+                    throw new IllegalStateException("catalogue is not available since " + (now - unavailableSince) / 1000 + " s");
+                }
+                // wait until the pause is over or the probe has finished
+                lock.wait(state == State.OPEN ? Math.max(1, openUntil - now) : 1000);
+            }
+        }
+    }
+
+    private void onSuccess() {
+        synchronized (lock) {
+            if (state != State.CLOSED) {
+                logger.info("catalogue is available again");
+                lock.notifyAll();
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+    }
+
+    private void onFailure(boolean probe) {
+        synchronized (lock) {
+            consecutiveFailures++;
+            if (probe || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+                if (state == State.CLOSED) {
+                    unavailableSince = System.currentTimeMillis();
+                }
+                state = State.OPEN;
+                openUntil = System.currentTimeMillis() + pause;
+                logger.warn("catalogue is not available, pause requests for " + pause + " ms");
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Lets another request probe the catalogue, if the probe was interrupted.
+     */
+    private void releaseProbe() {
+        synchronized (lock) {
+            if (state == State.HALF_OPEN) {
+                state = State.OPEN;
+                openUntil = System.currentTimeMillis();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void acquireToken() throws InterruptedException {
+        if (rate <= 0) {
+            return;
+        }
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1000000000d);
+                lastRefill = now;
+                if (tokens >= 1) {
+                    tokens--;
+                    return;
+                }
+                wait = (long) Math.ceil((1 - tokens) * 1000 / rate);
+            }
+            Thread.sleep(Math.max(1, wait));
+        }
+    }
+
+    boolean isOpen() {
+        synchronized (lock) {
+            return state != State.CLOSED;
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sorted index of the tif files in a source folder. The folder is read once, afterwards the index is updated with the events of a
+ * {@link WatchService}. Changes made by other hosts on a network file system are not reported by the watch service, so the folder is read
+ * again if the last full scan is older than {@link #MAX_AGE}.
+ */
+class SourceFolderIndex {
+
+    private static final Logger logger = Logger.getLogger(SourceFolderIndex.class);
+
+    private static final String PATTERN = "*.tif";
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(10);
+
+    private static final Map<Path, SourceFolderIndex> INSTANCES = new HashMap<Path, SourceFolderIndex>();
+
+    private final Path folder;
+
+    private final PathMatcher matcher;
+
+    private final NavigableSet<String> filenames = new ConcurrentSkipListSet<String>();
+
+    private volatile long lastScan;
+
+    private volatile boolean watching;
+
+    private SourceFolderIndex(Path folder) {
+        this.folder = folder;
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + PATTERN);
+    }
+
+    /**
+     * Returns the shared index of the folder.
+     */
+    static synchronized SourceFolderIndex getInstance(String folder) {
+        Path path = Paths.get(folder).toAbsolutePath().normalize();
+        SourceFolderIndex index = INSTANCES.get(path);
+        if (index == null) {
+            index = new SourceFolderIndex(path);
+            INSTANCES.put(path, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns all file names in alphabetical order.
+     */
+    List<String> getFilenames() {
+        refresh();
+        return new ArrayList<String>(filenames);
+    }
+
+    /**
+     * Returns a page of the file names that start with the prefix, in alphabetical order.
+     *
+     * @param prefix prefix of the file names, null or empty for all files
+     * @param offset number of matching file names to skip
+     * @param limit maximal number of file names to return
+     */
+    List<String> getFilenames(String prefix, int offset, int limit) {
+        refresh();
+        List<String> page = new ArrayList<String>(Math.max(0, Math.min(limit, 1000)));
+        Iterator<String> iterator = select(prefix).iterator();
+        for (int i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        while (page.size() < limit && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    /**
+     * Returns the number of file names that start with the prefix.
+     */
+    int count(String prefix) {
+        refresh();
+        return select(prefix).size();
+    }
+
+    boolean contains(String filename) {
+        refresh();
+        return filenames.contains(filename);
+    }
+
+    private NavigableSet<String> select(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return filenames;
+        }
+        return filenames.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void refresh() {
+        if (System.currentTimeMillis() - lastScan > MAX_AGE) {
+            synchronized (this) {
+                if (System.currentTimeMillis() - lastScan > MAX_AGE) {
+                    if (!watching) {
+                        startWatching();
+                    }
+                    scan();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the folder and replaces the index. If the folder cannot be read, e.g. because a network share is not available for a moment,
+     * the index is left as it is and the folder is read again at the next access.
+     */
+    synchronized void scan() {
+        long start = System.currentTimeMillis();
+        Set<String> found = new HashSet<String>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, PATTERN)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    found.add(file.getFileName().toString());
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            logger.error("cannot read source folder " + folder, e);
+            return;
+        }
+        filenames.retainAll(found);
+        filenames.addAll(found);
+        lastScan = start;
+        if (logger.isDebugEnabled()) {
+            logger.debug("found " + found.size() + " files in " + folder + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private void startWatching() {
+        final WatchService watchService;
+        try {
+            watchService = folder.getFileSystem().newWatchService();
+            folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("cannot watch source folder " + folder + ", it is read again every " + TimeUnit.MILLISECONDS.toMinutes(MAX_AGE)
+                    + " minutes", e);
+            return;
+        }
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(watchService);
+            }
+        }, "source folder index " + folder);
+        watcher.setDaemon(true);
+        watcher.start();
+        watching = true;
+    }
+
+    private void watch(WatchService watchService) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, read the whole folder again
+                        lastScan = 0;
+                        continue;
+                    }
+                    Path name = (Path) event.context();
+                    if (!matcher.matches(name)) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        filenames.remove(name.toString());
+                    } else if (Files.isRegularFile(folder.resolve(name))) {
+                        filenames.add(name.toString());
+                    }
+                }
+                if (!key.reset()) {
+                    logger.warn("source folder " + folder + " is not accessible anymore");
+                    break;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stop watching
+        } finally {
+            watching = false;
+            lastScan = 0;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+
+/**
+ * The configured source folders, e.g. the folders of the scanner stations, a share on a NAS and a staging folder on a local disk. The
+ * images are given relative to a source folder. If several folders contain an image with the same path, the image of the first folder is
+ * used, so the order of the folders in the configuration decides.
+ */
+class SourceRoots {
+
+    private final List<String> folders;
+
+    /**
+     * @param folders the source folders, at least one
+     */
+    SourceRoots(String... folders) {
+        this(Arrays.asList(folders));
+    }
+
+    SourceRoots(List<String> folders) {
+        if (folders.isEmpty()) {
+            throw new IllegalArgumentException("no source folder");
+        }
+        List<String> list = new ArrayList<String>(folders.size());
+        for (String folder : folders) {
+            String normalized = folder.endsWith("/") ? folder : folder + "/";
+            if (!list.contains(normalized)) {
+                list.add(normalized);
+            }
+        }
+        this.folders = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Creates the source folders of the repeated {@code sourceFolder} element.
+     */
+    static SourceRoots create(HierarchicalConfiguration config, String defaultFolder) {
+        List<String> folders = new ArrayList<String>();
+        for (String folder : config.getStringArray("sourceFolder")) {
+            if (!folder.trim().isEmpty()) {
+                folders.add(folder.trim());
+            }
+        }
+        if (folders.isEmpty()) {
+            folders.add(defaultFolder);
+        }
+        return new SourceRoots(folders);
+    }
+
+    /**
+     * Returns the source folders in the configured order, always with a trailing separator.
+     */
+    List<String> getFolders() {
+        return folders;
+    }
+
+    /**
+     * Returns the first folder that contains the image, or the first folder if none does.
+     */
+    String getFolder(String image) {
+        if (folders.size() > 1) {
+            for (String folder : folders) {
+                if (new File(folder + image).exists()) {
+                    return folder;
+                }
+            }
+        }
+        return folders.get(0);
+    }
+
+    /**
+     * Returns the file of the image in the first folder that contains it.
+     */
+    File resolve(String image) {
+        return new File(getFolder(image) + image);
+    }
+
+    /**
+     * Returns the tif files of all folders in alphabetical order, files with the same name are returned once.
+     */
+    List<String> getFilenames() {
+        if (folders.size() == 1) {
+            return SourceFolderIndex.getInstance(folders.get(0)).getFilenames();
+        }
+        SortedSet<String> filenames = new TreeSet<String>();
+        for (String folder : folders) {
+            filenames.addAll(SourceFolderIndex.getInstance(folder).getFilenames());
+        }
+        return new ArrayList<String>(filenames);
+    }
+
+    /**
+     * Returns a page of the tif files of all folders that start with the prefix, in alphabetical order.
+     *
+     * @see SourceFolderIndex#getFilenames(String, int, int)
+     */
+    List<String> getFilenames(String prefix, int offset, int limit) {
+        if (folders.size() == 1) {
+            return SourceFolderIndex.getInstance(folders.get(0)).getFilenames(prefix, offset, limit);
+        }
+        // the page is within the first offset + limit names of every folder
+        int end = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        SortedSet<String> filenames = new TreeSet<String>();
+        for (String folder : folders) {
+            filenames.addAll(SourceFolderIndex.getInstance(folder).getFilenames(prefix, 0, end));
+        }
+        List<String> all = new ArrayList<String>(filenames);
+        return new ArrayList<String>(all.subList(Math.min(offset, all.size()), Math.min(end, all.size())));
+    }
+
+    /**
+     * Returns the paths of the matching files of all folders relative to their folder, in alphabetical order. Paths that exist in several
+     * folders are returned once.
+     */
+    List<String> scan(SourceTreeScanner scanner) {
+        if (folders.size() == 1) {
+            return scanner.scan(Paths.get(folders.get(0)));
+        }
+        SortedSet<String> paths = new TreeSet<String>();
+        for (String folder : folders) {
+            paths.addAll(scanner.scan(Paths.get(folder)));
+        }
+        return new ArrayList<String>(paths);
+    }
+
+    @Override
+    public String toString() {
+        return folders.toString();
+    }
+
+}
@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads a folder tree in parallel. Every folder is read by its own fork-join task, so large trees on network file systems, where each
+ * directory listing has a high latency, are read much faster than with a single thread.
+ */
+class SourceTreeScanner {
+
+    private static final Logger logger = Logger.getLogger(SourceTreeScanner.class);
+
+    private final PathMatcher matcher;
+
+    private final int maxDepth;
+
+    private final int parallelism;
+
+    /**
+     * @param glob pattern for the file names, e.g. {@code *.tif}
+     * @param maxDepth number of sub folder levels that are read, 0 reads only the root folder
+     * @param parallelism number of threads
+     */
+    SourceTreeScanner(String glob, int maxDepth, int parallelism) {
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        this.maxDepth = Math.max(0, maxDepth);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the paths of all matching files relative to the root, with / as separator, in alphabetical order.
+     */
+    List<String> scan(Path root) {
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<String> files = pool.invoke(new FolderTask(root, "", 0));
+            Collections.sort(files);
+            if (logger.isDebugEnabled()) {
+                logger.debug("found " + files.size() + " files in " + root + " in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            return files;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private class FolderTask extends RecursiveTask<List<String>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path folder;
+
+        private final String prefix;
+
+        private final int depth;
+
+        FolderTask(Path folder, String prefix, int depth) {
+            this.folder = folder;
+            this.prefix = prefix;
+            this.depth = depth;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<String>();
+            List<FolderTask> subfolders = new ArrayList<FolderTask>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    String name = path.getFileName().toString();
+                    if (attributes.isDirectory()) {
+                        if (depth < maxDepth && !name.startsWith(".")) {
+                            FolderTask task = new FolderTask(path, prefix + name + "/", depth + 1);
+                            task.fork();
+                            subfolders.add(task);
+                        }
+                    } else if (attributes.isRegularFile() && matcher.matches(path.getFileName())) {
+                        files.add(prefix + name);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("cannot read source folder " + folder, e);
+            }
+            for (FolderTask task : subfolders) {
+                files.addAll(task.join());
+            }
+            return files;
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed number of locks for an unbounded number of keys. Equal keys always get the same lock, different keys may share a lock, which
+ * only costs some parallelism.
+ */
+class StripedLocks {
+
+    private final Lock[] locks;
+
+    /**
+     * @param stripes number of locks, rounded up to a power of two
+     */
+    StripedLocks(int stripes) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        locks = new Lock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    Lock get(Object key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return locks[hash & (locks.length - 1)];
+    }
+
+    int size() {
+        return locks.length;
+    }
+
+}
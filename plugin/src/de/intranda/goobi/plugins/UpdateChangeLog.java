@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Change log of an update batch in the import folder, one json object per line for every map whose metadata was changed. Lines are
+ * written when the map is finished, so the log of an interrupted batch contains the maps updated so far.
+ */
+class UpdateChangeLog implements Closeable {
+
+    private final File file;
+
+    private final Writer writer;
+
+    private int records;
+
+    private int changes;
+
+    /**
+     * Creates the log {@code <name>-changes-<timestamp>.jsonl} in the folder.
+     */
+    UpdateChangeLog(File folder, String name) throws IOException {
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        this.file = new File(folder, name + "-changes-" + timestamp + ".jsonl");
+        this.writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Writes the changes of a map, empty diffs are skipped.
+     */
+    synchronized void write(String identifier, Integer processId, MetadataMerge.Diff diff) throws IOException {
+        if (diff.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"identifier\": ").append(ImportMetrics.quote(identifier));
+        sb.append(", \"process\": ").append(processId);
+        sb.append(", \"time\": ").append(ImportMetrics.quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date())));
+        sb.append(", \"changes\": [");
+        List<MetadataMerge.Change> list = diff.getChanges();
+        for (int i = 0; i < list.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(list.get(i).toJson());
+        }
+        sb.append("]}\n");
+        writer.write(sb.toString());
+        // a line per map, so the log is complete up to the last finished map
+        writer.flush();
+        records++;
+        changes += list.size();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized int getRecords() {
+        return records;
+    }
+
+    synchronized int getChanges() {
+        return changes;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+}
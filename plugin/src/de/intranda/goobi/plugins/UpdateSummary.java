@@ -0,0 +1,63 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.production.importer.ImportObject;
+
+/**
+ * Results of an update batch. The failed maps are kept as import objects with an error message, so the mass import shows them like
+ * failed imports. Updated and unchanged maps are only counted, returning them would create new processes. The results are added by the
+ * thread that runs the batch.
+ */
+class UpdateSummary {
+
+    /**
+     * Result of a single map.
+     */
+    enum Result {
+        UPDATED,
+        UNCHANGED,
+        FAILED
+    }
+
+    private final Map<Result, Integer> counts = new EnumMap<Result, Integer>(Result.class);
+
+    private final List<ImportObject> failures = new ArrayList<ImportObject>();
+
+    UpdateSummary() {
+        for (Result result : Result.values()) {
+            counts.put(result, 0);
+        }
+    }
+
+    /**
+     * Adds the result of a map, the import object of a failed map contains the error.
+     */
+    void add(Result result, ImportObject io) {
+        counts.put(result, counts.get(result) + 1);
+        if (result == Result.FAILED) {
+            failures.add(io);
+        }
+    }
+
+    int getCount(Result result) {
+        return counts.get(result);
+    }
+
+    /**
+     * Returns the failed maps in the order of the batch.
+     */
+    List<ImportObject> getFailures() {
+        return new ArrayList<ImportObject>(failures);
+    }
+
+    @Override
+    public String toString() {
+        return counts.get(Result.UPDATED) + " maps updated, " + counts.get(Result.UNCHANGED) + " unchanged, " + counts.get(Result.FAILED)
+                + " failed";
+    }
+
+}
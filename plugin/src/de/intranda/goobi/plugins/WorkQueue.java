@@ -0,0 +1,465 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+
+/**
+ * Queue of the chunks of a batch in a folder shared by several application nodes. Every node can claim a chunk with a lease that expires
+ * if it is not renewed in time, so the chunks of a node that died are claimed again by another node.
+ * <p>
+ * The batch folder contains a {@code batch} file with the number of chunks, the lease time and the import folder of the node that
+ * published the batch, one file per chunk in {@code chunks}, the leases in {@code leases} and the results in {@code results}. The batch
+ * is written into a hidden folder first and renamed when it is complete. A lease is created with an exclusive create and taken over by
+ * an atomic rename, a result is created with an exclusive hard link, so every chunk has exactly one result even if a chunk was imported
+ * twice. The lease times are compared with the clock of the nodes, the clocks must be synchronized.
+ */
+class WorkQueue {
+
+    private static final Logger logger = Logger.getLogger(WorkQueue.class);
+
+    static final String PREFIX = "batch-";
+
+    private static final String BATCH = "batch";
+
+    private static final String CHUNKS = "chunks";
+
+    private static final String LEASES = "leases";
+
+    private static final String RESULTS = "results";
+
+    /**
+     * A claimed chunk. The lease must be renewed before it expires, otherwise another worker may claim the chunk.
+     */
+    class Lease {
+
+        private final int chunk;
+
+        private final String worker;
+
+        Lease(int chunk, String worker) {
+            this.chunk = chunk;
+            this.worker = worker;
+        }
+
+        int getChunk() {
+            return chunk;
+        }
+
+        List<Record> getRecords() throws IOException {
+            return readRecords(getChunkFile(chunk));
+        }
+
+        /**
+         * Extends the lease. The lease file is replaced by an atomic rename and never removed, so other workers always see the lease while
+         * it is renewed. A lease expires only if the worker missed all renewals of a lease time, the heartbeat renews it every third.
+         *
+         * @return false if the lease was lost, e.g. because it expired and another worker claimed the chunk
+         */
+        boolean renew() throws IOException {
+            if (!isOwned()) {
+                return false;
+            }
+            Path lease = getLeaseFile(chunk);
+            Path temp = lease.resolveSibling("." + lease.getFileName() + "." + worker);
+            Files.write(temp, createLease(worker).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, lease, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+
+        /**
+         * Writes the results of the chunk and removes the lease.
+         *
+         * @return false if the lease was lost or the chunk has a result already, the results are discarded then
+         */
+        boolean complete(List<ImportObject> results) throws IOException {
+            if (!isOwned()) {
+                return false;
+            }
+            Path result = getResultFile(chunk);
+            Path temp = result.resolveSibling("." + result.getFileName() + "." + worker);
+            writeResults(temp, results);
+            try {
+                // fails if another worker has written the result already
+                Files.createLink(result, temp);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            } finally {
+                Files.deleteIfExists(temp);
+                release();
+            }
+        }
+
+        /**
+         * Removes the lease, so that another worker can claim the chunk.
+         */
+        void release() throws IOException {
+            if (isOwned()) {
+                Files.deleteIfExists(getLeaseFile(chunk));
+            }
+        }
+
+        private boolean isOwned() throws IOException {
+            String[] lease = readLease(getLeaseFile(chunk));
+            return lease != null && worker.equals(lease[0]);
+        }
+    }
+
+    private final File folder;
+
+    private final int chunks;
+
+    private final long leaseMillis;
+
+    private final String importFolder;
+
+    private WorkQueue(File folder, int chunks, long leaseMillis, String importFolder) {
+        this.folder = folder;
+        this.chunks = chunks;
+        this.leaseMillis = leaseMillis;
+        this.importFolder = importFolder;
+    }
+
+    /**
+     * Writes the records as a new batch into the folder.
+     *
+     * @param importFolder import folder into which all nodes write the imported records
+     * @param chunkSize number of records per chunk
+     * @param leaseMillis time until a lease expires if it is not renewed
+     */
+    static WorkQueue publish(File root, List<Record> records, String importFolder, int chunkSize, long leaseMillis) throws IOException {
+        String name = PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + UUID.randomUUID();
+        File temp = new File(root, "." + name);
+        for (String subfolder : Arrays.asList(CHUNKS, LEASES, RESULTS)) {
+            Files.createDirectories(new File(temp, subfolder).toPath());
+        }
+        int size = Math.max(1, chunkSize);
+        int chunks = (records.size() + size - 1) / size;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            List<Record> chunkRecords = records.subList(chunk * size, Math.min(records.size(), (chunk + 1) * size));
+            writeRecords(new File(new File(temp, CHUNKS), getChunkName(chunk)).toPath(), chunkRecords);
+        }
+        String batch = "chunks\t" + chunks + "\nleaseMillis\t" + leaseMillis + "\nrecords\t" + records.size() + "\nimportFolder\t"
+                + escape(importFolder) + "\n";
+        Files.write(new File(temp, BATCH).toPath(), batch.getBytes(StandardCharsets.UTF_8));
+        File folder = new File(root, name);
+        Files.move(temp.toPath(), folder.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        logger.info("published " + records.size() + " records in " + chunks + " chunks to " + folder);
+        return new WorkQueue(folder, chunks, leaseMillis, importFolder);
+    }
+
+    /**
+     * Opens a published batch.
+     */
+    static WorkQueue open(File folder) throws IOException {
+        int chunks = -1;
+        long leaseMillis = -1;
+        String importFolder = null;
+        for (String line : Files.readAllLines(new File(folder, BATCH).toPath(), StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts.length == 2 && "chunks".equals(parts[0])) {
+                chunks = Integer.parseInt(parts[1]);
+            } else if (parts.length == 2 && "leaseMillis".equals(parts[0])) {
+                leaseMillis = Long.parseLong(parts[1]);
+            } else if (parts.length == 2 && "importFolder".equals(parts[0])) {
+                importFolder = unescape(parts[1]);
+            }
+        }
+        if (chunks < 0 || leaseMillis < 0) {
+            throw new IOException("invalid batch file in " + folder);
+        }
+        return new WorkQueue(folder, chunks, leaseMillis, importFolder);
+    }
+
+    /**
+     * Returns the batches in the folder that are not finished yet.
+     */
+    static List<WorkQueue> findOpen(File root) {
+        File[] folders = root.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().startsWith(PREFIX);
+            }
+        });
+        List<WorkQueue> queues = new ArrayList<WorkQueue>();
+        if (folders == null) {
+            return queues;
+        }
+        Arrays.sort(folders);
+        for (File batch : folders) {
+            try {
+                WorkQueue queue = open(batch);
+                if (!queue.isFinished()) {
+                    queues.add(queue);
+                }
+            } catch (IOException e) {
+                // removed by the node that published it
+                if (logger.isDebugEnabled()) {
+                    logger.debug("cannot open batch " + batch + ": " + e.getMessage());
+                }
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Claims the first chunk without result that has no lease or whose lease expired.
+     *
+     * @return the lease or null, if all chunks are finished or claimed by other workers
+     */
+    Lease claim(String worker) throws IOException {
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (Files.exists(getResultFile(chunk))) {
+                continue;
+            }
+            Path lease = getLeaseFile(chunk);
+            String[] existing = readLease(lease);
+            if (existing != null) {
+                if (Long.parseLong(existing[1]) > System.currentTimeMillis() || !takeOver(lease, existing, worker)) {
+                    continue;
+                }
+                logger.warn("lease of chunk " + chunk + " held by " + existing[0] + " expired, claimed again by " + worker);
+            } else {
+                try {
+                    Files.write(lease, createLease(worker).getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.WRITE);
+                } catch (FileAlreadyExistsException e) {
+                    continue;
+                }
+            }
+            // the chunk may have been finished since the result was checked
+            if (Files.exists(getResultFile(chunk))) {
+                Files.deleteIfExists(lease);
+                continue;
+            }
+            return new Lease(chunk, worker);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces an expired lease by a lease of the worker. Only one worker can take over an expired lease: the workers race for an exclusive
+     * marker named after the holder and the expiry time of the lease. The lease file is replaced by an atomic rename and never removed,
+     * so no worker can claim the chunk with a new lease in the meantime.
+     */
+    private boolean takeOver(Path lease, String[] expired, String worker) throws IOException {
+        Path marker = lease.resolveSibling("." + lease.getFileName() + "." + expired[0] + "." + expired[1] + ".expired");
+        try {
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException e) {
+            // taken over by another worker
+            return false;
+        }
+        Path temp = lease.resolveSibling("." + lease.getFileName() + "." + worker);
+        Files.write(temp, createLease(worker).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, lease, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    int getChunkCount() {
+        return chunks;
+    }
+
+    long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Returns the import folder of the node that published the batch, or null if it had none.
+     */
+    String getImportFolder() {
+        return importFolder;
+    }
+
+    int getFinishedChunks() {
+        int finished = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            if (Files.exists(getResultFile(chunk))) {
+                finished++;
+            }
+        }
+        return finished;
+    }
+
+    boolean isFinished() {
+        return getFinishedChunks() == chunks;
+    }
+
+    /**
+     * Returns the results of all chunks in the order of the records. The records of chunks without result are returned as failed.
+     */
+    List<ImportObject> getResults() throws IOException {
+        List<ImportObject> results = new ArrayList<ImportObject>();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            Path result = getResultFile(chunk);
+            if (Files.exists(result)) {
+                results.addAll(readResults(result));
+            } else {
+                for (Record record : readRecords(getChunkFile(chunk))) {
+                    ImportObject io = new ImportObject();
+                    io.setProcessTitle(record.getId());
+                    io.setErrorMessage(record.getId() + ": import was not finished.");
+                    io.setImportReturnValue(ImportReturnValue.InvalidData);
+                    results.add(io);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Removes the batch folder.
+     */
+    void delete() throws IOException {
+        for (String subfolder : Arrays.asList(CHUNKS, LEASES, RESULTS)) {
+            File[] files = new File(folder, subfolder).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(new File(folder, subfolder).toPath());
+        }
+        Files.deleteIfExists(new File(folder, BATCH).toPath());
+        Files.deleteIfExists(folder.toPath());
+    }
+
+    private Path getChunkFile(int chunk) {
+        return new File(new File(folder, CHUNKS), getChunkName(chunk)).toPath();
+    }
+
+    private Path getLeaseFile(int chunk) {
+        return new File(new File(folder, LEASES), getChunkName(chunk)).toPath();
+    }
+
+    private Path getResultFile(int chunk) {
+        return new File(new File(folder, RESULTS), getChunkName(chunk)).toPath();
+    }
+
+    private static String getChunkName(int chunk) {
+        return String.format("chunk-%06d", chunk);
+    }
+
+    private String createLease(String worker) {
+        return worker + "\t" + (System.currentTimeMillis() + leaseMillis) + "\n";
+    }
+
+    /**
+     * Returns worker and expiry time of the lease, or null if the chunk has no lease.
+     */
+    private static String[] readLease(Path lease) throws IOException {
+        try {
+            String[] parts = new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).trim().split("\t");
+            return parts.length == 2 ? parts : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void writeRecords(Path file, List<Record> records) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Record record : records) {
+                writer.write(escape(record.getId()) + "\t" + escape(record.getData()) + "\n");
+            }
+        }
+    }
+
+    private static List<Record> readRecords(Path file) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                Record record = new Record();
+                record.setId(unescape(parts[0]));
+                record.setData(parts.length > 1 ? unescape(parts[1]) : null);
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static void writeResults(Path file, List<ImportObject> results) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (ImportObject io : results) {
+                String value = io.getImportReturnValue() == null ? null : io.getImportReturnValue().name();
+                writer.write(escape(io.getProcessTitle()) + "\t" + escape(value) + "\t" + escape(io.getMetsFilename()) + "\t"
+                        + escape(io.getErrorMessage()) + "\n");
+            }
+        }
+    }
+
+    private static List<ImportObject> readResults(Path file) throws IOException {
+        List<ImportObject> results = new ArrayList<ImportObject>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 4) {
+                    throw new IOException("invalid result in " + file + ": " + line);
+                }
+                ImportObject io = new ImportObject();
+                io.setProcessTitle(unescape(parts[0]));
+                String value = unescape(parts[1]);
+                io.setImportReturnValue(value == null ? null : ImportReturnValue.valueOf(value));
+                io.setMetsFilename(unescape(parts[2]));
+                io.setErrorMessage(unescape(parts[3]));
+                results.add(io);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Escapes tabs, line breaks and backslashes, null is written as a single backslash.
+     */
+    static String escape(String value) {
+        if (value == null) {
+            return "\\";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String value) {
+        if ("\\".equals(value)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+}
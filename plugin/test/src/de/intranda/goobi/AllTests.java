@@ -4,8 +4,38 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import de.intranda.goobi.plugins.AdaptiveLimiterTest;
+import de.intranda.goobi.plugins.ContentIndexTest;
+import de.intranda.goobi.plugins.DerivativeGeneratorTest;
+import de.intranda.goobi.plugins.DeviceQueuesTest;
+import de.intranda.goobi.plugins.ImageTransferTest;
+import de.intranda.goobi.plugins.ImportJournalTest;
+import de.intranda.goobi.plugins.ImportMetricsTest;
+import de.intranda.goobi.plugins.ImportPipelineTest;
+import de.intranda.goobi.plugins.MapImageGroupsTest;
+import de.intranda.goobi.plugins.MapImportPluginTest;
+import de.intranda.goobi.plugins.MapRecordEnricherTest;
+import de.intranda.goobi.plugins.MapUpdatePluginTest;
+import de.intranda.goobi.plugins.MarcDumpIndexTest;
+import de.intranda.goobi.plugins.MetadataFingerprintTest;
+import de.intranda.goobi.plugins.MetadataMergeTest;
+import de.intranda.goobi.plugins.OpacCacheTest;
+import de.intranda.goobi.plugins.PreflightCheckTest;
+import de.intranda.goobi.plugins.ProcessLookupTest;
+import de.intranda.goobi.plugins.ProgressReporterTest;
+import de.intranda.goobi.plugins.RequestGuardTest;
+import de.intranda.goobi.plugins.SourceFolderIndexTest;
+import de.intranda.goobi.plugins.SourceRootsTest;
+import de.intranda.goobi.plugins.WorkQueueTest;
+
 @RunWith(Suite.class)
-@SuiteClasses({ PluginInfoTest.class })
+@SuiteClasses({ PluginInfoTest.class, MapImportPluginTest.class, ImportPipelineTest.class, OpacCacheTest.class, ImageTransferTest.class,
+        ProcessLookupTest.class, MetadataFingerprintTest.class, SourceFolderIndexTest.class, ImportJournalTest.class,
+        RequestGuardTest.class, MapRecordEnricherTest.class,
+        ImportMetricsTest.class, MapImageGroupsTest.class, MarcDumpIndexTest.class,
+        MapUpdatePluginTest.class, PreflightCheckTest.class, DerivativeGeneratorTest.class,
+        ContentIndexTest.class, ProgressReporterTest.class, WorkQueueTest.class, AdaptiveLimiterTest.class,
+        SourceRootsTest.class, DeviceQueuesTest.class, MetadataMergeTest.class })
 public class AllTests {
 
 }
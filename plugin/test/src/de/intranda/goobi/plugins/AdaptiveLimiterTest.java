@@ -0,0 +1,149 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testIncreaseWhileLatencyIsFlat() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 1, 8, 0.5, 3, 60000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 20; j++) {
+                            limiter.execute(new Callable<Void>() {
+                                @Override
+                                public Void call() throws InterruptedException {
+                                    Thread.sleep(5);
+                                    return null;
+                                }
+                            });
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(limiter.toString(), limiter.getLimit() >= 4);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testDecreaseWhenLatencyRises() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 8, 1, 8, 0.5, 3, 60000);
+        for (int i = 0; i < 10; i++) {
+            run(limiter, 2);
+        }
+        assertEquals(8, limiter.getLimit());
+        for (int i = 0; i < 3; i++) {
+            run(limiter, 40);
+        }
+        assertTrue(limiter.toString(), limiter.getLimit() < 8);
+        assertTrue(limiter.getDecreases() > 0);
+        assertTrue(limiter.getBaseline() < 10);
+    }
+
+    @Test
+    public void testFailuresOfABurstDecreaseOnce() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 8, 1, 8, 0.7, 2, 60000);
+        long[] starts = new long[4];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        for (long start : starts) {
+            limiter.release(start, 1, true);
+        }
+        assertEquals(1, limiter.getDecreases());
+        assertEquals(5, limiter.getLimit());
+
+        // a request that started after the decrease decreases again
+        limiter.release(limiter.acquire(), 1, true);
+        assertEquals(2, limiter.getDecreases());
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testAcquireWaitsForLimit() throws Exception {
+        final AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 1, 2, 0.7, 2, 60000);
+        long first = limiter.acquire();
+        limiter.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiting.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release(first, 1, false);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiting.join();
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testOpacClientAndMetrics() throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        assertNull(AdaptiveLimiter.create(config, "opac", 4, 32));
+        config.setProperty("adaptiveConcurrency[@enabled]", true);
+        config.setProperty("adaptiveConcurrency.opac.max", 6);
+        config.setProperty("opacRequests.retries", 2);
+        config.setProperty("opacRequests.backoff", 1);
+        StubOpacPlugin opac = new StubOpacPlugin(0);
+        OpacClient client = new OpacClient(config, null, new OpacConfigResolver(null, opac));
+        AdaptiveLimiter limiter = client.getLimiter();
+        assertEquals(4, limiter.getLimit());
+
+        opac.setFailures(1);
+        assertNull(client.search("12", "map1"));
+        assertEquals(1, limiter.getDecreases());
+        assertEquals(0, limiter.getInFlight());
+
+        ImportMetrics metrics = new ImportMetrics("test");
+        metrics.addLimiter(limiter);
+        metrics.addLimiter(null);
+        assertTrue(metrics.getConcurrencyLimits(), metrics.getConcurrencyLimits().startsWith("opac: limit 2, 0 in flight"));
+        assertTrue(metrics.getSummary().endsWith(metrics.getConcurrencyLimits()));
+        assertTrue(metrics.toJson().contains("\"concurrencyLimits\": {\n    \"opac\": { \"limit\": 2,"));
+    }
+
+    private static void run(AdaptiveLimiter limiter, final long millis) throws Exception {
+        limiter.execute(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                Thread.sleep(millis);
+                return null;
+            }
+        });
+    }
+
+}
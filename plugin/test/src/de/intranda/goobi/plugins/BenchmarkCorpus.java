@@ -0,0 +1,126 @@
+package de.intranda.goobi.plugins;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.goobi.production.importer.Record;
+
+/**
+ * Synthetic maps for benchmarks: a tiled tiff file per map in the source folder and a catalogue export with a record per map. Every
+ * image has a different block of pixels, so the checksums of the images differ. Files that exist are not written again, so a corpus
+ * can be used by several runs.
+ */
+class BenchmarkCorpus {
+
+    private final File folder;
+
+    private final int records;
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * @param width width of the images in pixels
+     * @param height height of the images in pixels
+     */
+    BenchmarkCorpus(File folder, int records, int width, int height) {
+        this.folder = folder;
+        this.records = records;
+        this.width = width;
+        this.height = height;
+    }
+
+    static String getIdentifier(int index) {
+        return String.format("AC%08d", index);
+    }
+
+    /**
+     * Writes the images and the catalogue export that do not exist yet.
+     */
+    void create() throws IOException {
+        File source = getSourceFolder();
+        source.mkdirs();
+        BufferedImage image = null;
+        Random random = new Random(42);
+        int columns = Math.max(1, width / 16);
+        for (int i = 0; i < records; i++) {
+            File file = new File(source, getIdentifier(i) + ".tif");
+            if (file.length() > 0) {
+                continue;
+            }
+            if (image == null) {
+                image = DerivativeGeneratorTest.createImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            }
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(new Color(random.nextInt(0xffffff)));
+            graphics.fillRect(i % columns * 16, i / columns * 16 % Math.max(16, height), 16, 16);
+            graphics.dispose();
+            File part = new File(source, "." + file.getName() + ".part");
+            DerivativeGeneratorTest.writeTiledTiff(image, part, 512);
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        File export = getExport();
+        if (export.length() == 0) {
+            File part = new File(folder, "." + export.getName() + ".part");
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(part.toPath()), StandardCharsets.UTF_8)) {
+                writer.write("<collection>");
+                for (int i = 0; i < records; i++) {
+                    writer.write(MarcDumpIndexTest.createRecord("", getIdentifier(i), "Karte " + i, 'c'));
+                }
+                writer.write("</collection>");
+            }
+            Files.move(part.toPath(), export.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Returns a record for every map, with the image name as data.
+     */
+    List<Record> createRecords() {
+        List<Record> answer = new ArrayList<Record>(records);
+        for (int i = 0; i < records; i++) {
+            Record record = new Record();
+            record.setId(getIdentifier(i));
+            record.setData(getIdentifier(i) + ".tif");
+            answer.add(record);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns the size of all images in bytes.
+     */
+    long getBytes() {
+        long bytes = 0;
+        for (int i = 0; i < records; i++) {
+            bytes += new File(getSourceFolder(), getIdentifier(i) + ".tif").length();
+        }
+        return bytes;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    File getSourceFolder() {
+        return new File(folder, "source_" + width + "x" + height);
+    }
+
+    File getExport() {
+        return new File(folder, "export_" + records + ".xml");
+    }
+
+}
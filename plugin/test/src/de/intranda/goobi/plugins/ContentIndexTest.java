@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLookup() throws IOException {
+        File file = new File(folder.getRoot(), "index/mapimport.contentindex");
+        try (ContentIndex index = new ContentIndex(file, "MD5", 1)) {
+            assertEquals(0, index.size());
+            index.add(new ContentIndex.Entry("abc", 100, "AC1", "AC1.tif", "/source/AC1.tif"));
+            index.add(new ContentIndex.Entry("def", 200, "AC2", "00000001.tif", "/source/AC2_1.tif"));
+
+            assertTrue(index.containsSize(100));
+            assertFalse(index.containsSize(101));
+            assertEquals("AC1/AC1.tif", index.get("abc", 100).toString());
+            assertEquals("AC1", index.get("ABC", 100).getIdentifier());
+            // same checksum with another size is another image
+            assertNull(index.get("abc", 200));
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File file = new File(folder.getRoot(), "mapimport.contentindex");
+        try (ContentIndex index = new ContentIndex(file, "MD5", 50)) {
+            index.add(new ContentIndex.Entry("abc", 100, "AC1", "AC1.tif", "/source/AC1.tif"));
+            index.add(new ContentIndex.Entry("def", 200, "AC2", "AC2.tif", "/source/AC2.tif"));
+            index.add(new ContentIndex.Entry("abc", 100, "AC3", "AC3.tif", "/source/AC3.tif"));
+        }
+        // incomplete line of a crash
+        Files.write(file.toPath(), "300\tghi\tAC4".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (ContentIndex index = new ContentIndex(file, "MD5", 50)) {
+            assertEquals(2, index.size());
+            assertFalse(index.containsSize(300));
+            ContentIndex.Entry entry = index.get("abc", 100);
+            assertEquals("AC3", entry.getIdentifier());
+            assertEquals("/source/AC3.tif", entry.getSource());
+            index.add(new ContentIndex.Entry("jkl", 400, "AC5", "AC5.tif", "/source/AC5.tif"));
+        }
+        try (ContentIndex index = new ContentIndex(file, "MD5", 50)) {
+            assertEquals(3, index.size());
+            assertNotNull(index.get("jkl", 400));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherAlgorithm() throws IOException {
+        File file = new File(folder.getRoot(), "mapimport.contentindex");
+        new ContentIndex(file, "MD5", 1).close();
+        new ContentIndex(file, "SHA-256", 1);
+    }
+
+}
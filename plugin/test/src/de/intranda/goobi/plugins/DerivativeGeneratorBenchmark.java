@@ -0,0 +1,132 @@
+package de.intranda.goobi.plugins;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the {@link DerivativeGenerator} with reading the whole master with {@link ImageIO#read(File)}, one image after the other and
+ * on a pool with one thread per processor. Usage:
+ *
+ * <pre>
+ * java -Xmx2g de.intranda.goobi.plugins.DerivativeGeneratorBenchmark &lt;folder&gt; [max size] [threads]
+ * </pre>
+ *
+ * All tiff files of the folder are read. If the folder has no tiff files, four tiled tiff files with 8000x6000 pixels are created.
+ */
+public class DerivativeGeneratorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File folder = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "derivative_benchmark");
+        int maxSize = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        File output = new File(folder, "derivatives");
+        output.mkdirs();
+
+        File[] masters = listMasters(folder);
+        if (masters.length == 0) {
+            createMasters(folder, 4, 8000, 6000);
+            masters = listMasters(folder);
+        }
+        long bytes = 0;
+        for (File master : masters) {
+            bytes += master.length();
+        }
+        DerivativeGenerator generator = new DerivativeGenerator("jpg", maxSize, 0.85f);
+
+        // warm up
+        run(masters, output, generator, maxSize, false, 1);
+        System.out.println("method;threads;images;MB;ms;MB/s;images/s;peak heap MB");
+        for (boolean full : new boolean[] { true, false }) {
+            for (int count : new int[] { 1, threads }) {
+                System.gc();
+                MapImportMemoryBenchmark.resetPeakUsage();
+                long start = System.currentTimeMillis();
+                run(masters, output, generator, maxSize, full, count);
+                long duration = Math.max(1, System.currentTimeMillis() - start);
+                long peak = MapImportMemoryBenchmark.getPeakUsage();
+                System.out.println((full ? "ImageIO.read" : "subsampled") + ";" + count + ";" + masters.length + ";" + bytes / 1048576 + ";"
+                        + duration + ";" + (bytes / 1048576 * 1000 / duration) + ";"
+                        + String.format("%.2f", masters.length * 1000.0 / duration) + ";" + peak / 1048576);
+            }
+        }
+    }
+
+    private static void run(File[] masters, final File output, final DerivativeGenerator generator, final int maxSize,
+            final boolean full, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final File master : masters) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        File target = new File(output, generator.getTargetName(master.getName()));
+                        if (full) {
+                            readFull(master, target, maxSize);
+                        } else {
+                            generator.generate(master.toPath(), target.toPath());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Decodes the whole master and scales it down, as most image tools do.
+     */
+    private static void readFull(File master, File target, int maxSize) throws IOException {
+        BufferedImage image = ImageIO.read(master);
+        double scale = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = (int) Math.round(image.getWidth() * scale);
+        int height = (int) Math.round(image.getHeight() * scale);
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        ImageIO.write(scaled, "jpg", target);
+    }
+
+    private static File[] listMasters(File folder) {
+        File[] files = folder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".tif") || name.endsWith(".tiff");
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private static void createMasters(File folder, int count, int width, int height) throws IOException {
+        BufferedImage image = DerivativeGeneratorTest.createImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        // some noise, so the image is not a plain area
+        Random random = new Random(42);
+        for (int i = 0; i < width * height / 50; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt());
+        }
+        for (int i = 0; i < count; i++) {
+            DerivativeGeneratorTest.writeTiledTiff(image, new File(folder, "benchmark_" + i + ".tif"), 512);
+        }
+    }
+
+}
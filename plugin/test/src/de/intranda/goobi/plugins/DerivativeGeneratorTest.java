@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DerivativeGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScaleDown() throws IOException {
+        File master = new File(folder.getRoot(), "AC1.png");
+        ImageIO.write(createImage(3000, 2000, BufferedImage.TYPE_INT_RGB), "png", master);
+        File derivative = new File(folder.getRoot(), "AC1_media/AC1.jpg");
+
+        DerivativeGenerator generator = new DerivativeGenerator("jpg", 600, 0.8f);
+        assertEquals("AC1.jpg", generator.getTargetName(master.getName()));
+        Rectangle size = generator.generate(master.toPath(), derivative.toPath());
+
+        assertEquals(new Rectangle(600, 400), size);
+        BufferedImage image = ImageIO.read(derivative);
+        assertEquals(600, image.getWidth());
+        assertEquals(400, image.getHeight());
+        assertColor(Color.RED, image.getRGB(100, 200));
+        assertColor(Color.BLUE, image.getRGB(500, 200));
+        assertEquals(1, derivative.getParentFile().list().length);
+    }
+
+    @Test
+    public void testSmallImageIsNotEnlarged() throws IOException {
+        File master = new File(folder.getRoot(), "AC2.png");
+        ImageIO.write(createImage(300, 500, BufferedImage.TYPE_BYTE_GRAY), "png", master);
+        File derivative = new File(folder.getRoot(), "AC2.jpg");
+
+        Rectangle size = new DerivativeGenerator("jpg", 600, 0.8f).generate(master.toPath(), derivative.toPath());
+
+        assertEquals(new Rectangle(300, 500), size);
+        assertEquals(1, ImageIO.read(derivative).getColorModel().getNumColorComponents());
+    }
+
+    @Test
+    public void testTiledTiff() throws IOException {
+        Assume.assumeTrue(ImageIO.getImageWritersByFormatName("tiff").hasNext());
+        File master = new File(folder.getRoot(), "AC3.tif");
+        writeTiledTiff(createImage(2500, 1700, BufferedImage.TYPE_INT_RGB), master, 256);
+        File derivative = new File(folder.getRoot(), "AC3.jpg");
+
+        Rectangle size = new DerivativeGenerator("jpg", 500, 0.8f).generate(master.toPath(), derivative.toPath());
+
+        assertEquals(new Rectangle(500, 340), size);
+        BufferedImage image = ImageIO.read(derivative);
+        assertColor(Color.RED, image.getRGB(10, 330));
+        assertColor(Color.BLUE, image.getRGB(490, 330));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNoImage() throws IOException {
+        File master = folder.newFile("AC4.tif");
+        new DerivativeGenerator("jpg", 500, 0.8f).generate(master.toPath(), new File(folder.getRoot(), "AC4.jpg").toPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        new DerivativeGenerator("unknown", 500, 0.8f);
+    }
+
+    /**
+     * Creates an image with a red left half and a blue right half.
+     */
+    static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, width / 2, height);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(width / 2, 0, width - width / 2, height);
+        graphics.dispose();
+        return image;
+    }
+
+    static void writeTiledTiff(BufferedImage image, File file, int tileSize) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        try (FileImageOutputStream out = new FileImageOutputStream(file)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setTiling(tileSize, tileSize, 0, 0);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void assertColor(Color expected, int rgb) {
+        Color actual = new Color(rgb);
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(expected.getRed() - actual.getRed()) < 30
+                && Math.abs(expected.getGreen() - actual.getGreen()) < 30 && Math.abs(expected.getBlue() - actual.getBlue()) < 30);
+    }
+
+}
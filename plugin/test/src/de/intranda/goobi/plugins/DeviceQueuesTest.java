@@ -0,0 +1,209 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeviceQueuesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFoldersOnTheSameStoreShareTheDevice() throws Exception {
+        assertNull(DeviceQueues.create(new XMLConfiguration(), null));
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("deviceQueues[@enabled]", true);
+        DeviceQueues queues = DeviceQueues.create(config, null);
+        try {
+            String first = folder.newFolder("scanner").getAbsolutePath() + "/";
+            String second = folder.newFolder("staging").getAbsolutePath() + "/";
+            assertEquals("copied", queues.execute(first, new Callable<String>() {
+                @Override
+                public String call() {
+                    return "copied";
+                }
+            }));
+            assertEquals("copied", queues.execute(second, new Callable<String>() {
+                @Override
+                public String call() {
+                    return "copied";
+                }
+            }));
+            assertEquals(1, queues.getDeviceCount());
+        } finally {
+            queues.shutdown();
+        }
+    }
+
+    @Test
+    public void testSlowDeviceDoesNotBlockOthers() throws Exception {
+        final DeviceQueues queues = new FolderQueues(1, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> slow = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 2; i++) {
+                slow.add(callers.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return queues.execute("/slow/", new Callable<Integer>() {
+                            @Override
+                            public Integer call() throws InterruptedException {
+                                blocked.await();
+                                return 1;
+                            }
+                        });
+                    }
+                }));
+            }
+            // the fast device copies while both threads of the slow device wait
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Integer.valueOf(2), queues.execute("/fast/", new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        return 2;
+                    }
+                }));
+            }
+            blocked.countDown();
+            for (Future<Integer> future : slow) {
+                assertEquals(Integer.valueOf(1), future.get(5, TimeUnit.SECONDS));
+            }
+            Map<String, Long> counts = queues.getCounts();
+            assertEquals(Long.valueOf(2), counts.get("/slow"));
+            assertEquals(Long.valueOf(5), counts.get("/fast"));
+        } finally {
+            callers.shutdownNow();
+            queues.shutdown();
+        }
+    }
+
+    @Test
+    public void testFullQueueBlocksCaller() throws Exception {
+        final DeviceQueues queues = new FolderQueues(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger started = new AtomicInteger();
+        final Callable<Void> copy = new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                started.incrementAndGet();
+                release.await();
+                return null;
+            }
+        };
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            final CountDownLatch submitted = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                futures.add(callers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        submitted.countDown();
+                        return queues.execute("/nas/", copy);
+                    }
+                }));
+            }
+            assertTrue(submitted.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            // one copy runs, one waits in the queue and the third caller waits for room
+            assertEquals(1, started.get());
+            release.countDown();
+            for (Future<Void> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(3, started.get());
+        } finally {
+            callers.shutdownNow();
+            queues.shutdown();
+        }
+    }
+
+    @Test
+    public void testExceptionsArePassedOn() throws Exception {
+        DeviceQueues queues = new FolderQueues(1, 0);
+        try {
+            queues.execute("/nas/", new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    throw new IOException("disk failure");
+                }
+            });
+            fail("exception expected");
+        } catch (IOException e) {
+            assertEquals("disk failure", e.getMessage());
+        } finally {
+            queues.shutdown();
+        }
+        try {
+            queues.execute("/nas/", null);
+            fail("exception expected");
+        } catch (IOException e) {
+            // shut down
+        }
+    }
+
+    @Test
+    public void testLimiterPerDevice() throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        assertNull(new FolderQueues(1, 1, config, null).getLimiter("/nas/"));
+        config.setProperty("adaptiveConcurrency[@enabled]", true);
+        config.setProperty("adaptiveConcurrency.copy.initial", 3);
+        ImportMetrics metrics = new ImportMetrics("test");
+        DeviceQueues queues = new FolderQueues(2, 1, config, metrics);
+        try {
+            AdaptiveLimiter nas = queues.getLimiter("/nas/");
+            AdaptiveLimiter ssd = queues.getLimiter("/ssd/");
+            assertNotSame(nas, ssd);
+            assertSame(nas, queues.getLimiter("/nas/"));
+            assertEquals("copy /nas", nas.getName());
+            assertEquals(3, nas.getLimit());
+
+            // failures on the slow device do not lower the limit of the other device
+            nas.release(nas.acquire(), 1, true);
+            assertEquals(2, nas.getLimit());
+            assertEquals(3, ssd.getLimit());
+            assertTrue(metrics.getConcurrencyLimits(), metrics.getConcurrencyLimits().contains("copy /nas: limit 2"));
+            assertTrue(metrics.getConcurrencyLimits(), metrics.getConcurrencyLimits().contains("copy /ssd: limit 3"));
+        } finally {
+            queues.shutdown();
+        }
+    }
+
+    /**
+     * Treats every folder as a device of its own.
+     */
+    private static class FolderQueues extends DeviceQueues {
+
+        FolderQueues(int threads, int queueSize) {
+            super(threads, queueSize);
+        }
+
+        FolderQueues(int threads, int queueSize, XMLConfiguration config, ImportMetrics metrics) {
+            super(threads, queueSize, config, metrics);
+        }
+
+        @Override
+        Object getDeviceKey(Path folder) {
+            return folder.toString();
+        }
+    }
+
+}
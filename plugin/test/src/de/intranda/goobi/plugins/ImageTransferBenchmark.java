@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compares {@link FileUtils#copyFile(File, File)} with the {@link ImageTransfer} modes. Usage:
+ * 
+ * <pre>
+ * java de.intranda.goobi.plugins.ImageTransferBenchmark &lt;folder&gt; [size in MB ...]
+ * </pre>
+ * 
+ * The folder should be on the file system of the import folder. Default sizes are 100, 500, 1000 and 2000 MB.
+ */
+public class ImageTransferBenchmark {
+
+    private static final int ITERATIONS = 3;
+
+    public static void main(String[] args) throws IOException {
+        File folder = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"));
+        int[] sizes = { 100, 500, 1000, 2000 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("size MB;method;ms;MB/s");
+        for (int size : sizes) {
+            File source = new File(folder, "benchmark_source_" + size + ".tif");
+            File target = new File(folder, "benchmark_target/benchmark_" + size + ".tif");
+            createFile(source, size * 1024L * 1024);
+            try {
+                run(size, "FileUtils.copyFile", source, target, null);
+                run(size, "transferTo", source, target, new ImageTransfer(false, null));
+                run(size, "mapped+MD5", source, target, new ImageTransfer(false, "MD5"));
+                run(size, "mapped+SHA-256", source, target, new ImageTransfer(false, "SHA-256"));
+                run(size, "link", source, target, new ImageTransfer(true, "MD5"));
+            } finally {
+                Files.deleteIfExists(source.toPath());
+                Files.deleteIfExists(target.toPath());
+                Files.deleteIfExists(target.getParentFile().toPath());
+            }
+        }
+    }
+
+    private static void run(int size, String method, File source, File target, ImageTransfer transfer) throws IOException {
+        long best = Long.MAX_VALUE;
+        // first iteration is a warm up
+        for (int i = 0; i <= ITERATIONS; i++) {
+            Files.deleteIfExists(target.toPath());
+            long start = System.nanoTime();
+            if (transfer == null) {
+                target.getParentFile().mkdirs();
+                FileUtils.copyFile(source, target);
+            } else {
+                transfer.transfer(source.toPath(), target.toPath());
+            }
+            long duration = System.nanoTime() - start;
+            if (i > 0) {
+                best = Math.min(best, duration);
+            }
+        }
+        double ms = best / 1000000d;
+        System.out.println(size + ";" + method + ";" + String.format("%.0f", ms) + ";" + String.format("%.0f", size / (ms / 1000)));
+    }
+
+    private static void createFile(File file, long size) throws IOException {
+        byte[] buffer = new byte[1024 * 1024];
+        Random random = new Random(size);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+}
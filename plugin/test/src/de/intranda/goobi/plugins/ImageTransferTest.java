@@ -0,0 +1,111 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCopyWithChecksum() throws IOException, NoSuchAlgorithmException {
+        byte[] data = createData(3 * 1024 * 1024 + 17);
+        Path source = writeSource(data);
+        Path target = new File(folder.getRoot(), "import/map/images/master_map_media/map.tif").toPath();
+
+        ImageTransfer.Result result = new ImageTransfer(false, "MD5").transfer(source, target);
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(data.length, result.getSize());
+        assertEquals(ImageTransfer.toHex(MessageDigest.getInstance("MD5").digest(data)), result.getChecksum());
+        assertFalse(result.isLinked());
+        assertEquals(1, target.getParent().toFile().list().length);
+    }
+
+    @Test
+    public void testCopyWithoutChecksum() throws IOException {
+        byte[] data = createData(1024 * 1024);
+        Path source = writeSource(data);
+        Path target = new File(folder.getRoot(), "target.tif").toPath();
+        Files.write(target, new byte[10]);
+
+        ImageTransfer.Result result = new ImageTransfer(false, null).transfer(source, target);
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertNull(result.getChecksum());
+    }
+
+    @Test
+    public void testLink() throws IOException {
+        byte[] data = createData(1024);
+        Path source = writeSource(data);
+        Path target = new File(folder.getRoot(), "linked/target.tif").toPath();
+
+        ImageTransfer.Result result = new ImageTransfer(true, "MD5").transfer(source, target);
+
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertEquals(data.length, result.getSize());
+        // hard links are not supported on every file system, then the file is copied
+        if (result.isLinked()) {
+            assertTrue(Files.isSameFile(source, target));
+        } else {
+            assertNotNull(result.getChecksum());
+        }
+    }
+
+    @Test
+    public void testChecksum() throws IOException, NoSuchAlgorithmException {
+        byte[] data = createData(2 * 1024 * 1024 + 5);
+        Path source = writeSource(data);
+
+        assertEquals(ImageTransfer.toHex(MessageDigest.getInstance("SHA-256").digest(data)),
+                new ImageTransfer(false, "SHA-256").checksum(source));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testChecksumWithoutAlgorithm() throws IOException {
+        new ImageTransfer(false, null).checksum(writeSource(createData(10)));
+    }
+
+    @Test
+    public void testLinkExisting() throws IOException {
+        byte[] data = createData(1024);
+        Path existing = writeSource(data);
+        Path target = new File(folder.getRoot(), "other/target.tif").toPath();
+
+        ImageTransfer.Result result = new ImageTransfer(false, "MD5").link(existing, target, "abc");
+
+        // hard links are not supported on every file system
+        if (result != null) {
+            assertTrue(Files.isSameFile(existing, target));
+            assertTrue(result.isLinked());
+            assertEquals("abc", result.getChecksum());
+        }
+        assertEquals(result == null ? 0 : 1, target.getParent().toFile().list().length);
+    }
+
+    private Path writeSource(byte[] data) throws IOException {
+        Path source = new File(folder.getRoot(), "source.tif").toPath();
+        Files.write(source, data);
+        return source;
+    }
+
+    private byte[] createData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+}
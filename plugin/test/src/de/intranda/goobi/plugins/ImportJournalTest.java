@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws IOException {
+        ImportJournal journal = new ImportJournal(folder.getRoot(), 10);
+        journal.record("AC1", ImportJournal.Stage.OPAC, null);
+        journal.record("AC1", ImportJournal.Stage.METS, null);
+        journal.record("AC1", ImportJournal.Stage.IMAGE, "1024:abcd");
+        journal.record("AC2", ImportJournal.Stage.OPAC, null);
+        assertTrue(journal.isCompleted("AC1", ImportJournal.Stage.IMAGE));
+        journal.close();
+
+        journal = new ImportJournal(folder.getRoot(), 10);
+        assertTrue(journal.isCompleted("AC1", ImportJournal.Stage.METS));
+        assertEquals("1024:abcd", journal.getDetail("AC1", ImportJournal.Stage.IMAGE));
+        assertTrue(journal.isCompleted("AC2", ImportJournal.Stage.OPAC));
+        assertFalse(journal.isCompleted("AC2", ImportJournal.Stage.METS));
+        assertNull(journal.getDetail("AC3", ImportJournal.Stage.IMAGE));
+        journal.close();
+    }
+
+    @Test
+    public void testIncompleteEntry() throws IOException {
+        ImportJournal journal = new ImportJournal(folder.getRoot(), 1);
+        journal.record("AC1", ImportJournal.Stage.METS, null);
+        journal.close();
+        // simulate a crash while the next entry was written
+        File file = new File(folder.getRoot(), ImportJournal.FILENAME);
+        Files.write(file.toPath(), "AC1\tIMAGE\t10".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        journal = new ImportJournal(folder.getRoot(), 1);
+        assertTrue(journal.isCompleted("AC1", ImportJournal.Stage.METS));
+        assertFalse(journal.isCompleted("AC1", ImportJournal.Stage.IMAGE));
+        journal.record("AC1", ImportJournal.Stage.IMAGE, "10:");
+        journal.close();
+
+        journal = new ImportJournal(folder.getRoot(), 1);
+        assertEquals("10:", journal.getDetail("AC1", ImportJournal.Stage.IMAGE));
+        journal.close();
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        ImportJournal journal = new ImportJournal(folder.getRoot(), 10);
+        journal.record("AC1", ImportJournal.Stage.METS, null);
+        journal.delete();
+        assertFalse(new File(folder.getRoot(), ImportJournal.FILENAME).exists());
+        assertFalse(journal.isCompleted("AC1", ImportJournal.Stage.METS));
+    }
+
+}
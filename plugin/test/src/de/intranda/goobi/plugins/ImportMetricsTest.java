@@ -0,0 +1,103 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLatencyHistogram() {
+        ImportMetrics metrics = new ImportMetrics("test");
+        long now = System.nanoTime();
+        metrics.stop(ImportMetrics.OPAC, now - TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.stop(ImportMetrics.OPAC, now - TimeUnit.MILLISECONDS.toNanos(70));
+        metrics.stop(ImportMetrics.OPAC, now - TimeUnit.MILLISECONDS.toNanos(80));
+        metrics.stop(ImportMetrics.OPAC, now - TimeUnit.SECONDS.toNanos(20));
+
+        long[] counts = metrics.getLatencyCounts();
+        assertEquals(1, counts[0]);
+        assertEquals(2, counts[3]);
+        assertEquals(1, counts[counts.length - 1]);
+        assertEquals(4, metrics.getOpacRequests());
+        assertTrue(metrics.getOpacLatencyMax() >= 20000);
+        assertTrue(metrics.getOpacLatencyHistogram().startsWith("<=10ms: 1, <=25ms: 0, <=50ms: 0, <=100ms: 2"));
+    }
+
+    @Test
+    public void testCountersAndErrors() {
+        ImportMetrics metrics = new ImportMetrics("test");
+        metrics.addRecord();
+        metrics.addRecord();
+        metrics.count("unchanged");
+        metrics.addError(ImportMetrics.OPAC, "no record found");
+        metrics.addError(ImportMetrics.IMAGE, new IOException());
+        metrics.addError(ImportMetrics.IMAGE, new IOException());
+        metrics.addBytesCopied(3 * 1048576);
+        metrics.getTimer(ImportMetrics.IMAGE).add(TimeUnit.SECONDS.toNanos(2));
+
+        assertEquals(2, metrics.getRecords());
+        assertEquals(1, metrics.getCounter("unchanged"));
+        assertEquals(3, metrics.getErrors());
+        assertEquals("{image: IOException=2, opac: no record found=1}", metrics.getErrorCounts());
+        assertEquals(1.5, metrics.getCopyThroughput(), 0.001);
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("metrics.jmx", false);
+        config.setProperty("metrics.logInterval", 0);
+        File importFolder = folder.newFolder("import");
+        ImportMetrics metrics = ImportMetrics.start("mapimport", config, importFolder.getAbsolutePath());
+        metrics.addRecord();
+        metrics.addError(ImportMetrics.METS, "disk \"full\"");
+        metrics.stop(ImportMetrics.METS, metrics.start());
+        metrics.finish();
+
+        File[] reports = importFolder.listFiles();
+        assertEquals(1, reports.length);
+        assertTrue(reports[0].getName().matches("mapimport-report-\\d{8}-\\d{6}\\.json"));
+        String json = new String(Files.readAllBytes(reports[0].toPath()), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"records\": 1,"));
+        assertTrue(json.contains("\"errorsByCause\": { \"mets: disk \\\"full\\\"\": 1 },"));
+        assertTrue(json.contains("\"mets\": { \"count\": 1,"));
+        assertTrue(json.trim().endsWith("}"));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("metrics.logInterval", 0);
+        ImportMetrics first = ImportMetrics.start("metricstest", config, null);
+        ImportMetrics second = ImportMetrics.start("metricstest", config, null);
+        second.addRecord();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(first.getObjectName(), second.getObjectName());
+        assertEquals(1L, server.getAttribute(second.getObjectName(), "Records"));
+        assertEquals(Boolean.TRUE, server.getAttribute(second.getObjectName(), "Running"));
+        server.unregisterMBean(second.getObjectName());
+    }
+
+    @Test
+    public void testQuote() {
+        assertEquals("\"a\\\"b\\\\c\\n\\u0001\"", ImportMetrics.quote("a\"b\\c\n\u0001"));
+    }
+
+}
@@ -0,0 +1,134 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ImportPipelineTest {
+
+    @Test
+    public void testAllItemsPassAllStages() throws InterruptedException {
+        final List<Integer> finished = Collections.synchronizedList(new ArrayList<Integer>());
+        List<ImportPipeline.Stage<Integer>> stages = new ArrayList<ImportPipeline.Stage<Integer>>();
+        stages.add(new SleepingStage("first", 4, 5, 1));
+        stages.add(new SleepingStage("second", 2, 5, 1));
+        stages.add(new ImportPipeline.Stage<Integer>("last", 1, 5) {
+            @Override
+            boolean process(Integer item) {
+                finished.add(item);
+                return true;
+            }
+        });
+
+        ImportPipeline<Integer> pipeline = new ImportPipeline<Integer>(stages);
+        pipeline.run(createItems(50));
+
+        assertEquals(50, finished.size());
+        for (ImportPipeline.Stage<Integer> stage : pipeline.getStages()) {
+            assertEquals(50, stage.getProcessed());
+            assertTrue(stage.getMaxQueueDepth() <= 5);
+            assertEquals(0, stage.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void testSkipRemainingStages() throws InterruptedException {
+        final AtomicInteger secondStage = new AtomicInteger();
+        List<ImportPipeline.Stage<Integer>> stages = new ArrayList<ImportPipeline.Stage<Integer>>();
+        stages.add(new ImportPipeline.Stage<Integer>("filter", 2, 5) {
+            @Override
+            boolean process(Integer item) {
+                return item % 2 == 0;
+            }
+        });
+        stages.add(new ImportPipeline.Stage<Integer>("count", 2, 5) {
+            @Override
+            boolean process(Integer item) {
+                secondStage.incrementAndGet();
+                return true;
+            }
+        });
+
+        new ImportPipeline<Integer>(stages).run(createItems(20));
+        assertEquals(10, secondStage.get());
+    }
+
+    @Test
+    public void testFailingItems() throws InterruptedException {
+        final AtomicInteger secondStage = new AtomicInteger();
+        List<ImportPipeline.Stage<Integer>> stages = new ArrayList<ImportPipeline.Stage<Integer>>();
+        stages.add(new ImportPipeline.Stage<Integer>("build", 1, 5) {
+            @Override
+            boolean process(Integer item) {
+                if (item % 5 == 1) {
+                    throw new IllegalStateException("invalid record " + item);
+                }
+                if (item % 5 == 2) {
+                    throw new OutOfMemoryError("record " + item + " is too large");
+                }
+                return true;
+            }
+        });
+        stages.add(new ImportPipeline.Stage<Integer>("count", 1, 5) {
+            @Override
+            boolean process(Integer item) {
+                secondStage.incrementAndGet();
+                return true;
+            }
+        });
+
+        // the failed items leave the pipeline, the stage keeps its only thread
+        new ImportPipeline<Integer>(stages).run(createItems(20));
+        assertEquals(12, secondStage.get());
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        List<ImportPipeline.Stage<Integer>> stages = new ArrayList<ImportPipeline.Stage<Integer>>();
+        ImportPipeline.Stage<Integer> fast = new SleepingStage("fast", 4, 2, 0);
+        ImportPipeline.Stage<Integer> slow = new SleepingStage("slow", 1, 2, 10);
+        stages.add(fast);
+        stages.add(slow);
+
+        new ImportPipeline<Integer>(stages).run(createItems(20));
+
+        // the slow stage is the bottleneck: its queue fills up and the fast stage has to wait for it
+        assertTrue(slow.getMaxQueueDepth() <= 2);
+        assertTrue(slow.getBlockedTime() > 0);
+        assertTrue(slow.getBusyTime() > fast.getBusyTime());
+    }
+
+    private List<Integer> createItems(int count) {
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static class SleepingStage extends ImportPipeline.Stage<Integer> {
+
+        private final long sleep;
+
+        SleepingStage(String name, int threads, int queueSize, long sleep) {
+            super(name, threads, queueSize);
+            this.sleep = sleep;
+        }
+
+        @Override
+        boolean process(Integer item) {
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.Process;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+import ugh.exceptions.WriteException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Process table in memory for tests and benchmarks, instead of the database behind the ProcessManager. It understands the filters of
+ * {@link ProcessLookup}. The mets files of the processes are written to a folder per process.
+ */
+class InMemoryProcessQuery implements ProcessLookup.ProcessQuery {
+
+    private final Map<String, List<Process>> processes = new ConcurrentHashMap<String, List<Process>>();
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private final AtomicInteger queries = new AtomicInteger();
+
+    private final Prefs prefs;
+
+    private final File folder;
+
+    private volatile long writeDelay;
+
+    /**
+     * @param folder contains a folder for every process
+     */
+    InMemoryProcessQuery(Prefs prefs, File folder) {
+        this.prefs = prefs;
+        this.folder = folder;
+    }
+
+    /**
+     * Adds a process with the given title.
+     */
+    synchronized Process add(String title) {
+        int id = ids.incrementAndGet();
+        MemoryProcess process = new MemoryProcess(this, new File(folder, String.valueOf(id)));
+        process.setId(id);
+        process.setTitel(title);
+        List<Process> list = processes.get(title);
+        if (list == null) {
+            list = new ArrayList<Process>(1);
+            processes.put(title, list);
+        }
+        list.add(process);
+        return process;
+    }
+
+    @Override
+    public List<Process> getProcesses(String filter) {
+        queries.incrementAndGet();
+        List<Process> answer = new ArrayList<Process>();
+        for (String title : parseTitles(filter)) {
+            List<Process> list = processes.get(title);
+            if (list != null) {
+                answer.addAll(list);
+            }
+        }
+        return answer;
+    }
+
+    int getQueries() {
+        return queries.get();
+    }
+
+    /**
+     * Lets every write of a mets file take the given time, so that concurrent updates of a process overlap.
+     */
+    void setWriteDelay(long millis) {
+        this.writeDelay = millis;
+    }
+
+    /**
+     * Returns all processes, in the order in which they were added.
+     */
+    List<MemoryProcess> getAll() {
+        List<MemoryProcess> answer = new ArrayList<MemoryProcess>();
+        for (List<Process> list : processes.values()) {
+            for (Process process : list) {
+                answer.add((MemoryProcess) process);
+            }
+        }
+        Collections.sort(answer, new Comparator<MemoryProcess>() {
+            @Override
+            public int compare(MemoryProcess first, MemoryProcess second) {
+                return first.getId().compareTo(second.getId());
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Returns the quoted titles of a filter created by {@link ProcessLookup#createFilter(List)}.
+     */
+    static List<String> parseTitles(String filter) {
+        List<String> titles = new ArrayList<String>();
+        StringBuilder title = null;
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (title == null) {
+                if (c == '\'') {
+                    title = new StringBuilder();
+                }
+            } else if (c == '\\' && i + 1 < filter.length()) {
+                title.append(filter.charAt(++i));
+            } else if (c == '\'' && i + 1 < filter.length() && filter.charAt(i + 1) == '\'') {
+                title.append(c);
+                i++;
+            } else if (c == '\'') {
+                titles.add(title.toString());
+                title = null;
+            } else {
+                title.append(c);
+            }
+        }
+        return titles;
+    }
+
+    /**
+     * Process whose mets file is in its own folder, a map without metadata until the first write. Counts the writes and the threads
+     * that have read the mets file and not written it yet.
+     */
+    static class MemoryProcess extends Process {
+
+        private final InMemoryProcessQuery query;
+
+        private final Prefs prefs;
+
+        private final File folder;
+
+        private final AtomicInteger writers = new AtomicInteger();
+
+        private final AtomicInteger maxWriters = new AtomicInteger();
+
+        private final AtomicInteger writes = new AtomicInteger();
+
+        MemoryProcess(InMemoryProcessQuery query, File folder) {
+            this.query = query;
+            this.prefs = query.prefs;
+            this.folder = folder;
+        }
+
+        int getWrites() {
+            return writes.get();
+        }
+
+        /**
+         * Returns the highest number of threads that were between reading and writing the mets file at once.
+         */
+        int getMaxWriters() {
+            return maxWriters.get();
+        }
+
+        @Override
+        public Fileformat readMetadataFile() throws ReadException, PreferencesException {
+            writers.incrementAndGet();
+            MetsMods mm = new MetsMods(prefs);
+            File file = new File(folder, "meta.xml");
+            if (file.isFile()) {
+                mm.read(file.getAbsolutePath());
+                return mm;
+            }
+            DigitalDocument dd = new DigitalDocument();
+            try {
+                dd.setLogicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("Map")));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            mm.setDigitalDocument(dd);
+            return mm;
+        }
+
+        @Override
+        public void writeMetadataFile(Fileformat ff) throws IOException, InterruptedException, WriteException, PreferencesException {
+            int current = writers.get();
+            if (current > maxWriters.get()) {
+                maxWriters.set(current);
+            }
+            if (query.writeDelay > 0) {
+                Thread.sleep(query.writeDelay);
+            }
+            folder.mkdirs();
+            ff.write(new File(folder, "meta.xml").getAbsolutePath());
+            writes.incrementAndGet();
+            writers.decrementAndGet();
+        }
+
+        @Override
+        public String getProcessDataDirectory() {
+            folder.mkdirs();
+            return folder.getAbsolutePath() + File.separator;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import org.goobi.production.importer.Record;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MapImageGroupsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanTree() throws IOException {
+        File root = createTree();
+        List<String> files = new SourceTreeScanner("*.tif", 2, 4).scan(root.toPath());
+        assertEquals(Arrays.asList("AC1.tif", "AC2_recto.tif", "AC2_verso.tif", "AC3/sheet1.tif", "AC3/sheet10.tif", "AC3/sheet2.tif",
+                "AC4/part/1.tif"), files);
+
+        assertEquals(Arrays.asList("AC1.tif", "AC2_recto.tif", "AC2_verso.tif"), new SourceTreeScanner("*.tif", 0, 1).scan(root.toPath()));
+    }
+
+    @Test
+    public void testGroups() throws IOException {
+        File root = createTree();
+        MapImageGroups groups = createGroups(root);
+        assertEquals(Arrays.asList("AC1", "AC2", "AC3", "AC4"), groups.getIdentifiers());
+        assertEquals(Arrays.asList("AC2", "AC3"), groups.getIdentifiers("AC", 1, 2));
+
+        SortedMap<String, List<String>> all = groups.group(new SourceTreeScanner("*.tif", 2, 2).scan(root.toPath()));
+        assertEquals(Collections.singletonList("AC1.tif"), all.get("AC1"));
+        assertEquals(Arrays.asList("AC2_recto.tif", "AC2_verso.tif"), all.get("AC2"));
+        assertEquals(Arrays.asList("AC3/sheet1.tif", "AC3/sheet2.tif", "AC3/sheet10.tif"), all.get("AC3"));
+    }
+
+    @Test
+    public void testCreateRecords() throws IOException {
+        MapImageGroups groups = createGroups(createTree());
+        // a selected image is replaced by its map, every map is imported once
+        List<Record> records = groups.createRecords(Arrays.asList("AC3", "AC2_verso.tif", "AC2", "unknown"));
+        assertEquals(2, records.size());
+        assertEquals("AC3", records.get(0).getId());
+        assertEquals(Arrays.asList("AC3/sheet1.tif", "AC3/sheet2.tif", "AC3/sheet10.tif"), MapImageGroups.getImages(records.get(0)));
+        assertEquals("AC2", records.get(1).getId());
+        assertEquals(Arrays.asList("AC2_recto.tif", "AC2_verso.tif"), MapImageGroups.getImages(records.get(1)));
+
+        assertEquals("AC3_sheet10.tif", MapImageGroups.getTargetName("AC3/sheet10.tif"));
+    }
+
+    @Test
+    public void testNaturalOrder() {
+        List<String> names = new ArrayList<String>(Arrays.asList("p10.tif", "p2.tif", "p01.tif", "p1.tif", "a.tif", "p1a.tif"));
+        Collections.sort(names, MapImageGroups.NATURAL_ORDER);
+        assertEquals(Arrays.asList("a.tif", "p01.tif", "p1.tif", "p1a.tif", "p2.tif", "p10.tif"), names);
+    }
+
+    private MapImageGroups createGroups(File root) {
+        SourceTreeScanner scanner = new SourceTreeScanner("*.tif", 2, 2);
+        return new MapImageGroups(new SourceRoots(root.getAbsolutePath()), Pattern.compile(MapImageGroups.DEFAULT_PATTERN), scanner);
+    }
+
+    private File createTree() throws IOException {
+        File root = folder.newFolder("maps");
+        for (String name : Arrays.asList("AC1.tif", "AC2_recto.tif", "AC2_verso.tif", "notes.txt", "AC3/sheet1.tif", "AC3/sheet2.tif",
+                "AC3/sheet10.tif", "AC4/part/1.tif", "AC5/a/b/too_deep.tif")) {
+            File file = new File(root, name);
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+        }
+        return root;
+    }
+
+}
@@ -0,0 +1,115 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+
+import ugh.dl.Prefs;
+
+/**
+ * Measures the peak heap of a large batch, once with the results kept for the whole batch and once passed to a listener in chunks. The
+ * maps of a small {@link BenchmarkCorpus} are imported with a catalogue stub that returns a record for every map, so every record is
+ * read from the catalogue, written as mets file and released. The images are linked, not copied. Usage:
+ * 
+ * <pre>
+ * java -Xmx512m de.intranda.goobi.plugins.MapImportMemoryBenchmark &lt;folder&gt; [records] [chunk size] [threads]
+ * </pre>
+ */
+public class MapImportMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File folder = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "map_memory_benchmark");
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+        int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+        BenchmarkCorpus corpus = new BenchmarkCorpus(folder, records, 64, 48);
+        System.out.println("creating " + records + " maps in " + folder);
+        corpus.create();
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+        List<Record> all = corpus.createRecords();
+
+        // warm up
+        run(corpus, prefs, all.subList(0, records / 10), 0, threads);
+        run(corpus, prefs, all.subList(0, records / 10), chunkSize, threads);
+
+        System.out.println("mode;records;chunk size;peak heap MB;ms");
+        System.out.println("whole batch;" + records + ";0;" + run(corpus, prefs, all, 0, threads));
+        System.out.println("chunks;" + records + ";" + chunkSize + ";" + run(corpus, prefs, all, chunkSize, threads));
+    }
+
+    private static String run(BenchmarkCorpus corpus, Prefs prefs, List<Record> records, int chunkSize, int threads) throws Exception {
+        File work = new File(corpus.getSourceFolder().getParentFile(), "import");
+        FileUtils.deleteDirectory(work);
+        work.mkdirs();
+        MapImportPlugin plugin = MapImportPluginTest.createPlugin(threads, new StubOpacPlugin(0, prefs));
+        plugin.setPrefs(prefs);
+        plugin.setImportFolder(work.getAbsolutePath() + File.separator);
+        plugin.getConfiguration().setProperty("sourceFolder", corpus.getSourceFolder().getAbsolutePath());
+        plugin.getConfiguration().setProperty("imageTransfer.link", true);
+        plugin.getConfiguration().setProperty("chunkSize", chunkSize);
+        final int[] failures = new int[1];
+        if (chunkSize > 0) {
+            plugin.setChunkListener(new ImportChunkListener() {
+                @Override
+                public void chunkFinished(List<ImportObject> chunk) {
+                    // the results are discarded, a caller would save them
+                    failures[0] += countFailures(chunk);
+                }
+            });
+        }
+        System.gc();
+        resetPeakUsage();
+        long start = System.currentTimeMillis();
+        List<ImportObject> answer = plugin.generateFiles(records);
+        long duration = System.currentTimeMillis() - start;
+        long peak = getPeakUsage();
+        int count = records.size();
+        if (answer.size() + (chunkSize > 0 ? count : 0) != count) {
+            throw new IllegalStateException("unexpected number of results: " + answer.size());
+        }
+        failures[0] += countFailures(answer);
+        if (failures[0] > 0) {
+            throw new IllegalStateException(failures[0] + " of " + count + " maps were not imported");
+        }
+        FileUtils.deleteDirectory(work);
+        return peak / (1024 * 1024) + ";" + duration;
+    }
+
+    private static int countFailures(List<ImportObject> results) {
+        int failures = 0;
+        for (ImportObject io : results) {
+            if (io.getImportReturnValue() != ImportReturnValue.ExportFinished) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    static long getPeakUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+}
@@ -0,0 +1,140 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+import org.junit.Test;
+
+public class MapImportPluginTest {
+
+    private static final long OPAC_LATENCY = 100;
+
+    private static final int RECORDS = 8;
+
+    @Test
+    public void testResultOrder() {
+        MapImportPlugin plugin = createPlugin(4, new StubOpacPlugin(0));
+        List<ImportObject> answer = plugin.generateFiles(createRecords(20));
+
+        assertEquals(20, answer.size());
+        for (int i = 0; i < answer.size(); i++) {
+            assertEquals("map" + i, answer.get(i).getProcessTitle());
+            assertEquals(ImportReturnValue.InvalidData, answer.get(i).getImportReturnValue());
+        }
+    }
+
+    @Test
+    public void testPipelineResultOrder() {
+        MapImportPlugin plugin = createPlugin(1, new StubOpacPlugin(0));
+        plugin.getConfiguration().setProperty("pipeline[@enabled]", true);
+        plugin.getConfiguration().setProperty("pipeline.opacThreads", 4);
+        List<ImportObject> answer = plugin.generateFiles(createRecords(20));
+
+        assertEquals(20, answer.size());
+        for (int i = 0; i < answer.size(); i++) {
+            assertEquals("map" + i, answer.get(i).getProcessTitle());
+            assertEquals(ImportReturnValue.InvalidData, answer.get(i).getImportReturnValue());
+        }
+        assertEquals(20, plugin.getPipeline().getStages().get(0).getProcessed());
+        assertEquals(0, plugin.getPipeline().getStages().get(1).getProcessed());
+    }
+
+    @Test
+    public void testMetrics() {
+        MapImportPlugin plugin = createPlugin(4, new StubOpacPlugin(20));
+        plugin.generateFiles(createRecords(RECORDS));
+
+        ImportMetrics metrics = plugin.getMetrics();
+        assertFalse(metrics.isRunning());
+        assertEquals(RECORDS, metrics.getRecords());
+        assertEquals(RECORDS, metrics.getOpacRequests());
+        assertTrue(metrics.getOpacLatencyAverage() >= 20);
+        assertEquals("{opac: no record found=" + RECORDS + "}", metrics.getErrorCounts());
+    }
+
+    @Test
+    public void testChunks() {
+        MapImportPlugin plugin = createPlugin(2, new StubOpacPlugin(0));
+        plugin.getConfiguration().setProperty("chunkSize", 3);
+        final List<ImportObject> received = new ArrayList<ImportObject>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        plugin.setChunkListener(new ImportChunkListener() {
+            @Override
+            public void chunkFinished(List<ImportObject> chunk) {
+                sizes.add(chunk.size());
+                received.addAll(chunk);
+            }
+        });
+        List<ImportObject> answer = plugin.generateFiles(createRecords(10));
+
+        assertTrue(answer.isEmpty());
+        assertEquals(Arrays.asList(3, 3, 3, 1), sizes);
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals("map" + i, received.get(i).getProcessTitle());
+        }
+    }
+
+    @Test
+    public void testChunksWithoutListener() {
+        MapImportPlugin plugin = createPlugin(2, new StubOpacPlugin(0));
+        plugin.getConfiguration().setProperty("chunkSize", 3);
+        List<ImportObject> answer = plugin.generateFiles(createRecords(10));
+
+        assertEquals(10, answer.size());
+        for (int i = 0; i < answer.size(); i++) {
+            assertEquals("map" + i, answer.get(i).getProcessTitle());
+        }
+    }
+
+    @Test
+    public void testParallelSpeedup() {
+        long sequential = runBatch(1);
+        for (int parallelism = 2; parallelism <= 4; parallelism++) {
+            long parallel = runBatch(parallelism);
+            double speedup = (double) sequential / parallel;
+            // allow some scheduling overhead, but expect the speedup to grow with the configured threads
+            assertTrue("speedup with " + parallelism + " threads was " + speedup, speedup > parallelism * 0.7);
+        }
+    }
+
+    private long runBatch(int parallelism) {
+        StubOpacPlugin opac = new StubOpacPlugin(OPAC_LATENCY);
+        MapImportPlugin plugin = createPlugin(parallelism, opac);
+        long start = System.nanoTime();
+        plugin.generateFiles(createRecords(RECORDS));
+        long duration = System.nanoTime() - start;
+        assertEquals(RECORDS, opac.getSearches());
+        return duration;
+    }
+
+    static MapImportPlugin createPlugin(int parallelism, StubOpacPlugin opac) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("parallelism", parallelism);
+        config.setProperty("metrics.report", false);
+        config.setProperty("metrics.jmx", false);
+        MapImportPlugin plugin = new MapImportPlugin();
+        plugin.setConfiguration(config);
+        plugin.setOpacPlugin(opac, null);
+        plugin.setImportFolder(System.getProperty("java.io.tmpdir") + "/");
+        return plugin;
+    }
+
+    static List<Record> createRecords(int count) {
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < count; i++) {
+            Record record = new Record();
+            record.setId("map" + i);
+            record.setData("map" + i + ".tif");
+            records.add(record);
+        }
+        return records;
+    }
+
+}
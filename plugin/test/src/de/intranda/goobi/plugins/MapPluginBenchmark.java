@@ -0,0 +1,383 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+
+import ugh.dl.Prefs;
+import de.sub.goobi.forms.MassImportForm;
+
+/**
+ * End-to-end benchmark of {@link MapImportPlugin} and {@link MapUpdatePlugin}. The scenarios call generateFiles for a synthetic
+ * {@link BenchmarkCorpus}, with a catalogue stub of fixed latency and processes in memory. Every scenario runs once to warm up and is
+ * then measured several times. Usage:
+ *
+ * <pre>
+ * java -Xmx2g de.intranda.goobi.plugins.MapPluginBenchmark &lt;folder&gt; [records] [image width] [image height] [opac latency]
+ *         [threads] [iterations] [scenarios]
+ * </pre>
+ *
+ * The scenarios are a comma separated list of names, by default all scenarios run. A line per scenario is printed and appended to
+ * benchmark.csv in the folder, with the revision given in the system property benchmark.revision. The median of the last earlier run of
+ * a scenario with the same corpus is printed as well, so that two revisions can be compared on the same machine.
+ */
+public class MapPluginBenchmark {
+
+    private static final String HEADER = "date;revision;scenario;records;image size;threads;iterations;best ms;median ms;records/s;MB/s;"
+            + "peak heap MB;failures";
+
+    /**
+     * A configuration of one of the plugins.
+     */
+    private abstract class Scenario {
+
+        private final String name;
+
+        private final boolean images;
+
+        /**
+         * @param images true if the scenario copies the images
+         */
+        Scenario(String name, boolean images) {
+            this.name = name;
+            this.images = images;
+        }
+
+        /**
+         * Runs the batch once and returns the number of failed records.
+         *
+         * @param work empty import folder
+         */
+        abstract int run(List<Record> records, File work);
+    }
+
+    /**
+     * Counts the progress steps instead of showing a progress bar.
+     */
+    private static class CountingForm extends MassImportForm {
+
+        private final AtomicInteger steps = new AtomicInteger();
+
+        @Override
+        public void addProcessToProgressBar() {
+            steps.incrementAndGet();
+        }
+    }
+
+    private final File folder;
+
+    private final BenchmarkCorpus corpus;
+
+    private final Prefs prefs;
+
+    private final StubOpacPlugin opac;
+
+    private final InMemoryProcessQuery processes;
+
+    private final CountingForm form;
+
+    private final int threads;
+
+    private MapPluginBenchmark(File folder, BenchmarkCorpus corpus, long latency, int threads) throws Exception {
+        this.folder = folder;
+        this.corpus = corpus;
+        this.threads = threads;
+        prefs = new Prefs();
+        prefs.loadPrefs(MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+        opac = new StubOpacPlugin(latency, prefs);
+        // every run starts with processes that were not updated yet
+        File processFolder = new File(folder, "processes");
+        FileUtils.deleteDirectory(processFolder);
+        processes = new InMemoryProcessQuery(prefs, processFolder);
+        for (Record record : corpus.createRecords()) {
+            processes.add(record.getId());
+        }
+        form = createForm();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File folder = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "map_benchmark");
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 1500;
+        long latency = args.length > 4 ? Long.parseLong(args[4]) : 50;
+        int threads = args.length > 5 ? Integer.parseInt(args[5]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+        int iterations = args.length > 6 ? Integer.parseInt(args[6]) : 5;
+        List<String> names = args.length > 7 ? Arrays.asList(args[7].split(",")) : null;
+
+        BenchmarkCorpus corpus = new BenchmarkCorpus(folder, records, width, height);
+        System.out.println("creating " + records + " maps with " + width + "x" + height + " pixels in " + folder);
+        corpus.create();
+
+        MapPluginBenchmark benchmark = new MapPluginBenchmark(folder, corpus, latency, threads);
+        Map<String, Scenario> scenarios = benchmark.createScenarios();
+        if (names != null) {
+            scenarios.keySet().retainAll(names);
+        }
+        File results = new File(folder, "benchmark.csv");
+        Map<String, String[]> earlier = readResults(results);
+        System.out.println(HEADER);
+        for (Scenario scenario : scenarios.values()) {
+            String[] result = benchmark.run(scenario, iterations, width + "x" + height);
+            String line = join(result);
+            System.out.println(line);
+            appendResult(results, line);
+            String[] before = earlier.get(getKey(result));
+            if (before != null) {
+                double change = (Double.parseDouble(result[8]) - Double.parseDouble(before[8])) * 100 / Double.parseDouble(before[8]);
+                System.out.println("    median before: " + before[8] + " ms, revision " + before[1] + " of " + before[0] + " ("
+                        + String.format("%+.1f", change) + "%)");
+            }
+        }
+    }
+
+    private Map<String, Scenario> createScenarios() {
+        Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+        add(scenarios, new Scenario("import-sequential", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                return runImport(createConfiguration(1), records, work);
+            }
+        });
+        add(scenarios, new Scenario("import-parallel", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                return runImport(createConfiguration(threads), records, work);
+            }
+        });
+        add(scenarios, new Scenario("import-pipeline", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                XMLConfiguration config = createConfiguration(1);
+                config.setProperty("pipeline[@enabled]", true);
+                config.setProperty("pipeline.opacThreads", threads);
+                config.setProperty("pipeline.metsThreads", 2);
+                config.setProperty("pipeline.imageThreads", 2);
+                return runImport(config, records, work);
+            }
+        });
+        add(scenarios, new Scenario("import-adaptive", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                // the limiters start low and find the concurrency below the number of threads
+                XMLConfiguration config = createConfiguration(threads);
+                config.setProperty("adaptiveConcurrency[@enabled]", true);
+                config.setProperty("adaptiveConcurrency.opac.max", threads);
+                config.setProperty("adaptiveConcurrency.copy.max", threads);
+                return runImport(config, records, work);
+            }
+        });
+        add(scenarios, new Scenario("import-devices", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                // the corpus is on a single device, so this measures the cost of the hand over to the device threads
+                XMLConfiguration config = createConfiguration(threads);
+                config.setProperty("deviceQueues[@enabled]", true);
+                config.setProperty("deviceQueues.threads", 2);
+                return runImport(config, records, work);
+            }
+        });
+        add(scenarios, new Scenario("import-derivatives", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                XMLConfiguration config = createConfiguration(threads);
+                config.setProperty("derivatives[@enabled]", true);
+                return runImport(config, records, work);
+            }
+        });
+        add(scenarios, new Scenario("import-deduplication", true) {
+            @Override
+            int run(List<Record> records, File work) {
+                // all images of the corpus have the same size, so every image needs a checksum
+                XMLConfiguration config = createConfiguration(threads);
+                config.setProperty("deduplication[@enabled]", true);
+                config.setProperty("deduplication.index", new File(work, "content.idx").getAbsolutePath());
+                return runImport(config, records, work);
+            }
+        });
+        add(scenarios, new Scenario("update-sequential", false) {
+            @Override
+            int run(List<Record> records, File work) {
+                return runUpdate(createConfiguration(1), records, work);
+            }
+        });
+        add(scenarios, new Scenario("update-parallel", false) {
+            @Override
+            int run(List<Record> records, File work) {
+                return runUpdate(createConfiguration(threads), records, work);
+            }
+        });
+        return scenarios;
+    }
+
+    private static void add(Map<String, Scenario> scenarios, Scenario scenario) {
+        scenarios.put(scenario.name, scenario);
+    }
+
+    /**
+     * Runs a scenario once to warm up and then the given number of times.
+     *
+     * @return the fields of the result line
+     */
+    private String[] run(Scenario scenario, int iterations, String imageSize) throws IOException {
+        List<Record> records = corpus.createRecords();
+        File work = new File(folder, "run");
+        FileUtils.deleteDirectory(work);
+        measure(scenario, records, work);
+        List<Long> durations = new ArrayList<Long>(iterations);
+        long peak = 0;
+        int failures = 0;
+        for (int i = 0; i < iterations; i++) {
+            FileUtils.deleteDirectory(work);
+            System.gc();
+            MapImportMemoryBenchmark.resetPeakUsage();
+            long start = System.nanoTime();
+            failures = Math.max(failures, measure(scenario, records, work));
+            durations.add(Math.max(1, (System.nanoTime() - start) / 1000000));
+            peak = Math.max(peak, MapImportMemoryBenchmark.getPeakUsage());
+        }
+        FileUtils.deleteDirectory(work);
+        Collections.sort(durations);
+        long best = durations.get(0);
+        long median = durations.get(durations.size() / 2);
+        double megabytes = scenario.images ? corpus.getBytes() / 1048576.0 : 0;
+        return new String[] { new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date()),
+                System.getProperty("benchmark.revision", "unknown"), scenario.name, String.valueOf(records.size()), imageSize,
+                String.valueOf(threads), String.valueOf(iterations), String.valueOf(best), String.valueOf(median),
+                String.format("%.2f", records.size() * 1000.0 / median), String.format("%.2f", megabytes * 1000 / median),
+                String.valueOf(peak / 1048576), String.valueOf(failures) };
+    }
+
+    private int measure(Scenario scenario, List<Record> records, File work) {
+        work.mkdirs();
+        if (form != null) {
+            form.steps.set(0);
+        }
+        int failures = scenario.run(records, work);
+        if (form != null && form.steps.get() != records.size()) {
+            throw new IllegalStateException(scenario.name + " advanced the progress bar by " + form.steps.get() + " of " + records.size());
+        }
+        return failures;
+    }
+
+    private XMLConfiguration createConfiguration(int parallelism) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("parallelism", parallelism);
+        config.setProperty("metrics.report", false);
+        config.setProperty("metrics.jmx", false);
+        config.setProperty("sourceFolder", corpus.getSourceFolder().getAbsolutePath());
+        return config;
+    }
+
+    private int runImport(XMLConfiguration config, List<Record> records, File work) {
+        MapImportPlugin plugin = new MapImportPlugin();
+        plugin.setConfiguration(config);
+        plugin.setPrefs(prefs);
+        plugin.setOpacPlugin(opac, null);
+        plugin.setProcessQuery(processes);
+        plugin.setImportFolder(work.getAbsolutePath() + File.separator);
+        plugin.setForm(form);
+        int failures = 0;
+        for (ImportObject io : plugin.generateFiles(records)) {
+            if (io.getImportReturnValue() != ImportReturnValue.ExportFinished) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private int runUpdate(XMLConfiguration config, List<Record> records, File work) {
+        config.setProperty("catalogueExport[@enabled]", true);
+        config.setProperty("catalogueExport.file", corpus.getExport().getAbsolutePath());
+        config.setProperty("catalogueExport.index", corpus.getExport().getAbsolutePath() + ".idx");
+        MapUpdatePlugin plugin = new MapUpdatePlugin();
+        plugin.setConfiguration(config);
+        plugin.setPrefs(prefs);
+        plugin.setProcessQuery(processes);
+        plugin.setImportFolder(work.getAbsolutePath() + File.separator);
+        plugin.setForm(form);
+        return plugin.generateFiles(records).size();
+    }
+
+    /**
+     * Returns a form that counts the progress, or null if the form cannot be created outside of goobi.
+     */
+    private static CountingForm createForm() {
+        try {
+            return new CountingForm();
+        } catch (RuntimeException | LinkageError e) {
+            System.out.println("the progress is not counted, the form cannot be created: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the last result of each scenario and corpus.
+     */
+    private static Map<String, String[]> readResults(File file) throws IOException {
+        Map<String, String[]> results = new HashMap<String, String[]>();
+        if (!file.isFile()) {
+            return results;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(";", -1);
+                if (fields.length == 13 && !line.equals(HEADER)) {
+                    results.put(getKey(fields), fields);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static void appendResult(File file, String line) throws IOException {
+        boolean exists = file.isFile();
+        try (Writer writer =
+                Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (!exists) {
+                writer.write(HEADER + "\n");
+            }
+            writer.write(line + "\n");
+        }
+    }
+
+    /**
+     * Results are comparable if scenario, corpus and threads are the same.
+     */
+    private static String getKey(String[] fields) {
+        return fields[2] + ";" + fields[3] + ";" + fields[4] + ";" + fields[5];
+    }
+
+    private static String join(String[] fields) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : fields) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(field);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import org.apache.commons.configuration.XMLConfiguration;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+/**
+ * Measures the time per record needed to add collection, image path and page, once with a type lookup for every record like the former
+ * convertData() and once with {@link MapRecordEnricher}. Usage:
+ * 
+ * <pre>
+ * java de.intranda.goobi.plugins.MapRecordEnricherBenchmark &lt;ruleset&gt; [records]
+ * </pre>
+ * 
+ * The production ruleset should be used, the lookup cost depends on the number of types it defines.
+ */
+public class MapRecordEnricherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(args.length > 0 ? args[0] : MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        String topStruct = args.length > 2 ? args[2] : "Map";
+
+        // warm up
+        lookup(prefs, topStruct, records / 10);
+        enrich(prefs, topStruct, records / 10);
+
+        long start = System.nanoTime();
+        lookup(prefs, topStruct, records);
+        long lookup = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        enrich(prefs, topStruct, records);
+        long enricher = System.nanoTime() - start;
+
+        System.out.println("method;records;ns per record");
+        System.out.println("lookup per record;" + records + ";" + lookup / records);
+        System.out.println("MapRecordEnricher;" + records + ";" + enricher / records);
+    }
+
+    private static void lookup(Prefs prefs, String topStruct, int records) throws Exception {
+        for (int i = 0; i < records; i++) {
+            String identifier = "AC" + i;
+            DigitalDocument dd = createRecord(prefs, topStruct);
+            DocStruct log = dd.getLogicalDocStruct();
+            Metadata col = new Metadata(prefs.getMetadataTypeByName("singleDigCollection"));
+            col.setValue("Karten");
+            log.addMetadata(col);
+
+            DocStruct phys = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+            dd.setPhysicalDocStruct(phys);
+            Metadata path = new Metadata(prefs.getMetadataTypeByName("pathimagefiles"));
+            path.setValue(identifier + "/images/" + identifier + "_media");
+            phys.addMetadata(path);
+
+            DocStruct page = dd.createDocStruct(prefs.getDocStrctTypeByName("page"));
+            page.setImageName(identifier + ".tif");
+            Metadata logOrder = new Metadata(prefs.getMetadataTypeByName("logicalPageNumber"));
+            logOrder.setValue("-");
+            page.addMetadata(logOrder);
+            Metadata physOrder = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
+            physOrder.setValue("1");
+            page.addMetadata(physOrder);
+            phys.addChild(page);
+        }
+    }
+
+    private static void enrich(Prefs prefs, String topStruct, int records) throws Exception {
+        MapRecordEnricher enricher = new MapRecordEnricher(new XMLConfiguration(), prefs);
+        for (int i = 0; i < records; i++) {
+            enricher.enrich(createRecord(prefs, topStruct), "AC" + i);
+        }
+    }
+
+    private static DigitalDocument createRecord(Prefs prefs, String topStruct) throws Exception {
+        DigitalDocument dd = new DigitalDocument();
+        dd.setLogicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName(topStruct)));
+        return dd;
+    }
+
+}
@@ -0,0 +1,129 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class MapRecordEnricherTest {
+
+    private Prefs prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(getResource("ruleset.xml").getAbsolutePath());
+    }
+
+    @Test
+    public void testDefaultRules() throws Exception {
+        MapRecordEnricher enricher = new MapRecordEnricher(new XMLConfiguration(), prefs);
+        DigitalDocument dd = createRecord();
+        enricher.enrich(dd, "AC12345");
+
+        assertEquals("Karten", getValue(dd.getLogicalDocStruct(), "singleDigCollection"));
+
+        DocStruct phys = dd.getPhysicalDocStruct();
+        assertEquals("BoundBook", phys.getType().getName());
+        assertEquals("AC12345/images/AC12345_media", getValue(phys, "pathimagefiles"));
+
+        List<DocStruct> pages = phys.getAllChildren();
+        assertEquals(1, pages.size());
+        DocStruct page = pages.get(0);
+        assertEquals("page", page.getType().getName());
+        assertEquals("AC12345.tif", page.getImageName());
+        assertEquals("-", getValue(page, "logicalPageNumber"));
+        assertEquals("1", getValue(page, "physPageNumber"));
+    }
+
+    @Test
+    public void testConfiguredRules() throws Exception {
+        MapRecordEnricher enricher = new MapRecordEnricher(new XMLConfiguration(getResource("enrichment.xml")), prefs);
+        DigitalDocument dd = createRecord();
+        enricher.enrich(dd, "AC12345", Arrays.asList("AC12345_0001.tif", "AC12345_0002.tif", "AC12345_0003.tif"));
+
+        assertEquals("UBW AC12345", getValue(dd.getLogicalDocStruct(), "shelfmarksource"));
+        List<DocStruct> pages = dd.getPhysicalDocStruct().getAllChildren();
+        assertEquals(3, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            assertEquals("AC12345_000" + (i + 1) + ".tif", pages.get(i).getImageName());
+            assertEquals(String.valueOf(i + 1), getValue(pages.get(i), "physPageNumber"));
+            assertEquals(String.valueOf(i + 1), getValue(pages.get(i), "logicalPageNumber"));
+        }
+    }
+
+    @Test
+    public void testExistingPhysicalElementIsUsed() throws Exception {
+        MapRecordEnricher enricher = new MapRecordEnricher(new XMLConfiguration(), prefs);
+        DigitalDocument dd = createRecord();
+        DocStruct phys = dd.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        dd.setPhysicalDocStruct(phys);
+        enricher.enrich(dd, "AC12345");
+
+        assertSame(phys, dd.getPhysicalDocStruct());
+        assertEquals(1, phys.getAllChildren().size());
+    }
+
+    @Test
+    public void testEnricherIsReusable() throws Exception {
+        MapRecordEnricher enricher = new MapRecordEnricher(new XMLConfiguration(), prefs);
+        for (String identifier : Arrays.asList("AC1", "AC2")) {
+            DigitalDocument dd = createRecord();
+            enricher.enrich(dd, identifier);
+            assertEquals(1, dd.getPhysicalDocStruct().getAllChildren().size());
+            assertEquals(identifier + ".tif", dd.getPhysicalDocStruct().getAllChildren().get(0).getImageName());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() throws Exception {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("enrichment.page[@type]", "Seite");
+        new MapRecordEnricher(config, prefs);
+    }
+
+    @Test
+    public void testTemplate() {
+        assertEquals("AC1/images/AC1_media", new MapRecordEnricher.Template("{id}/images/{id}_media").apply("AC1", 3));
+        assertEquals("3", new MapRecordEnricher.Template("{order}").apply("AC1", 3));
+        assertEquals("Karten", new MapRecordEnricher.Template("Karten").apply("AC1", 3));
+        assertEquals("{ids}", new MapRecordEnricher.Template("{ids}").apply("AC1", 3));
+        assertEquals("", new MapRecordEnricher.Template("").apply("AC1", 3));
+    }
+
+    private DigitalDocument createRecord() throws Exception {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct map = dd.createDocStruct(prefs.getDocStrctTypeByName("Map"));
+        Metadata title = new Metadata(prefs.getMetadataTypeByName("TitleDocMain"));
+        title.setValue("Karte von Wien");
+        map.addMetadata(title);
+        dd.setLogicalDocStruct(map);
+        return dd;
+    }
+
+    private static String getValue(DocStruct ds, String type) {
+        String value = null;
+        for (Metadata md : ds.getAllMetadata()) {
+            if (md.getType().getName().equals(type)) {
+                assertNull("duplicate metadata " + type, value);
+                value = md.getValue();
+            }
+        }
+        return value;
+    }
+
+    static File getResource(String name) throws Exception {
+        return new File(MapRecordEnricherTest.class.getResource(name).toURI());
+    }
+
+}
@@ -0,0 +1,172 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class MapUpdatePluginTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Prefs prefs;
+
+    private InMemoryProcessQuery processes;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+        processes = new InMemoryProcessQuery(prefs, folder.newFolder("processes"));
+        // widens the time between reading and writing a mets file, so that concurrent updates of a process would overlap
+        processes.setWriteDelay(5);
+    }
+
+    @Test
+    public void testParallelUpdate() throws Exception {
+        // AC17 is not in the export, AC18 has no process and AC19 has two
+        writeExport(17);
+        for (int i = 0; i < 18; i++) {
+            processes.add("AC" + i);
+        }
+        processes.add("AC19");
+        processes.add("AC19");
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 20; i++) {
+            records.add(createRecord("AC" + i));
+        }
+        records.add(createRecord("AC3"));
+
+        MapUpdatePlugin plugin = createPlugin(4);
+        List<ImportObject> failures = plugin.generateFiles(records);
+
+        assertEquals(3, failures.size());
+        assertEquals("AC17", failures.get(0).getProcessTitle());
+        assertEquals(ImportReturnValue.InvalidData, failures.get(0).getImportReturnValue());
+        assertEquals("AC18", failures.get(1).getProcessTitle());
+        assertEquals(ImportReturnValue.NoData, failures.get(1).getImportReturnValue());
+        assertEquals("AC19", failures.get(2).getProcessTitle());
+        assertEquals(ImportReturnValue.DataAllreadyExists, failures.get(2).getImportReturnValue());
+
+        // the second update of AC3 finds the metadata of the first
+        UpdateSummary summary = plugin.getSummary();
+        assertEquals(17, summary.getCount(UpdateSummary.Result.UPDATED));
+        assertEquals(1, summary.getCount(UpdateSummary.Result.UNCHANGED));
+        assertEquals(3, summary.getCount(UpdateSummary.Result.FAILED));
+        for (InMemoryProcessQuery.MemoryProcess process : processes.getAll()) {
+            assertTrue("concurrent writes of " + process.getTitel(), process.getMaxWriters() <= 1);
+            int expected = process.getId() <= 17 ? 1 : 0;
+            assertEquals("writes of " + process.getTitel(), expected, process.getWrites());
+        }
+    }
+
+    @Test
+    public void testSequentialUpdate() throws Exception {
+        writeExport(5);
+        for (int i = 0; i < 5; i++) {
+            processes.add("AC" + i);
+        }
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 6; i++) {
+            records.add(createRecord("AC" + i));
+        }
+
+        MapUpdatePlugin plugin = createPlugin(1);
+        List<ImportObject> failures = plugin.generateFiles(records);
+
+        assertEquals(1, failures.size());
+        assertEquals("AC5: no process found", failures.get(0).getErrorMessage());
+        assertEquals("5 maps updated, 0 unchanged, 1 failed", plugin.getSummary().toString());
+    }
+
+    @Test
+    public void testExportKeepsUnmappedTypes() throws Exception {
+        writeExport(1);
+        InMemoryProcessQuery.MemoryProcess process = (InMemoryProcessQuery.MemoryProcess) processes.add("AC0");
+        Fileformat ff = process.readMetadataFile();
+        DocStruct map = ff.getDigitalDocument().getLogicalDocStruct();
+        map.addMetadata(createMetadata("TitleDocMain", "Alte Karte"));
+        // e.g. written by an earlier update from the opac, the export mapping does not contain the type
+        map.addMetadata(createMetadata("shelfmarksource", "K-1"));
+        process.writeMetadataFile(ff);
+
+        MapUpdatePlugin plugin = createPlugin(1);
+        assertTrue(plugin.generateFiles(Arrays.asList(createRecord("AC0"))).isEmpty());
+
+        assertEquals("1 maps updated, 0 unchanged, 0 failed", plugin.getSummary().toString());
+        List<String> values = new ArrayList<String>();
+        for (Metadata md : process.readMetadataFile().getDigitalDocument().getLogicalDocStruct().getAllMetadata()) {
+            values.add(md.getType().getName() + "=" + md.getValue());
+        }
+        assertTrue(values.toString(), values.contains("TitleDocMain=Karte 0 Blatt 1"));
+        assertTrue(values.toString(), values.contains("shelfmarksource=K-1"));
+        assertFalse(values.toString(), values.contains("TitleDocMain=Alte Karte"));
+    }
+
+    @Test
+    public void testStripedLocks() {
+        StripedLocks locks = new StripedLocks(100);
+        assertEquals(128, locks.size());
+        assertSame(locks.get(Integer.valueOf(4711)), locks.get(Integer.valueOf(4711)));
+        assertEquals(1, new StripedLocks(1).size());
+    }
+
+    private MapUpdatePlugin createPlugin(int parallelism) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("parallelism", parallelism);
+        config.setProperty("metrics.report", false);
+        config.setProperty("metrics.jmx", false);
+        config.setProperty("catalogueExport[@enabled]", true);
+        config.setProperty("catalogueExport.file", new File(folder.getRoot(), "export.xml").getAbsolutePath());
+        config.setProperty("catalogueExport.index", new File(folder.getRoot(), "export.idx").getAbsolutePath());
+        MapUpdatePlugin plugin = new MapUpdatePlugin();
+        plugin.setConfiguration(config);
+        plugin.setPrefs(prefs);
+        plugin.setImportFolder(folder.getRoot().getAbsolutePath() + "/");
+        plugin.setProcessQuery(processes);
+        return plugin;
+    }
+
+    private void writeExport(int records) throws IOException {
+        StringBuilder sb = new StringBuilder("<collection>");
+        for (int i = 0; i < records; i++) {
+            sb.append(MarcDumpIndexTest.createRecord("", "AC" + i, "Karte " + i, 'c'));
+        }
+        sb.append("</collection>");
+        Files.write(new File(folder.getRoot(), "export.xml").toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Metadata createMetadata(String type, String value) throws Exception {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        return md;
+    }
+
+    private static Record createRecord(String identifier) {
+        Record record = new Record();
+        record.setId(identifier);
+        record.setData(identifier + ".tif");
+        return record;
+    }
+
+}
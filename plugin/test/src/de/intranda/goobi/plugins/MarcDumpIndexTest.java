@@ -0,0 +1,154 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class MarcDumpIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLookup() throws IOException {
+        File export = writeExport(1000, "");
+        File indexFile = new File(folder.getRoot(), "export.idx");
+        try (MarcDumpIndex index = MarcDumpIndex.open(export, indexFile, "009")) {
+            assertEquals(1000, index.size());
+            for (int i = 0; i < 1000; i += 37) {
+                MarcRecord record = index.get("AC" + i);
+                assertNotNull(record);
+                assertEquals("Karte " + i + " Blatt 1", record.getValue("245$ab"));
+                assertEquals(Arrays.asList("Wien", "Graz"), record.getValues("264$a"));
+            }
+            assertNull(index.get("AC1000"));
+            assertNull(index.get("ac1"));
+        }
+        assertTrue(indexFile.isFile());
+    }
+
+    @Test
+    public void testNamespacePrefix() throws IOException {
+        File export = writeExport(10, "marc:");
+        try (MarcDumpIndex index = MarcDumpIndex.open(export, new File(folder.getRoot(), "export.idx"), "009")) {
+            assertEquals(10, index.size());
+            assertEquals("Karte 5 Blatt 1", index.get("AC5").getValue("245$ab"));
+        }
+    }
+
+    @Test
+    public void testLastRecordWins() throws IOException {
+        File export = folder.newFile("export.xml");
+        write(export, "<collection>" + createRecord("", "AC1", "alt", 'c') + createRecord("", "AC2", "Karte", 'c')
+                + createRecord("", "AC1", "neu", 'c') + createRecord("", "AC2", "Karte", 'd') + "</collection>");
+        try (MarcDumpIndex index = MarcDumpIndex.open(export, new File(folder.getRoot(), "export.idx"), "009")) {
+            assertEquals("neu Blatt 1", index.get("AC1").getValue("245$ab"));
+            // the last record of AC2 is deleted
+            assertNull(index.get("AC2"));
+        }
+    }
+
+    @Test
+    public void testRebuildAfterChange() throws Exception {
+        File export = writeExport(5, "");
+        File indexFile = new File(folder.getRoot(), "export.idx");
+        MarcDumpIndex index = MarcDumpIndex.open(export, indexFile, "009");
+        assertTrue(index.isCurrent());
+        index.close();
+
+        write(export, "<collection>" + createRecord("", "AC9", "neu", 'c') + "</collection>");
+        export.setLastModified(export.lastModified() + 2000);
+        assertFalse(index.isCurrent());
+        try (MarcDumpIndex rebuilt = MarcDumpIndex.open(export, indexFile, "009")) {
+            assertEquals(1, rebuilt.size());
+            assertNotNull(rebuilt.get("AC9"));
+            assertNull(rebuilt.get("AC1"));
+        }
+        // another identifier field needs a new index as well
+        try (MarcDumpIndex rebuilt = MarcDumpIndex.open(export, indexFile, "245$a")) {
+            assertNotNull(rebuilt.get("neu"));
+        }
+    }
+
+    @Test
+    public void testMapping() throws Exception {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+        XMLConfiguration config = createConfiguration("<field marc=\"245$ab\" metadata=\"TitleDocMain\" />"
+                + "<field marc=\"264$a\" metadata=\"shelfmarksource\" />");
+
+        File export = writeExport(3, "");
+        try (MarcDumpIndex index = MarcDumpIndex.open(export, new File(folder.getRoot(), "export.idx"), "009")) {
+            DocStruct map = new MarcRecordMapper(config, prefs).map(index.get("AC2")).getDigitalDocument().getLogicalDocStruct();
+            assertEquals("Map", map.getType().getName());
+            List<Metadata> metadata = map.getAllMetadata();
+            assertEquals(3, metadata.size());
+            assertEquals("Karte 2 Blatt 1", metadata.get(0).getValue());
+            assertEquals("Wien", metadata.get(1).getValue());
+            assertEquals("Graz", metadata.get(2).getValue());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMetadataType() throws Exception {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+        new MarcRecordMapper(createConfiguration("<field marc=\"255$a\" metadata=\"Scale\" />"), prefs);
+    }
+
+    private XMLConfiguration createConfiguration(String fields) throws Exception {
+        File file = folder.newFile("config.xml");
+        write(file, "<config_plugin><catalogueExport enabled=\"true\">" + fields + "</catalogueExport></config_plugin>");
+        return new XMLConfiguration(file);
+    }
+
+    private File writeExport(int records, String prefix) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<").append(prefix).append("collection xmlns").append(prefix.isEmpty() ? "" : ":marc")
+                .append("=\"http://www.loc.gov/MARC21/slim\">\n");
+        for (int i = 0; i < records; i++) {
+            sb.append(createRecord(prefix, "AC" + i, "Karte " + i, 'c'));
+        }
+        sb.append("</").append(prefix).append("collection>\n");
+        File export = new File(folder.getRoot(), "export.xml");
+        write(export, sb.toString());
+        return export;
+    }
+
+    static String createRecord(String prefix, String identifier, String title, char status) {
+        return "<" + prefix + "record type=\"Bibliographic\">\n"
+                + "  <" + prefix + "leader>00000" + status + "em a2200000 c 4500</" + prefix + "leader>\n"
+                + "  <" + prefix + "controlfield tag=\"001\">99" + identifier.hashCode() + "</" + prefix + "controlfield>\n"
+                + "  <" + prefix + "controlfield tag=\"009\">" + identifier + "</" + prefix + "controlfield>\n"
+                + "  <" + prefix + "datafield tag=\"245\" ind1=\"1\" ind2=\"0\">\n"
+                + "    <" + prefix + "subfield code=\"a\">" + title + "</" + prefix + "subfield>\n"
+                + "    <" + prefix + "subfield code=\"b\">Blatt 1</" + prefix + "subfield>\n"
+                + "    <" + prefix + "subfield code=\"c\">&lt;Verlag&gt;</" + prefix + "subfield>\n"
+                + "  </" + prefix + "datafield>\n"
+                + "  <" + prefix + "datafield tag=\"264\" ind1=\" \" ind2=\"1\"><" + prefix + "subfield code=\"a\">Wien</" + prefix
+                + "subfield></" + prefix + "datafield>\n"
+                + "  <" + prefix + "datafield tag=\"264\" ind1=\" \" ind2=\"1\"><" + prefix + "subfield code=\"a\">Graz</" + prefix
+                + "subfield></" + prefix + "datafield>\n"
+                + "</" + prefix + "record>\n";
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
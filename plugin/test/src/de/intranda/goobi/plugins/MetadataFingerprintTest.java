@@ -0,0 +1,63 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+import ugh.exceptions.MetadataTypeNotAllowedException;
+
+public class MetadataFingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOrderIsIgnored() throws MetadataTypeNotAllowedException {
+        Metadata title = create("TitleDocMain", "Karte von Wien");
+        Metadata year = create("PublicationYear", "1850");
+        Metadata collection = create("singleDigCollection", " Karten ");
+
+        String fingerprint = MetadataFingerprint.create(Arrays.asList(title, year, collection));
+        assertEquals(fingerprint, MetadataFingerprint.create(Arrays.asList(collection, title, year)));
+        assertEquals(fingerprint, MetadataFingerprint.create(Arrays.asList(year, create("singleDigCollection", "Karten"), title)));
+    }
+
+    @Test
+    public void testChangesAreDetected() throws MetadataTypeNotAllowedException {
+        List<Metadata> metadata = new ArrayList<Metadata>();
+        metadata.add(create("TitleDocMain", "Karte von Wien"));
+        String fingerprint = MetadataFingerprint.create(metadata);
+
+        assertFalse(fingerprint.equals(MetadataFingerprint.create(Arrays.asList(create("TitleDocMain", "Karte von Graz")))));
+        assertFalse(fingerprint.equals(MetadataFingerprint.create(Arrays.asList(create("OtherTitle", "Karte von Wien")))));
+        metadata.add(create("TitleDocMain", "Karte von Wien"));
+        assertFalse(fingerprint.equals(MetadataFingerprint.create(metadata)));
+        assertEquals(MetadataFingerprint.create(null), MetadataFingerprint.create(new ArrayList<Metadata>()));
+    }
+
+    @Test
+    public void testReadAndWrite() throws IOException, MetadataTypeNotAllowedException {
+        assertNull(MetadataFingerprint.read(folder.getRoot()));
+        String fingerprint = MetadataFingerprint.create(Arrays.asList(create("TitleDocMain", "Karte von Wien")));
+        MetadataFingerprint.write(folder.getRoot(), fingerprint);
+        assertEquals(fingerprint, MetadataFingerprint.read(folder.getRoot()));
+    }
+
+    private Metadata create(String type, String value) throws MetadataTypeNotAllowedException {
+        MetadataType metadataType = new MetadataType();
+        metadataType.setName(type);
+        Metadata md = new Metadata(metadataType);
+        md.setValue(value);
+        return md;
+    }
+
+}
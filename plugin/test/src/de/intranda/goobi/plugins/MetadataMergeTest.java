@@ -0,0 +1,146 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+
+public class MetadataMergeTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Prefs prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        prefs = new Prefs();
+        prefs.loadPrefs(MapRecordEnricherTest.getResource("ruleset.xml").getAbsolutePath());
+    }
+
+    @Test
+    public void testCatalogueOwned() throws Exception {
+        DocStruct map = createMap("TitleDocMain", "Karte von Wien", "singleDigCollection", "Karten", "singleDigCollection", "Atlanten");
+        Metadata title = map.getAllMetadata().get(0);
+        MetadataMerge merge = new MetadataMerge(MetadataMerge.Rule.CATALOGUE, Collections.<String, MetadataMerge.Rule> emptyMap());
+
+        MetadataMerge.Diff diff = merge.merge(map,
+                createMetadata("TitleDocMain", "Karte von Wien ", "shelfmarksource", "K-1", "singleDigCollection", "Karten"));
+
+        assertEquals("[-singleDigCollection 'Atlanten', +shelfmarksource 'K-1']", diff.toString());
+        // equal values are kept as they are
+        assertSame(title, map.getAllMetadata().get(0));
+        assertEquals("Karte von Wien", title.getValue());
+        assertEquals(Arrays.asList("TitleDocMain=Karte von Wien", "singleDigCollection=Karten", "shelfmarksource=K-1"), values(map));
+
+        diff = merge.merge(map,
+                createMetadata("TitleDocMain", "Karte von Graz", "shelfmarksource", "K-1", "singleDigCollection", "Karten"));
+        assertEquals(1, diff.count(MetadataMerge.Kind.CHANGED));
+        assertEquals("TitleDocMain 'Karte von Wien' -> 'Karte von Graz'", diff.getChanges().get(0).toString());
+        assertSame(title, map.getAllMetadata().get(0));
+
+        assertTrue(merge.merge(map, createMetadata("TitleDocMain", "Karte von Graz", "shelfmarksource", "K-1", "singleDigCollection",
+                "Karten")).isEmpty());
+    }
+
+    @Test
+    public void testLocalAndAppend() throws Exception {
+        File file = folder.newFile("merge.xml");
+        String xml = "<config_plugin><merge default=\"catalogue\"><field type=\"shelfmarksource\" rule=\"local\" />"
+                + "<field type=\"singleDigCollection\" rule=\"Append\" /><field type=\"TitleDocMain\" rule=\"unknown\" />"
+                + "</merge></config_plugin>";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        MetadataMerge merge = MetadataMerge.create(new XMLConfiguration(file));
+        assertEquals(MetadataMerge.Rule.LOCAL, merge.getRule("shelfmarksource"));
+        assertEquals(MetadataMerge.Rule.APPEND, merge.getRule("singleDigCollection"));
+        assertEquals(MetadataMerge.Rule.CATALOGUE, merge.getRule("TitleDocMain"));
+
+        DocStruct map = createMap("shelfmarksource", "local shelfmark", "singleDigCollection", "Sammlung Wien");
+        MetadataMerge.Diff diff = merge.merge(map, createMetadata("TitleDocMain", "Karte", "shelfmarksource", "K-1",
+                "singleDigCollection", "Karten", "singleDigCollection", "Sammlung Wien"));
+
+        assertEquals("[+singleDigCollection 'Karten', +TitleDocMain 'Karte']", diff.toString());
+        assertEquals(Arrays.asList("shelfmarksource=local shelfmark", "singleDigCollection=Sammlung Wien", "singleDigCollection=Karten",
+                "TitleDocMain=Karte"), values(map));
+
+        // locally owned values are only added if the process has none
+        map = createMap("TitleDocMain", "Karte");
+        diff = merge.merge(map, createMetadata("TitleDocMain", "Karte", "shelfmarksource", "K-1"));
+        assertEquals("[+shelfmarksource 'K-1']", diff.toString());
+    }
+
+    @Test
+    public void testChangeLog() throws Exception {
+        DocStruct map = createMap("TitleDocMain", "Karte \"alt\"");
+        Map<String, MetadataMerge.Rule> rules = new HashMap<String, MetadataMerge.Rule>();
+        MetadataMerge.Diff diff = new MetadataMerge(MetadataMerge.Rule.CATALOGUE, rules).merge(map,
+                createMetadata("TitleDocMain", "Karte \"neu\"", "shelfmarksource", "K-1"));
+
+        UpdateChangeLog log = new UpdateChangeLog(folder.getRoot(), "mapupdate");
+        try {
+            log.write("AC1", 7, diff);
+            log.write("AC2", 8, new MetadataMerge.Diff());
+        } finally {
+            log.close();
+        }
+        assertEquals(1, log.getRecords());
+        assertEquals(2, log.getChanges());
+        assertTrue(log.getFile().getName().startsWith("mapupdate-changes-"));
+        List<String> lines = Files.readAllLines(log.getFile().toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        String line = lines.get(0);
+        assertTrue(line, line.startsWith("{\"identifier\": \"AC1\", \"process\": 7, \"time\": "));
+        assertTrue(line, line.endsWith(", \"changes\": [{\"kind\": \"changed\", \"type\": \"TitleDocMain\", "
+                + "\"old\": \"Karte \\\"alt\\\"\", \"new\": \"Karte \\\"neu\\\"\"}, "
+                + "{\"kind\": \"added\", \"type\": \"shelfmarksource\", \"new\": \"K-1\"}]}"));
+    }
+
+    private DocStruct createMap(String... values) throws Exception {
+        DigitalDocument dd = new DigitalDocument();
+        DocStruct map = dd.createDocStruct(prefs.getDocStrctTypeByName("Map"));
+        for (Metadata md : createMetadata(values)) {
+            map.addMetadata(md);
+        }
+        return map;
+    }
+
+    /**
+     * Creates metadata from pairs of type and value.
+     */
+    private List<Metadata> createMetadata(String... values) throws Exception {
+        List<Metadata> list = new ArrayList<Metadata>();
+        for (int i = 0; i < values.length; i += 2) {
+            Metadata md = new Metadata(prefs.getMetadataTypeByName(values[i]));
+            md.setValue(values[i + 1]);
+            list.add(md);
+        }
+        return list;
+    }
+
+    private static List<String> values(DocStruct map) {
+        List<String> values = new ArrayList<String>();
+        for (Metadata md : map.getAllMetadata()) {
+            values.add(md.getType().getName() + "=" + md.getValue());
+        }
+        return values;
+    }
+
+}
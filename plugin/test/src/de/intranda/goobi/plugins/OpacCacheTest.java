@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OpacCacheTest {
+
+    private static final long HOUR = 3600000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMissAndHit() throws IOException {
+        OpacCache<String> cache = createCache(HOUR, 100, 10);
+        assertNull(cache.get("OBVSG-MAP", "12", "AC123"));
+        assertEquals(1, cache.getMisses());
+
+        cache.put("OBVSG-MAP", "12", "AC123", "record");
+        assertEquals("record", cache.get("OBVSG-MAP", "12", "AC123"));
+        assertEquals(1, cache.getMemoryHits());
+
+        // same identifier in another catalogue or search field is a different entry
+        assertNull(cache.get("OBVSG", "12", "AC123"));
+        assertNull(cache.get("OBVSG-MAP", "1", "AC123"));
+    }
+
+    @Test
+    public void testPersistentEntries() throws IOException {
+        createCache(HOUR, 100, 10).put("OBVSG-MAP", "12", "AC123", "record");
+
+        OpacCache<String> cache = createCache(HOUR, 100, 10);
+        assertTrue(cache.contains("OBVSG-MAP", "12", "AC123"));
+        assertEquals("record", cache.get("OBVSG-MAP", "12", "AC123"));
+        assertEquals(1, cache.getDiskHits());
+        assertEquals("record", cache.get("OBVSG-MAP", "12", "AC123"));
+        assertEquals(1, cache.getMemoryHits());
+    }
+
+    @Test
+    public void testExpiredEntries() throws IOException {
+        OpacCache<String> cache = createCache(HOUR, 100, 10);
+        cache.put("OBVSG-MAP", "12", "AC123", "record");
+        File file = new File(folder.getRoot(), OpacCache.createKey("OBVSG-MAP", "12", "AC123") + ".xml");
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 2 * HOUR));
+
+        cache = createCache(HOUR, 100, 10);
+        assertFalse(cache.contains("OBVSG-MAP", "12", "AC123"));
+        assertNull(cache.get("OBVSG-MAP", "12", "AC123"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testSizeLimit() throws IOException {
+        OpacCache<String> cache = createCache(HOUR, 20, 5);
+        for (int i = 0; i < 50; i++) {
+            cache.put("OBVSG-MAP", "12", "AC" + i, "record " + i);
+        }
+        assertTrue(cache.getSize() <= 20);
+        assertEquals(cache.getSize(), folder.getRoot().list().length);
+        // the latest entries are still available
+        assertEquals("record 49", cache.get("OBVSG-MAP", "12", "AC49"));
+    }
+
+    private OpacCache<String> createCache(long timeToLive, int maxEntries, int memoryEntries) {
+        return new OpacCache<String>(folder.getRoot(), timeToLive, maxEntries, memoryEntries, new StringCodec());
+    }
+
+    private static class StringCodec implements OpacCache.Codec<String> {
+
+        @Override
+        public void write(String value, File file) throws IOException {
+            Files.write(file.toPath(), value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(File file) throws IOException {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String copy(String value) {
+            return value;
+        }
+    }
+
+}
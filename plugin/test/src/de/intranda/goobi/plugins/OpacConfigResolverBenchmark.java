@@ -0,0 +1,59 @@
+package de.intranda.goobi.plugins;
+
+import org.goobi.production.enums.PluginType;
+import org.goobi.production.plugin.PluginLoader;
+import org.goobi.production.plugin.interfaces.IOpacPlugin;
+
+import de.unigoettingen.sub.search.opac.ConfigOpac;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+
+/**
+ * Measures the time per record needed to get the catalogue configuration and the opac plugin, once with a new lookup for every record
+ * and once with {@link OpacConfigResolver}. Needs a goobi configuration folder with goobi_opac.xml and the opac plugins. Usage:
+ * 
+ * <pre>
+ * java de.intranda.goobi.plugins.OpacConfigResolverBenchmark [catalogue] [records]
+ * </pre>
+ */
+public class OpacConfigResolverBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String catalogue = args.length > 0 ? args[0] : "OBVSG-MAP";
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        // warm up
+        lookup(catalogue, 10);
+        resolve(catalogue, 10);
+
+        long start = System.nanoTime();
+        lookup(catalogue, records);
+        long lookup = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        resolve(catalogue, records);
+        long resolver = System.nanoTime() - start;
+
+        System.out.println("method;records;µs per record");
+        System.out.println("lookup per record;" + records + ";" + lookup / 1000 / records);
+        System.out.println("OpacConfigResolver;" + records + ";" + resolver / 1000 / records);
+    }
+
+    private static void lookup(String catalogue, int records) {
+        for (int i = 0; i < records; i++) {
+            ConfigOpacCatalogue coc = new ConfigOpac().getCatalogueByName(catalogue);
+            IOpacPlugin opacPlugin = (IOpacPlugin) PluginLoader.getPluginByTitle(PluginType.Opac, coc.getOpacType());
+            if (opacPlugin == null) {
+                throw new IllegalStateException("no opac plugin for " + catalogue);
+            }
+        }
+    }
+
+    private static void resolve(String catalogue, int records) throws Exception {
+        OpacConfigResolver resolver = new OpacConfigResolver(catalogue);
+        for (int i = 0; i < records; i++) {
+            resolver.getCatalogue();
+            resolver.getOpacPlugin();
+        }
+    }
+
+}
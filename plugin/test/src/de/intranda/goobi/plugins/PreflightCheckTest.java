@@ -0,0 +1,124 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Process;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PreflightCheckTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PreflightCheck.CatalogueProbe probe = new PreflightCheck.CatalogueProbe() {
+        @Override
+        public Boolean find(String identifier) throws Exception {
+            if ("AC4".equals(identifier)) {
+                throw new IOException("catalogue not available");
+            }
+            return !"AC3".equals(identifier);
+        }
+    };
+
+    @Test
+    public void testImport() throws IOException {
+        File source = folder.newFolder("source");
+        writeImage(source, "AC1.tif", 1000);
+        writeImage(source, "AC2_1.tif", 2000);
+        writeImage(source, "AC2_2.tif", 3000);
+        writeImage(source, "AC3.tif", 10);
+        writeImage(source, "AC4.tif", 10);
+        writeImage(source, "AC5.tif", 0);
+        List<Record> records = Arrays.asList(createRecord("AC1", "AC1.tif"), createRecord("AC2", "AC2_1.tif\nAC2_2.tif"),
+                createRecord("AC3", "AC3.tif"), createRecord("AC4", "AC4.tif"), createRecord("AC5", "AC5.tif"),
+                createRecord("AC6", "AC6.tif"), createRecord("AC1", "AC1.tif"));
+        Map<String, List<Process>> processes = new HashMap<String, List<Process>>();
+        processes.put("AC2", createProcesses(1));
+
+        PreflightReport report = new PreflightCheck(new SourceRoots(source.getAbsolutePath()), probe, 4).check(records, processes, false,
+                folder.newFolder("target"), true);
+
+        assertEquals(7, report.getRecords());
+        assertEquals(6, report.getImages());
+        assertEquals(7020, report.getSourceBytes());
+        assertEquals(7 * PreflightCheck.METS_SIZE + 7020, report.getRequiredBytes());
+        assertTrue(report.getUsableBytes() > 0);
+        assertEquals(5, report.count(PreflightReport.Severity.ERROR));
+        assertEquals(1, report.count(PreflightReport.Severity.WARNING));
+
+        List<ImportObject> failures = report.getFailures();
+        List<String> messages = new ArrayList<String>();
+        for (ImportObject io : failures) {
+            messages.add(io.getErrorMessage());
+        }
+        assertEquals(Arrays.asList("AC2: process exists already", "AC1: selected more than once", "AC3: no catalogue record found",
+                "AC5: AC5.tif is empty", "AC6: AC6.tif not found"), messages);
+        assertTrue(report.toJson().contains("\"message\": \"catalogue request failed: catalogue not available\""));
+    }
+
+    @Test
+    public void testUpdate() {
+        List<Record> records = Arrays.asList(createRecord("AC1", "AC1.tif"), createRecord("AC2", "AC2.tif"),
+                createRecord("AC3", "AC3.tif"));
+        Map<String, List<Process>> processes = new HashMap<String, List<Process>>();
+        processes.put("AC1", createProcesses(1));
+        processes.put("AC3", createProcesses(2));
+
+        PreflightReport report = new PreflightCheck(null, null, 2).check(records, processes, true, null, false);
+
+        assertEquals(3, report.getRecords());
+        assertEquals(0, report.getImages());
+        assertEquals(-1, report.getUsableBytes());
+        List<ImportObject> failures = report.getFailures();
+        assertEquals(2, failures.size());
+        assertEquals("AC2: no process found", failures.get(0).getErrorMessage());
+        assertEquals("AC3: 2 processes found", failures.get(1).getErrorMessage());
+    }
+
+    @Test
+    public void testReport() throws IOException {
+        List<Record> records = Arrays.asList(createRecord("AC1", "AC1.tif"));
+        Map<String, List<Process>> processes = new HashMap<String, List<Process>>();
+        PreflightReport report = new PreflightCheck(null, probe, 1).check(records, processes, false, null, false);
+        assertFalse(report.hasErrors());
+
+        File file = report.writeReport(folder.getRoot(), "mapimport");
+        assertTrue(file.getName().startsWith("mapimport-preflight-"));
+        String json = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+        assertTrue(json.contains("\"records\": 1,"));
+        assertTrue(json.contains("\"issues\": []"));
+    }
+
+    private static void writeImage(File folder, String name, int size) throws IOException {
+        Files.write(new File(folder, name).toPath(), new byte[size]);
+    }
+
+    private static Record createRecord(String identifier, String images) {
+        Record record = new Record();
+        record.setId(identifier);
+        record.setData(images);
+        return record;
+    }
+
+    private static List<Process> createProcesses(int count) {
+        List<Process> processes = new ArrayList<Process>();
+        for (int i = 0; i < count; i++) {
+            processes.add(new Process());
+        }
+        return processes;
+    }
+
+}
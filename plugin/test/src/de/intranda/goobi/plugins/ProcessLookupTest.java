@@ -0,0 +1,67 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Process;
+import org.junit.Test;
+
+public class ProcessLookupTest {
+
+    @Test
+    public void testChunkedQueries() {
+        InMemoryProcessQuery database = new InMemoryProcessQuery(null, null);
+        List<String> titles = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            database.add("AC" + i);
+            titles.add("AC" + i);
+        }
+
+        Map<String, List<Process>> processes = new ProcessLookup(database, 10).findByTitles(titles);
+
+        assertEquals(3, database.getQueries());
+        assertEquals(25, processes.size());
+        assertEquals("AC7", processes.get("AC7").get(0).getTitel());
+        assertEquals(Integer.valueOf(8), processes.get("AC7").get(0).getId());
+    }
+
+    @Test
+    public void testMissingAndDuplicateTitles() {
+        InMemoryProcessQuery database = new InMemoryProcessQuery(null, null);
+        database.add("AC1");
+        database.add("AC2");
+        database.add("AC2");
+
+        Map<String, List<Process>> processes = new ProcessLookup(database, 10).findByTitles(Arrays.asList("AC1", "AC2", "AC3", "AC1"));
+
+        assertEquals(1, database.getQueries());
+        assertEquals(1, processes.get("AC1").size());
+        assertEquals(2, processes.get("AC2").size());
+        assertNull(processes.get("AC3"));
+    }
+
+    @Test
+    public void testEscapedTitles() {
+        InMemoryProcessQuery database = new InMemoryProcessQuery(null, null);
+        database.add("it's a map");
+        database.add("x') OR ('1'='1");
+
+        Map<String, List<Process>> processes = new ProcessLookup(database, 10).findByTitles(Arrays.asList("it's a map", "x') OR ('1'='1"));
+
+        assertEquals(2, processes.size());
+        assertEquals("prozesse.titel IN ('it''s a map','back\\\\slash')", ProcessLookup.createFilter(Arrays.asList("it's a map", "back\\slash")));
+    }
+
+    @Test
+    public void testParseTitles() {
+        // the fixture reads the titles back from the filter like the database
+        List<String> titles = Arrays.asList("AC1", "it's a map", "back\\slash", "x') OR ('1'='1", "''", "");
+        assertEquals(titles, InMemoryProcessQuery.parseTitles(ProcessLookup.createFilter(titles)));
+        assertTrue(InMemoryProcessQuery.parseTitles(ProcessLookup.createFilter(new ArrayList<String>())).isEmpty());
+    }
+
+}
@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ProgressReporterTest {
+
+    @Test
+    public void testProgress() throws InterruptedException {
+        final AtomicInteger steps = new AtomicInteger();
+        final ProgressReporter reporter = ProgressReporter.start(new Runnable() {
+            @Override
+            public void run() {
+                steps.incrementAndGet();
+            }
+        }, 10);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        reporter.recordFinished();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        reporter.close();
+
+        assertEquals(40000, steps.get());
+    }
+
+    @Test
+    public void testMessages() {
+        ProgressReporter reporter = ProgressReporter.start(null, 1);
+        reporter.info("10 maps updated");
+        for (int i = 0; i < 3; i++) {
+            reporter.error("catalogue not available");
+        }
+        for (int i = 0; i < ProgressReporter.MAX_MESSAGES + 5; i++) {
+            reporter.error("AC" + i + ": no process found");
+        }
+        reporter.close();
+
+        List<ProgressReporter.Message> messages = reporter.drain();
+        assertEquals(ProgressReporter.MAX_MESSAGES + 2, messages.size());
+        assertEquals("catalogue not available (3x)", messages.get(0).toString());
+        assertTrue(messages.get(0).isError());
+        assertEquals("... and 6 more errors", messages.get(ProgressReporter.MAX_MESSAGES).toString());
+        assertEquals("10 maps updated", messages.get(ProgressReporter.MAX_MESSAGES + 1).toString());
+        assertFalse(messages.get(ProgressReporter.MAX_MESSAGES + 1).isError());
+        assertTrue(reporter.drain().isEmpty());
+    }
+
+    @Test
+    public void testWithoutConsumer() {
+        ProgressReporter reporter = ProgressReporter.create();
+        reporter.recordFinished();
+        reporter.info("done");
+        reporter.info("done");
+        List<ProgressReporter.Message> messages = reporter.drain();
+        assertEquals(1, messages.size());
+        assertEquals(2, messages.get(0).getCount());
+    }
+
+}
@@ -0,0 +1,132 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Test;
+
+public class RequestGuardTest {
+
+    @Test
+    public void testRateLimit() throws Exception {
+        RequestGuard guard = new RequestGuard(50, 1, 0, 0, 0, 5, 0, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < 11; i++) {
+            guard.execute(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    return null;
+                }
+            });
+        }
+        long duration = (System.nanoTime() - start) / 1000000;
+        // the first request uses the initial token, the other 10 need 20 ms each
+        assertTrue("11 requests took " + duration + " ms", duration >= 190);
+    }
+
+    @Test
+    public void testRetryAfterTransientFailures() throws Exception {
+        StubOpacPlugin opac = new StubOpacPlugin(0);
+        OpacClient client = createClient(opac, 3, 10);
+        opac.setFailures(2);
+        assertNull(client.search("12", "map1"));
+        assertEquals(3, opac.getSearches());
+        assertFalse(client.getGuard().isOpen());
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        StubOpacPlugin opac = new StubOpacPlugin(0);
+        OpacClient client = createClient(opac, 2, 10);
+        opac.setFailures(10);
+        try {
+            client.search("12", "map1");
+            fail("exception expected");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(3, opac.getSearches());
+    }
+
+    @Test
+    public void testCircuitPausesRequests() throws Exception {
+        StubOpacPlugin opac = new StubOpacPlugin(5);
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("opacRequests.retries", 10);
+        config.setProperty("opacRequests.backoff", 1);
+        config.setProperty("opacRequests.failureThreshold", 3);
+        config.setProperty("opacRequests.pause", 200);
+        OpacClient client = new OpacClient(config, null, new OpacConfigResolver(null, opac));
+        opac.setFailures(4);
+
+        long start = System.nanoTime();
+        assertNull(client.search("12", "map1"));
+        long duration = (System.nanoTime() - start) / 1000000;
+
+        // three failures open the circuit, the probe after the first pause fails, the second probe succeeds
+        assertEquals(5, opac.getSearches());
+        assertTrue("request took " + duration + " ms", duration >= 400);
+        assertFalse(client.getGuard().isOpen());
+    }
+
+    @Test
+    public void testMaxPause() throws Exception {
+        RequestGuard guard = new RequestGuard(0, 1, 5, 1, 1, 1, 50, 120);
+        final StubOpacPlugin opac = new StubOpacPlugin(0);
+        opac.setFailures(100);
+        try {
+            guard.execute(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return opac.search("12", "map1", null, null);
+                }
+            });
+            fail("exception expected");
+        } catch (IllegalStateException e) {
+            // catalogue not available for longer than the maximal pause
+        }
+        assertTrue(opac.getSearches() <= 4);
+    }
+
+    @Test
+    public void testRecoveryAfterMaxPause() throws Exception {
+        RequestGuard guard = new RequestGuard(0, 1, 0, 1, 1, 1, 50, 120);
+        final StubOpacPlugin opac = new StubOpacPlugin(0);
+        Callable<Object> request = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return opac.search("12", "map1", null, null);
+            }
+        };
+        opac.setFailures(100);
+        long start = System.currentTimeMillis();
+        while (true) {
+            try {
+                guard.execute(request);
+                fail("exception expected");
+            } catch (IOException e) {
+                // the first failure and the failed probes
+            } catch (IllegalStateException e) {
+                break;
+            }
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        }
+        // the catalogue is back, the probe after the next pause closes the circuit
+        opac.setFailures(0);
+        Thread.sleep(60);
+        assertNull(guard.execute(request));
+        assertFalse(guard.isOpen());
+        assertNull(guard.execute(request));
+    }
+
+    private OpacClient createClient(StubOpacPlugin opac, int retries, long backoff) {
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("opacRequests.retries", retries);
+        config.setProperty("opacRequests.backoff", backoff);
+        return new OpacClient(config, null, new OpacConfigResolver(null, opac));
+    }
+
+}
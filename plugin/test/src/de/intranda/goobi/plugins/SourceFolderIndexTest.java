@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceFolderIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOnlyTifFiles() throws IOException {
+        folder.newFile("b.tif");
+        folder.newFile("a.tif");
+        folder.newFile("c.jpg");
+        folder.newFile("readme.txt");
+        folder.newFolder("d.tif");
+
+        SourceFolderIndex index = SourceFolderIndex.getInstance(folder.getRoot().getAbsolutePath());
+        assertEquals(Arrays.asList("a.tif", "b.tif"), index.getFilenames());
+    }
+
+    @Test
+    public void testPagingAndPrefix() throws IOException {
+        for (int i = 0; i < 30; i++) {
+            folder.newFile(String.format("AC%03d.tif", i));
+        }
+        folder.newFile("BC001.tif");
+
+        SourceFolderIndex index = SourceFolderIndex.getInstance(folder.getRoot().getAbsolutePath());
+        assertEquals(31, index.count(null));
+        assertEquals(30, index.count("AC"));
+        assertEquals(10, index.count("AC01"));
+        assertEquals(Arrays.asList("AC010", "AC011", "AC012"), strip(index.getFilenames("AC01", 0, 3)));
+        assertEquals(Arrays.asList("AC028", "AC029"), strip(index.getFilenames("AC", 28, 10)));
+        assertEquals(Arrays.asList("AC029", "BC001"), strip(index.getFilenames(null, 29, 10)));
+        assertTrue(index.getFilenames("XY", 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testFailedScanKeepsIndex() throws IOException {
+        File share = folder.newFolder("share");
+        assertTrue(new File(share, "a.tif").createNewFile());
+        SourceFolderIndex index = SourceFolderIndex.getInstance(share.getAbsolutePath());
+        assertEquals(Arrays.asList("a.tif"), index.getFilenames());
+
+        // the share is not available for a moment
+        File offline = new File(folder.getRoot(), "offline");
+        assertTrue(share.renameTo(offline));
+        index.scan();
+        assertEquals(Arrays.asList("a.tif"), index.getFilenames());
+
+        assertTrue(offline.renameTo(share));
+        assertTrue(new File(share, "b.tif").createNewFile());
+        index.scan();
+        assertEquals(Arrays.asList("a.tif", "b.tif"), index.getFilenames());
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws IOException, InterruptedException {
+        folder.newFile("a.tif");
+        SourceFolderIndex index = SourceFolderIndex.getInstance(folder.getRoot().getAbsolutePath());
+        assertEquals(1, index.count(null));
+
+        folder.newFile("b.tif");
+        assertTrue(new File(folder.getRoot(), "a.tif").delete());
+        // the watch service reports the changes asynchronously
+        for (int i = 0; i < 100 && !index.contains("b.tif"); i++) {
+            Thread.sleep(100);
+        }
+        for (int i = 0; i < 100 && index.contains("a.tif"); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(Arrays.asList("b.tif"), index.getFilenames());
+    }
+
+    private List<String> strip(List<String> filenames) {
+        List<String> names = new ArrayList<String>();
+        for (String filename : filenames) {
+            names.add(filename.replace(".tif", ""));
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,65 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceRootsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConfiguration() {
+        XMLConfiguration config = new XMLConfiguration();
+        assertEquals(Arrays.asList("/home/tomcat/ubmaps/"), SourceRoots.create(config, "/home/tomcat/ubmaps/").getFolders());
+
+        config.addProperty("sourceFolder", "/mnt/scanner1");
+        config.addProperty("sourceFolder", "/mnt/nas/maps/");
+        config.addProperty("sourceFolder", "/mnt/scanner1/");
+        assertEquals(Arrays.asList("/mnt/scanner1/", "/mnt/nas/maps/"), SourceRoots.create(config, "/home/tomcat/ubmaps/").getFolders());
+    }
+
+    @Test
+    public void testResolveInFirstFolder() throws IOException {
+        File first = folder.newFolder("scanner");
+        File second = folder.newFolder("nas");
+        new File(first, "AC1.tif").createNewFile();
+        new File(second, "AC1.tif").createNewFile();
+        new File(second, "AC2.tif").createNewFile();
+
+        SourceRoots roots = new SourceRoots(first.getAbsolutePath(), second.getAbsolutePath());
+        assertEquals(new File(first, "AC1.tif"), roots.resolve("AC1.tif"));
+        assertEquals(new File(second, "AC2.tif"), roots.resolve("AC2.tif"));
+        assertEquals(second.getAbsolutePath() + "/", roots.getFolder("AC2.tif"));
+        // missing images are reported in the first folder
+        assertEquals(new File(first, "AC3.tif"), roots.resolve("AC3.tif"));
+    }
+
+    @Test
+    public void testFilenamesOfAllFolders() throws IOException {
+        File first = folder.newFolder("scanner");
+        File second = folder.newFolder("nas");
+        for (String name : new String[] { "AC1.tif", "AC4.tif", "AC5.tif" }) {
+            new File(first, name).createNewFile();
+        }
+        for (String name : new String[] { "AC2.tif", "AC4.tif", "AC6.tif", "BC1.tif" }) {
+            new File(second, name).createNewFile();
+        }
+
+        SourceRoots roots = new SourceRoots(first.getAbsolutePath(), second.getAbsolutePath());
+        assertEquals(Arrays.asList("AC1.tif", "AC2.tif", "AC4.tif", "AC5.tif", "AC6.tif", "BC1.tif"), roots.getFilenames());
+        assertEquals(Arrays.asList("AC1.tif", "AC2.tif"), roots.getFilenames("AC", 0, 2));
+        assertEquals(Arrays.asList("AC4.tif", "AC5.tif"), roots.getFilenames("AC", 2, 2));
+        assertEquals(Arrays.asList("AC6.tif"), roots.getFilenames("AC", 4, 2));
+        assertTrue(roots.getFilenames("AC", 6, 2).isEmpty());
+    }
+
+}
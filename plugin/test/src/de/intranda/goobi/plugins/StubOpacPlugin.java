@@ -0,0 +1,119 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.production.enums.PluginType;
+import org.goobi.production.plugin.interfaces.IOpacPlugin;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+import de.unigoettingen.sub.search.opac.ConfigOpacCatalogue;
+import de.unigoettingen.sub.search.opac.ConfigOpacDoctype;
+
+/**
+ * Opac plugin for tests. Every search waits for the configured latency and returns no record, or a map without metadata if a ruleset is
+ * given. The next searches can be set to fail.
+ */
+public class StubOpacPlugin implements IOpacPlugin {
+
+    private final long latency;
+
+    private final Prefs prefs;
+
+    private final AtomicInteger searches = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    public StubOpacPlugin(long latency) {
+        this(latency, null);
+    }
+
+    /**
+     * @param prefs ruleset of the returned maps, null to return no record
+     */
+    public StubOpacPlugin(long latency, Prefs prefs) {
+        this.latency = latency;
+        this.prefs = prefs;
+    }
+
+    @Override
+    public Fileformat search(String inSuchfeld, String inSuchbegriff, ConfigOpacCatalogue coc, Prefs inPrefs) throws Exception {
+        searches.incrementAndGet();
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+        int remaining = failures.get();
+        while (remaining > 0) {
+            if (failures.compareAndSet(remaining, remaining - 1)) {
+                throw new IOException("catalogue not available");
+            }
+            remaining = failures.get();
+        }
+        if (prefs == null) {
+            return null;
+        }
+        MetsMods mm = new MetsMods(prefs);
+        DigitalDocument dd = new DigitalDocument();
+        dd.setLogicalDocStruct(dd.createDocStruct(prefs.getDocStrctTypeByName("Map")));
+        mm.setDigitalDocument(dd);
+        return mm;
+    }
+
+    /**
+     * Lets the next searches fail with an {@link IOException}.
+     */
+    public void setFailures(int count) {
+        failures.set(count);
+    }
+
+    public int getSearches() {
+        return searches.get();
+    }
+
+    @Override
+    public int getHitcount() {
+        return 0;
+    }
+
+    @Override
+    public String getAtstsl() {
+        return null;
+    }
+
+    @Override
+    public ConfigOpacDoctype getOpacDocType() {
+        return null;
+    }
+
+    @Override
+    public String createAtstsl(String myTitle, String autor) {
+        return null;
+    }
+
+    @Override
+    public void setAtstsl(String createAtstsl) {
+    }
+
+    public String getGattung() {
+        return null;
+    }
+
+    @Override
+    public PluginType getType() {
+        return PluginType.Opac;
+    }
+
+    @Override
+    public String getTitle() {
+        return "stub";
+    }
+
+    @Override
+    public String getDescription() {
+        return "stub";
+    }
+
+}
@@ -0,0 +1,265 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.goobi.production.enums.ImportReturnValue;
+import org.goobi.production.importer.ImportObject;
+import org.goobi.production.importer.Record;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testClaimAndComplete() throws IOException {
+        WorkQueue queue = WorkQueue.publish(folder.getRoot(), createRecords(5), "/import/", 2, 60000);
+        assertEquals(3, queue.getChunkCount());
+        assertEquals(1, WorkQueue.findOpen(folder.getRoot()).size());
+        assertEquals("/import/", WorkQueue.findOpen(folder.getRoot()).get(0).getImportFolder());
+
+        WorkQueue.Lease first = queue.claim("a");
+        WorkQueue.Lease second = queue.claim("b");
+        WorkQueue.Lease third = queue.claim("a");
+        assertNull(queue.claim("c"));
+        assertEquals(0, first.getChunk());
+        assertEquals(1, second.getChunk());
+        assertEquals(2, third.getChunk());
+        assertEquals(1, third.getRecords().size());
+        assertEquals("AC1.tif\nAC1_2.tif", first.getRecords().get(1).getData());
+
+        assertTrue(third.complete(createResults(third.getRecords())));
+        assertTrue(first.renew());
+        assertTrue(first.complete(createResults(first.getRecords())));
+        assertFalse(queue.isFinished());
+        // another worker may claim a chunk whose lease was released
+        second.release();
+        WorkQueue.Lease retry = queue.claim("c");
+        assertEquals(1, retry.getChunk());
+        assertTrue(retry.complete(createResults(retry.getRecords())));
+
+        assertTrue(queue.isFinished());
+        assertTrue(WorkQueue.findOpen(folder.getRoot()).isEmpty());
+        List<ImportObject> results = queue.getResults();
+        assertEquals(5, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals("AC" + i, results.get(i).getProcessTitle());
+            assertEquals(ImportReturnValue.ExportFinished, results.get(i).getImportReturnValue());
+            assertEquals("/import/AC" + i + ".xml", results.get(i).getMetsFilename());
+            assertNull(results.get(i).getErrorMessage());
+        }
+        queue.delete();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testExpiredLease() throws Exception {
+        WorkQueue queue = WorkQueue.publish(folder.getRoot(), createRecords(4), null, 2, 100);
+        WorkQueue.Lease dead = queue.claim("dead");
+        WorkQueue.Lease alive = queue.claim("alive");
+        assertNull(queue.claim("alive"));
+        Thread.sleep(150);
+
+        // the lease of the first chunk expired, the lease of the second was not checked yet
+        assertTrue(alive.renew());
+        WorkQueue.Lease retry = queue.claim("alive");
+        assertEquals(0, retry.getChunk());
+        assertFalse(dead.renew());
+        // the lease of the new owner is left as it is
+        assertTrue(retry.renew());
+        assertFalse(dead.complete(createResults(dead.getRecords())));
+        assertTrue(retry.complete(createResults(retry.getRecords())));
+        assertTrue(alive.complete(createResults(alive.getRecords())));
+
+        assertTrue(queue.isFinished());
+        assertEquals(4, queue.getResults().size());
+    }
+
+    @Test
+    public void testClaimWhileRenewing() throws Exception {
+        WorkQueue queue = WorkQueue.publish(folder.getRoot(), createRecords(1), null, 1, 60000);
+        final WorkQueue.Lease lease = queue.claim("a");
+        ExecutorService heartbeat = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> renewals = heartbeat.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    boolean renewed = true;
+                    for (int i = 0; i < 2000; i++) {
+                        renewed &= lease.renew();
+                    }
+                    return renewed;
+                }
+            });
+            // the lease is never missing while it is renewed
+            while (!renewals.isDone()) {
+                assertNull(queue.claim("b"));
+            }
+            assertTrue(renewals.get());
+        } finally {
+            heartbeat.shutdownNow();
+        }
+        assertTrue(lease.complete(createResults(lease.getRecords())));
+    }
+
+    @Test
+    public void testLostLeaseAbortsChunk() throws Exception {
+        final WorkQueue queue = WorkQueue.publish(folder.getRoot(), createRecords(2), null, 2, 300);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        DistributedImport distributed = new DistributedImport(new DistributedImport.ChunkImporter() {
+            @Override
+            public List<ImportObject> importChunk(List<Record> records) {
+                // another worker takes the chunk away
+                for (File lease : new File(queue.getFolder(), "leases").listFiles()) {
+                    lease.delete();
+                }
+                try {
+                    assertNotNull(queue.claim("other"));
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return createResults(records);
+            }
+        });
+
+        assertEquals(0, distributed.work(queue));
+        assertTrue(interrupted.get());
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertFalse(queue.isFinished());
+    }
+
+    @Test
+    public void testUnfinishedChunks() throws IOException {
+        WorkQueue queue = WorkQueue.publish(folder.getRoot(), createRecords(3), null, 2, 60000);
+        WorkQueue.Lease lease = queue.claim("a");
+        lease.complete(createResults(lease.getRecords()));
+
+        List<ImportObject> results = queue.getResults();
+        assertEquals(3, results.size());
+        assertEquals(ImportReturnValue.ExportFinished, results.get(1).getImportReturnValue());
+        assertEquals(ImportReturnValue.InvalidData, results.get(2).getImportReturnValue());
+        assertEquals("AC2: import was not finished.", results.get(2).getErrorMessage());
+    }
+
+    @Test
+    public void testEscape() {
+        for (String value : new String[] { "", "a\tb", "a\nb\r\n", "C:\\maps\\n", "\\" }) {
+            assertEquals(value, WorkQueue.unescape(WorkQueue.escape(value)));
+        }
+        assertNull(WorkQueue.unescape(WorkQueue.escape(null)));
+    }
+
+    @Test
+    public void testSeveralNodes() throws Exception {
+        final File queueFolder = folder.newFolder("queue");
+        final String importFolder = folder.newFolder("import").getAbsolutePath() + "/";
+        MapImportPlugin coordinator = createPlugin(queueFolder);
+        coordinator.setImportFolder(importFolder);
+        final AtomicBoolean finished = new AtomicBoolean();
+        final AtomicInteger chunks = new AtomicInteger();
+        ExecutorService nodes = Executors.newFixedThreadPool(3);
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int i = 0; i < 3; i++) {
+            workers.add(nodes.submit(new Runnable() {
+                @Override
+                public void run() {
+                    MapImportPlugin worker = createPlugin(queueFolder);
+                    worker.setImportFolder(null);
+                    int imported = 0;
+                    while (!finished.get()) {
+                        imported += worker.joinDistributedImports(null);
+                    }
+                    chunks.addAndGet(imported);
+                    // the records are written into the import folder of the coordinator
+                    assertTrue(imported == 0 || importFolder.equals(worker.getImportFolder()));
+                }
+            }));
+        }
+        try {
+            List<ImportObject> answer = coordinator.generateFiles(MapImportPluginTest.createRecords(40));
+            assertEquals(40, answer.size());
+            for (int i = 0; i < answer.size(); i++) {
+                assertEquals("map" + i, answer.get(i).getProcessTitle());
+                assertEquals(ImportReturnValue.InvalidData, answer.get(i).getImportReturnValue());
+            }
+        } finally {
+            finished.set(true);
+            nodes.shutdown();
+            assertTrue(nodes.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        assertTrue(chunks.get() <= 10);
+        assertEquals(0, queueFolder.list().length);
+    }
+
+    @Test
+    public void testOneReportPerBatch() throws Exception {
+        File importFolder = folder.newFolder("import");
+        MapImportPlugin coordinator = createPlugin(folder.newFolder("queue"));
+        coordinator.setImportFolder(importFolder.getAbsolutePath() + "/");
+        coordinator.getConfiguration().setProperty("metrics.report", true);
+
+        assertEquals(40, coordinator.generateFiles(MapImportPluginTest.createRecords(40)).size());
+        // the ten chunks share the metrics of the batch
+        assertEquals(40, coordinator.getMetrics().getRecords());
+        String[] reports = importFolder.list();
+        assertEquals(1, reports.length);
+        assertTrue(reports[0], reports[0].startsWith("mapimport-report-"));
+    }
+
+    private static MapImportPlugin createPlugin(File queueFolder) {
+        MapImportPlugin plugin = MapImportPluginTest.createPlugin(1, new StubOpacPlugin(5));
+        XMLConfiguration config = plugin.getConfiguration();
+        config.setProperty("distributed[@enabled]", true);
+        config.setProperty("distributed.folder", queueFolder.getAbsolutePath());
+        config.setProperty("distributed.chunkSize", 4);
+        config.setProperty("distributed.pollInterval", 10);
+        config.setProperty("metrics.logInterval", 0);
+        return plugin;
+    }
+
+    private static List<Record> createRecords(int count) {
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < count; i++) {
+            Record record = new Record();
+            record.setId("AC" + i);
+            record.setData("AC" + i + ".tif\nAC" + i + "_2.tif");
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static List<ImportObject> createResults(List<Record> records) {
+        List<ImportObject> results = new ArrayList<ImportObject>();
+        for (Record record : records) {
+            ImportObject io = new ImportObject();
+            io.setProcessTitle(record.getId());
+            io.setMetsFilename("/import/" + record.getId() + ".xml");
+            io.setImportReturnValue(ImportReturnValue.ExportFinished);
+            results.add(io);
+        }
+        return results;
+    }
+
+}